@@ -6,7 +6,6 @@ import javax.json.JsonValue;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * Created by md5wz on 12/18/17.
@@ -25,8 +24,8 @@ public class ASpaceAccession extends ASpaceObject {
     }
 
     @Override
-    protected Pattern getRefIdPattern() {
-        return Pattern.compile("/?repositories/\\d+/accessions/\\d+");
+    protected RefId.Type getRefIdType() {
+        return RefId.Type.ACCESSION;
     }
 
     public boolean isShadowed() throws IOException {
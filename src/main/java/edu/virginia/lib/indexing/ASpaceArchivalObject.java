@@ -4,11 +4,13 @@ import javax.json.JsonObject;
 import javax.json.JsonValue;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Pattern;
 
 public class ASpaceArchivalObject extends ASpaceObject {
 
+    private String resourceUri;
+
     public ASpaceArchivalObject(ArchivesSpaceClient aspaceClient, final String refId, final JsonObject tree) throws IOException {
         super(aspaceClient, refId);
         if (!tree.getString("node_type").equals("archival_object")) {
@@ -17,9 +19,34 @@ public class ASpaceArchivalObject extends ASpaceObject {
         this.tree = tree;
     }
 
+    /**
+     * Creates an archival object from a node returned by the paged tree endpoints.
+     */
+    public ASpaceArchivalObject(ArchivesSpaceClient aspaceClient, final JsonObject node, final String resourceUri) throws IOException {
+        super(aspaceClient, node.getString("uri"));
+        if (!node.getString("jsonmodel_type").equals("archival_object")) {
+            throw new IllegalArgumentException("Unexpected jsonmodel_type \"" + node.getString("jsonmodel_type") + "\"");
+        }
+        this.tree = node;
+        this.resourceUri = resourceUri;
+    }
+
+    @Override
+    protected List<JsonObject> getPagedChildNodes() throws IOException {
+        if (tree.getInt("child_count", 0) == 0) {
+            return Collections.emptyList();
+        }
+        return c.getTreeChildren(resourceUri, refId, tree.getInt("waypoints", 1));
+    }
+
+    @Override
+    protected String getResourceUri() {
+        return resourceUri;
+    }
+
     @Override
-    protected Pattern getRefIdPattern() {
-        return Pattern.compile("/?repositories/\\d+/archival_objects/\\d+");
+    protected RefId.Type getRefIdType() {
+        return RefId.Type.ARCHIVAL_OBJECT;
     }
 
     @Override
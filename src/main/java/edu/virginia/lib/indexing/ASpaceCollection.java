@@ -1,15 +1,20 @@
 package edu.virginia.lib.indexing;
 
+import org.apache.solr.client.solrj.SolrServerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.json.JsonObject;
 import java.io.IOException;
-import java.util.regex.Pattern;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Created by md5wz on 11/9/17.
  */
 public class ASpaceCollection extends ASpaceObject {
 
-    private static Pattern ID_PATTERN = Pattern.compile("/?repositories/\\d+/resources/\\d+");
+    private static final Logger LOGGER = LoggerFactory.getLogger(ASpaceCollection.class);
 
     /**
      * Checks whether a passed id is in the format expected for an ID.  This does not
@@ -17,7 +22,8 @@ public class ASpaceCollection extends ASpaceObject {
      * and couldn't be another type.
      */
     public static boolean isCorrectIdFormat(final String id) {
-        return ID_PATTERN.matcher(id).matches();
+        final RefId ref = RefId.tryParse(id);
+        return ref != null && ref.getType() == RefId.Type.RESOURCE;
     }
 
     public ASpaceCollection(ArchivesSpaceClient c, String refId) throws IOException {
@@ -25,8 +31,30 @@ public class ASpaceCollection extends ASpaceObject {
     }
 
     @Override
-    protected Pattern getRefIdPattern() {
-        return ID_PATTERN;
+    protected RefId.Type getRefIdType() {
+        return RefId.Type.RESOURCE;
+    }
+
+    /**
+     * Finds the instance refs with a few queries to the ArchivesSpace solr index when one is
+     * configured for container discovery, falling back to walking the tree if that fails.
+     */
+    @Override
+    protected void collectInstanceRefs(final Set<String> containerRefs, final Set<String> doRefs) throws IOException {
+        final ArchivesSpaceSolr solr = c.getContainerDiscoverySolr();
+        if (solr != null) {
+            final Set<String> containers = new HashSet<>();
+            final Set<String> dos = new HashSet<>();
+            try {
+                solr.collectInstanceRefs(refId, containers, dos);
+                containerRefs.addAll(containers);
+                doRefs.addAll(dos);
+                return;
+            } catch (SolrServerException | RuntimeException ex) {
+                LOGGER.warn("Unable to find instances for " + refId + " in solr, walking the tree instead.", ex);
+            }
+        }
+        super.collectInstanceRefs(containerRefs, doRefs);
     }
 
     @Override
@@ -6,8 +6,6 @@ import javax.json.JsonValue;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static edu.virginia.lib.indexing.helpers.UvaHelper.extractManifestUrl;
 
@@ -21,6 +19,10 @@ public class ASpaceDigitalObject extends ASpaceObject {
         super(client, refId);
     }
 
+    public ASpaceDigitalObject(ArchivesSpaceClient client, String refId, JsonObject record) throws IOException {
+        super(client, refId, record);
+    }
+
     /**
      * @return an empty list because ASpaceDigitalObject objects cannot have children.
      */
@@ -29,8 +31,8 @@ public class ASpaceDigitalObject extends ASpaceObject {
     }
 
     @Override
-    protected Pattern getRefIdPattern() {
-        return Pattern.compile("/?repositories/\\d+/digital_objects/\\d+");
+    protected RefId.Type getRefIdType() {
+        return RefId.Type.DIGITAL_OBJECT;
     }
 
     @Override
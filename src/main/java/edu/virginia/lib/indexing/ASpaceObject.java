@@ -1,10 +1,8 @@
 package edu.virginia.lib.indexing;
 
+import edu.virginia.lib.indexing.helpers.DateExpressionParser;
 import edu.virginia.lib.indexing.helpers.JsonHelper;
 import edu.virginia.lib.indexing.helpers.StringNaturalCompare;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.HttpClients;
 import org.marc4j.MarcStreamWriter;
 import org.marc4j.MarcWriter;
 import org.marc4j.MarcXmlWriter;
@@ -19,28 +17,28 @@ import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import javax.json.JsonValue;
-import javax.json.stream.JsonParsingException;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
+import java.io.UncheckedIOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -58,6 +56,8 @@ public abstract class ASpaceObject {
 
     final static public String RIGHTS_WRAPPER_URL = "http://rightswrapper2.lib.virginia.edu:8090/rights-wrapper/";
 
+    private static final Pattern THUMBNAIL_PATTERN = Pattern.compile("(https://.*/full/)[^/]*(/.*)");
+
     protected ArchivesSpaceClient c;
 
     protected String refId;
@@ -73,13 +73,23 @@ public abstract class ASpaceObject {
     private List<ASpaceArchivalObject> children;
 
     public ASpaceObject(ArchivesSpaceClient aspaceClient, final String refId) throws IOException {
-        if (!getRefIdPattern().matcher(refId).matches()) {
+        final RefId ref = RefId.tryParse(refId);
+        if (ref == null || ref.getType() != getRefIdType()) {
             throw new IllegalArgumentException(refId + " is not an " + this.getClass().getSimpleName());
         }
         this.c = aspaceClient;
         this.refId = refId;
     }
 
+    /**
+     * A constructor for cases where the record has already been fetched (for instance as part
+     * of a batch).  If the passed record is null it will be fetched when first needed.
+     */
+    protected ASpaceObject(ArchivesSpaceClient aspaceClient, final String refId, final JsonObject record) throws IOException {
+        this(aspaceClient, refId);
+        this.record = record;
+    }
+
     protected JsonObject getRecord() {
         if (record == null) {
             try {
@@ -102,18 +112,24 @@ public abstract class ASpaceObject {
     }
 
     public static ASpaceObject parseObject(final ArchivesSpaceClient client, final String refId) throws IOException {
-        if (refId.contains("/accessions/")) {
-            return new ASpaceAccession(client, refId);
-        } else if (refId.contains("/resources/")) {
-            return new ASpaceCollection(client, refId);
-        } else if (refId.contains("/top_containers/")) {
-            return new ASpaceTopContainer(client, refId);
-        } else {
-            throw new RuntimeException("Unable to guess resource type from refID! (" + refId + ")");
+        final RefId ref = RefId.tryParse(refId);
+        if (ref != null) {
+            switch (ref.getType()) {
+                case ACCESSION:
+                    return new ASpaceAccession(client, refId);
+                case RESOURCE:
+                    return new ASpaceCollection(client, refId);
+                case TOP_CONTAINER:
+                    return new ASpaceTopContainer(client, refId);
+            }
         }
+        throw new RuntimeException("Unable to guess resource type from refID! (" + refId + ")");
     }
 
-    protected abstract Pattern getRefIdPattern();
+    /**
+     * @return the type of record whose reference ids this class accepts.
+     */
+    protected abstract RefId.Type getRefIdType();
 
     public abstract boolean isShadowed() throws IOException;
 
@@ -124,22 +140,50 @@ public abstract class ASpaceObject {
      * have nested components should return an empty list.
      */
     public List<ASpaceArchivalObject> getChildren() throws IOException {
-        if (children == null) {
-            children = new ArrayList<>();
-            final JsonObject treeObj = getTree();
-            if (treeObj != null) {
-                final JsonArray jsonChildren = tree.getJsonArray("children");
-                if (jsonChildren != null) {
-                    for (JsonValue c : jsonChildren) {
-                        final JsonObject child = (JsonObject) c;
-                        children.add(new ASpaceArchivalObject(this.c, child.getString("record_uri"), child));
-                    }
+        if (children != null) {
+            return children;
+        }
+        if (c.isPagedTreeMode()) {
+            // children from the paged tree aren't retained, so that a traversal only ever
+            // holds the nodes along the current path rather than the whole tree
+            final List<ASpaceArchivalObject> paged = new ArrayList<>();
+            for (JsonObject node : getPagedChildNodes()) {
+                paged.add(new ASpaceArchivalObject(this.c, node, getResourceUri()));
+            }
+            return paged;
+        }
+        children = new ArrayList<>();
+        final JsonObject treeObj = getTree();
+        if (treeObj != null) {
+            final JsonArray jsonChildren = tree.getJsonArray("children");
+            if (jsonChildren != null) {
+                for (JsonValue c : jsonChildren) {
+                    final JsonObject child = (JsonObject) c;
+                    children.add(new ASpaceArchivalObject(this.c, child.getString("record_uri"), child));
                 }
             }
         }
         return children;
     }
 
+    /**
+     * Gets the paged tree nodes for the direct children of this object.  This implementation
+     * returns the top level of the tree for objects that have one.
+     */
+    protected List<JsonObject> getPagedChildNodes() throws IOException {
+        if (getRecord().getJsonObject("tree") == null) {
+            return Collections.emptyList();
+        }
+        return c.getTreeChildren(refId, null, 0);
+    }
+
+    /**
+     * Gets the URI of the resource whose tree contains this object.
+     */
+    protected String getResourceUri() {
+        return refId;
+    }
+
     public List<ASpaceDigitalObject> getDigitalObjects() {
         parseInstances();
         return digitalObjects;
@@ -158,11 +202,14 @@ public abstract class ASpaceObject {
                 Set<String> containers = new HashSet<>();
                 Set<String> dos = new HashSet<>();
                 collectInstanceRefs(containers, dos);
+                final Set<String> allRefs = new HashSet<>(containers);
+                allRefs.addAll(dos);
+                final Map<String, JsonObject> prefetched = c.bulkResolveReferences(allRefs);
                 for (String ref : containers) {
-                    this.containers.add(new ASpaceTopContainer(c, ref));
+                    this.containers.add(new ASpaceTopContainer(c, ref, prefetched.get(ref)));
                 }
                 for (String ref : dos) {
-                    this.digitalObjects.add(new ASpaceDigitalObject(c, ref));
+                    this.digitalObjects.add(new ASpaceDigitalObject(c, ref, prefetched.get(ref)));
                 }
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -172,9 +219,88 @@ public abstract class ASpaceObject {
 
     /**
      * Adds all the container refs and digital object refs for this node to the passed
-     * sets and recurses to the published children.
+     * sets and recurses to the published children.  When the client has a traversal pool
+     * the hierarchy is walked as a fork/join computation, otherwise it's walked depth-first
+     * on the calling thread.
      */
     protected void collectInstanceRefs(final Set<String> containerRefs, Set<String> doRefs) throws IOException {
+        final ForkJoinPool pool = c.getTraversalPool();
+        if (pool == null) {
+            collectInstanceRefsSequentially(containerRefs, doRefs);
+            return;
+        }
+        final Set<String> containers = ConcurrentHashMap.newKeySet();
+        final Set<String> dos = ConcurrentHashMap.newKeySet();
+        try {
+            pool.invoke(new InstanceRefCollector(this, false, containers, dos, c.getDependencyTracker()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        containerRefs.addAll(containers);
+        doRefs.addAll(dos);
+    }
+
+    private void collectInstanceRefsSequentially(final Set<String> containerRefs, Set<String> doRefs) throws IOException {
+        addOwnInstanceRefs(containerRefs, doRefs);
+
+        // recurse to children
+        for (ASpaceObject child : getChildren()) {
+            if (child.isPublished()) {
+                child.collectInstanceRefsSequentially(containerRefs, doRefs);
+            }
+        }
+    }
+
+    /**
+     * A task that adds the instance refs of one node to the (concurrent) sets and then
+     * forks a task for each of its children, so sibling subtrees are fetched in parallel.
+     */
+    private static class InstanceRefCollector extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ASpaceObject node;
+
+        private final boolean skipUnpublished;
+
+        private final Set<String> containerRefs;
+
+        private final Set<String> doRefs;
+
+        private final DependencyTracker tracker;
+
+        private InstanceRefCollector(final ASpaceObject node, final boolean skipUnpublished, final Set<String> containerRefs, final Set<String> doRefs, final DependencyTracker tracker) {
+            this.node = node;
+            this.skipUnpublished = skipUnpublished;
+            this.containerRefs = containerRefs;
+            this.doRefs = doRefs;
+            this.tracker = tracker;
+        }
+
+        @Override
+        protected void compute() {
+            // the pool's threads report the records they resolve to the tracker of the thread
+            // that started the walk
+            final DependencyTracker previous = node.c.setDependencyTracker(tracker);
+            try {
+                if (skipUnpublished && !node.isPublished()) {
+                    return;
+                }
+                node.addOwnInstanceRefs(containerRefs, doRefs);
+                final List<InstanceRefCollector> children = new ArrayList<>();
+                for (ASpaceArchivalObject child : node.getChildren()) {
+                    children.add(new InstanceRefCollector(child, true, containerRefs, doRefs, tracker));
+                }
+                invokeAll(children);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                node.c.setDependencyTracker(previous);
+            }
+        }
+    }
+
+    private void addOwnInstanceRefs(final Set<String> containerRefs, Set<String> doRefs) {
         final JsonValue instances = getRecord().get("instances");
         if (instances != null && instances.getValueType() == JsonValue.ValueType.ARRAY) {
             for (JsonValue i : (JsonArray) instances) {
@@ -186,13 +312,6 @@ public abstract class ASpaceObject {
                 }
             }
         }
-
-        // recurse to children
-        for (ASpaceArchivalObject child : getChildren()) {
-            if (child.isPublished()) {
-                child.collectInstanceRefs(containerRefs, doRefs);
-            }
-        }
     }
 
     public int getLockVersion() {
@@ -223,60 +342,83 @@ public abstract class ASpaceObject {
         return sb.toString();
     }
 
+    /**
+     * Writes the solr document for this record (see {@link #buildSolrDoc}) as a v3 XML add
+     * document in the given directory.
+     *
+     * @return the file that was written
+     */
     public File generateSolrAddDoc(final File outputDir, final String dbHost, final String dbUser, final String dbPassword) throws IOException, XMLStreamException, SQLException {
+        return writeSolrAddDoc(outputDir, buildSolrDoc(dbHost, dbUser, dbPassword));
+    }
+
+    /**
+     * Writes an already built solr document for this record as a v3 XML add document in the
+     * given directory.
+     *
+     * @return the file that was written
+     */
+    public File writeSolrAddDoc(final File outputDir, final SolrDoc doc) throws IOException {
+        final File outputFile = getSolrOutputFile(outputDir, getRecord().getString("uri"));
+        outputFile.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(outputFile)) {
+            new SolrXmlSerializer().write(doc, out);
+        }
+        return outputFile;
+    }
+
+    /**
+     * Builds the solr document for this record, fetching whatever linked records, IIIF
+     * manifests and rights statements are needed.  The result may be written to a file
+     * or sent to solr by any {@link SolrDocSerializer}.
+     */
+    public SolrDoc buildSolrDoc(final String dbHost, final String dbUser, final String dbPassword) throws IOException, SQLException {
         final String shortRefId = getIdFromRef(getRecord().getString("uri"));
         final String callNumber = getCallNumber();
         final String title = getRecord().getString("title");
 
-        XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newFactory();
-        final File outputFile = getSolrOutputFile(outputDir, getRecord().getString("uri"));
-        outputFile.getParentFile().mkdirs();
-        XMLStreamWriter xmlOut = xmlOutputFactory.createXMLStreamWriter(new FileOutputStream(outputFile));
-        xmlOut.writeStartDocument("UTF-8", "1.0");
-        xmlOut.writeCharacters("\n");
-        xmlOut.writeStartElement("add");
-        xmlOut.writeCharacters("  ");
-        xmlOut.writeStartElement("doc");
-        xmlOut.writeCharacters("\n");
-
-        addField(xmlOut, "id", shortRefId);
+        final SolrDoc doc = new SolrDoc();
+        doc.addField("id", shortRefId);
         String hid = getId();
         // Despite it's name, "alternate_id_facet" currently must only be an alternate id that represents a
         // distinct digital object for which there's an IIIF manifest, rights_wrapper_url, etc.
         //
         //if (isUniqueVirgoId(hid)) {
-        //    addField(xmlOut, "alternate_id_facet", hid);
+        //    doc.addField("alternate_id_facet", hid);
         //}
-        addField(xmlOut, "aspace_version_facet", String.valueOf(getLockVersion()));
-        addField(xmlOut, "call_number_facet", callNumber);
-        addField(xmlOut, "main_title_display", title);
-        addField(xmlOut, "title_text", title);
-        addField(xmlOut, "source_facet", "ArchivesSpace");
-        addField(xmlOut, "format_facet", "Manuscript/Archive");
+        doc.addField("aspace_version_facet", String.valueOf(getLockVersion()));
+        doc.addField("call_number_facet", callNumber);
+        doc.addField("main_title_display", title);
+        doc.addField("title_text", title);
+        doc.addField("source_facet", "ArchivesSpace");
+        doc.addField("format_facet", "Manuscript/Archive");
         final boolean shadowed = isShadowed();
-        addField(xmlOut, "shadowed_location_facet", shadowed ? "HIDDEN" : "VISIBLE");
+        doc.addField("shadowed_location_facet", shadowed ? "HIDDEN" : "VISIBLE");
         if (!shadowed) {
 
             // TODO: get this from the data
-            //addRightsFields("http://rightsstatements.org/vocab/InC-EDU/1.0/", xmlOut, id, tracksysDbHost, tracksysDbUsername, tracksysDbPassword);
+            //addRightsFields("http://rightsstatements.org/vocab/InC-EDU/1.0/", doc, id, tracksysDbHost, tracksysDbUsername, tracksysDbPassword);
 
             // TODO: do something with finding aid status
 
             final String library = getLibrary(getRecord());
-            addField(xmlOut, "library_facet", library);
+            doc.addField("library_facet", library);
 
             // TODO location_facet
 
+            // subjects and agents are fetched together in batches
+            final Map<String, JsonObject> linked = c.bulkResolveReferences(getLinkedRefs("subjects", "linked_agents"));
+
             // subjects
             final JsonValue subjects = getRecord().get("subjects");
             if (subjects != null && subjects.getValueType() == JsonValue.ValueType.ARRAY) {
                 for (JsonValue sub : (JsonArray) subjects) {
                     final String ref = ((JsonObject) sub).getString("ref");
-                    final JsonObject subject = c.resolveReference(ref);
+                    final JsonObject subject = resolve(linked, ref);
                     // TODO: break up these subjects
                     if (subject.getBoolean("publish")) {
-                        addField(xmlOut, "subject_facet", subject.getString("title"));
-                        addField(xmlOut, "subject_text", subject.getString("title"));
+                        doc.addField("subject_facet", subject.getString("title"));
+                        doc.addField("subject_text", subject.getString("title"));
                     }
                 }
             }
@@ -295,62 +437,12 @@ public abstract class ASpaceObject {
                     if (e.get("container_summary") != null) {
                         extentString.append(" (" + e.getString("container_summary") + ")");
                     }
-                    addField(xmlOut, "extent_display", extentString.toString());
+                    doc.addField("extent_display", extentString.toString());
                 }
             }
 
             // dates
-            boolean sortDateSet = false;
-            final JsonValue dates = getRecord().get("dates");
-            if (dates != null && dates.getValueType() == JsonValue.ValueType.ARRAY) {
-                for (JsonValue date : (JsonArray) dates) {
-                    try {
-                        final JsonObject dateObj = (JsonObject) date;
-                        if (hasValue(dateObj, "expression")) {
-                            final String dateStr = ((JsonObject) date).getString("expression");
-                            int year = -1;
-                            if (dateStr.matches("\\d\\d\\d\\d")) {
-                                year = Integer.parseInt(dateStr);
-                            } else if (dateStr.matches("\\d\\d\\d\\d-\\d\\d\\d\\d")) {
-                                year = Integer.parseInt(dateStr.substring(5));
-                            }
-                            if (year != 0) {
-                                if (!sortDateSet) {
-                                    addField(xmlOut, "date_multisort_i", String.valueOf(year));
-                                    sortDateSet = true;
-                                }
-                                final int yearsAgo = Calendar.getInstance().get(Calendar.YEAR) - year;
-                                if (yearsAgo > 50) {
-                                    addField(xmlOut, "published_date_facet", "More than 50 years ago");
-                                }
-                                if (yearsAgo <= 50) {
-                                    addField(xmlOut, "published_date_facet", "Last 50 years");
-                                }
-                                if (yearsAgo <= 10) {
-                                    addField(xmlOut, "published_date_facet", "Last 10 years");
-                                }
-                                if (yearsAgo <= 3) {
-                                    addField(xmlOut, "published_date_facet", "Last 3 years");
-                                }
-                                if (yearsAgo <= 1) {
-                                    addField(xmlOut, "published_date_facet", "Last 12 months");
-                                }
-                            } else {
-                                throw new RuntimeException("Cannot parse date! (" + dateStr + ")");
-                            }
-                            addField(xmlOut, "date_display", dateStr);
-                        } else if (hasValue(dateObj, "begin") && hasValue(dateObj, "end")) {
-                            final String begin = ((JsonObject) date).getString("begin");
-                            final String end = ((JsonObject) date).getString("end");
-                            if (begin != null && end != null) {
-                                addField(xmlOut, "date_display", begin + "-" + end);
-                            }
-                        }
-                    } catch (Exception ex) {
-                        throw new RuntimeException(ex);
-                    }
-                }
-            }
+            addDateFields(getRecord().get("dates"), doc);
 
             // linked agents
             final JsonValue agents = getRecord().get("linked_agents");
@@ -358,13 +450,13 @@ public abstract class ASpaceObject {
                 for (JsonValue agentLink : (JsonArray) agents) {
                     final String ref = ((JsonObject) agentLink).getString("ref");
                     final String role = ((JsonObject) agentLink).getString("role");
-                    final JsonObject agent = c.resolveReference(ref);
+                    final JsonObject agent = resolve(linked, ref);
                     try {
                         if (agent.getBoolean("publish")) {
                             if (role.equals("creator")) {
                                 final String name = agent.getString("title");
-                                addField(xmlOut, "author_facet", name);
-                                addField(xmlOut, "author_text", name);
+                                doc.addField("author_facet", name);
+                                doc.addField("author_text", name);
                             }
                         }
                     } catch (NullPointerException e) {
@@ -380,17 +472,16 @@ public abstract class ASpaceObject {
             // for (ASpaceTopContainer container : containers) {
             //     System.err.println(container.getContainerCallNumber(getCallNumber()));
             // }
-            Collections.sort(containers, new Comparator<ASpaceTopContainer>() {
-                @Override
-                public int compare(ASpaceTopContainer o1, ASpaceTopContainer o2) {
-                	StringNaturalCompare comp = new StringNaturalCompare(); 
-                	return comp.compare(o1.getContainerCallNumber(""), o2.getContainerCallNumber(""));
-                }
-            });
+            final Map<ASpaceTopContainer, String> sortKeys = new IdentityHashMap<>();
+            for (ASpaceTopContainer container : containers) {
+                sortKeys.put(container, StringNaturalCompare.getSortKey(container.getContainerCallNumber("")));
+            }
+            Collections.sort(containers, Comparator.comparing(sortKeys::get));
             // System.err.println("Post-Sort");
             // for (ASpaceTopContainer container : containers) {
             //     System.err.println(container.getContainerCallNumber(getCallNumber()));
             // }
+            ASpaceTopContainer.preloadCurrentLocations(c, containers);
 
             for (ASpaceTopContainer container : containers) {
                 JsonObjectBuilder b = Json.createObjectBuilder();
@@ -401,7 +492,7 @@ public abstract class ASpaceObject {
                 b.add("special_collections_location", container.getCurrentLocation());
                 containersBuilder.add(b.build());
             }
-            addField(xmlOut, "special_collections_holding_display", containersBuilder.build().toString());
+            doc.addField("special_collections_holding_display", containersBuilder.build().toString());
 
 
             // Digital Objects
@@ -410,7 +501,7 @@ public abstract class ASpaceObject {
                 for (ASpaceDigitalObject digitalObject : getDigitalObjects()) {
                     if (digitalObject.getIIIFURL() != null) {
                         try {
-                            addDigitalImages(digitalObject.getIIIFURL(), xmlOut, manifestsIncluded == 0, dbHost, dbUser, dbPassword);
+                            addDigitalImages(digitalObject.getIIIFURL(), doc, manifestsIncluded == 0, dbHost, dbUser, dbPassword, c.getDependencyTracker());
                             manifestsIncluded++;
                         } catch (IOException ex) {
                             System.err.println("Unable to fetch manifest: " + digitalObject.getIIIFURL());
@@ -419,10 +510,10 @@ public abstract class ASpaceObject {
                 }
             }
             if (manifestsIncluded > 0) {
-                addField(xmlOut, "feature_facet", "iiif");
-                addField(xmlOut, "format_facet", "Online");
+                doc.addField("feature_facet", "iiif");
+                doc.addField("format_facet", "Online");
             } else {
-                addField(xmlOut, "thumbnail_url_display", "http://iiif.lib.virginia.edu/iiif/static:6/full/!115,125/0/default.jpg");
+                doc.addField("thumbnail_url_display", "http://iiif.lib.virginia.edu/iiif/static:6/full/!115,125/0/default.jpg");
             }
 
             // Despite it's name, "alternate_id_facet" currently must only be an alternate id that represents a
@@ -434,7 +525,7 @@ public abstract class ASpaceObject {
             //    for (JsonValue a : (JsonArray) accessions) {
             //        final String ref = ((JsonObject) a).getString("ref");
             //        final ASpaceAccession accession = new ASpaceAccession(c, ref);
-            //        addField(xmlOut, "alternate_id_facet", accession.getId());
+            //        doc.addField("alternate_id_facet", accession.getId());
             //    }
             //}
 
@@ -458,9 +549,9 @@ public abstract class ASpaceObject {
                             }
                             if (noteText.length() > 0) {
                                 if (note.getString("type").equals("scopecontent")) {
-                                    addField(xmlOut, "note_display", noteText.toString());
+                                    doc.addField("note_display", noteText.toString());
                                 }
-                                addField(xmlOut, "note_text", noteText.toString());
+                                doc.addField("note_text", noteText.toString());
                             }
                         }
                     }
@@ -470,28 +561,44 @@ public abstract class ASpaceObject {
 
         if (getRecord().get("content_description") != null) {
             final String noteText = getRecord().getString("content_description");
-            addField(xmlOut, "note_text", noteText.toString());
-            addField(xmlOut, "note_display", noteText.toString());
+            doc.addField("note_text", noteText.toString());
+            doc.addField("note_display", noteText.toString());
         }
 
 
 
-        addField(xmlOut, "online_url_display", "https://archives.lib.virginia.edu" + getRecord().getString("uri"));
+        doc.addField("online_url_display", "https://archives.lib.virginia.edu" + getRecord().getString("uri"));
 
         // A feature_facet is needed for proper display in Virgo.
-        addField(xmlOut, "feature_facet", "suppress_endnote_export");
-        addField(xmlOut, "feature_facet", "suppress_refworks_export");
-        addField(xmlOut, "feature_facet", "suppress_ris_export");
+        doc.addField("feature_facet", "suppress_endnote_export");
+        doc.addField("feature_facet", "suppress_refworks_export");
+        doc.addField("feature_facet", "suppress_ris_export");
 
-        xmlOut.writeCharacters("  ");
-        xmlOut.writeEndElement(); // doc
-        xmlOut.writeCharacters("\n");
-        xmlOut.writeEndElement(); // add
-
-        xmlOut.close();
+        return doc;
+    }
 
-        return outputFile;
+    /**
+     * Gets the "ref" values of the linked records in each of the named array properties.
+     */
+    private Set<String> getLinkedRefs(final String ... properties) {
+        final Set<String> refs = new LinkedHashSet<>();
+        for (String property : properties) {
+            final JsonValue links = getRecord().get(property);
+            if (links != null && links.getValueType() == JsonValue.ValueType.ARRAY) {
+                for (JsonValue link : (JsonArray) links) {
+                    refs.add(((JsonObject) link).getString("ref"));
+                }
+            }
+        }
+        return refs;
+    }
 
+    /**
+     * Gets the record from the prefetched map, falling back to resolving it individually.
+     */
+    private JsonObject resolve(final Map<String, JsonObject> prefetched, final String ref) throws IOException {
+        final JsonObject record = prefetched.get(ref);
+        return record != null ? record : c.resolveReference(ref);
     }
 
     private JsonArray dedupeContainerArray(JsonArray containers) {
@@ -508,44 +615,95 @@ public abstract class ASpaceObject {
         return b.build();
     }
 
-    private static void addDigitalImages(final String manifestUrl, final XMLStreamWriter xmlOut, boolean thumbnail, final String dbHost, final String dbUser, final String dbPassword) throws IOException, XMLStreamException, SQLException {
-        HttpGet httpGet = new HttpGet(manifestUrl);
-        try (CloseableHttpResponse response = HttpClients.createDefault().execute(httpGet)) {
-            if (response.getStatusLine().getStatusCode() != 200) {
-                throw new RuntimeException("Unable to get IIIF manifest at " + manifestUrl + " (" + response.getStatusLine().toString() + ")");
-            }
-            JsonObject iiifManifest = Json.createReader(response.getEntity().getContent()).readObject();
-            final String manifestId = iiifManifest.getString("@id");
-            String shortManifestId = manifestId.substring(manifestId.lastIndexOf('/') + 1);
-            if (shortManifestId.equals("iiif-manifest.json")) {
-                // hack for Shepherd until it's in the tracking system
-                shortManifestId = "MSS16152";
+    /**
+     * Adds the display, sort and facet fields for the given "dates" of a record.  The sort value
+     * and facets use the latest year of the first date that has one.
+     */
+    static void addDateFields(final JsonValue dates, final SolrDoc doc) {
+        boolean sortDateSet = false;
+        final int currentYear = Calendar.getInstance().get(Calendar.YEAR);
+        if (dates != null && dates.getValueType() == JsonValue.ValueType.ARRAY) {
+            for (JsonValue date : (JsonArray) dates) {
+                final JsonObject dateObj = (JsonObject) date;
+                int year = -1;
+                if (hasValue(dateObj, "expression")) {
+                    final String dateStr = dateObj.getString("expression");
+                    final DateExpressionParser.YearRange range = DateExpressionParser.parse(dateStr);
+                    if (range != null) {
+                        year = range.getEnd();
+                    }
+                    doc.addField("date_display", dateStr);
+                } else if (hasValue(dateObj, "begin")) {
+                    final String begin = dateObj.getString("begin");
+                    year = DateExpressionParser.parseIsoYear(begin);
+                    if (hasValue(dateObj, "end")) {
+                        final String end = dateObj.getString("end");
+                        year = Math.max(year, DateExpressionParser.parseIsoYear(end));
+                        doc.addField("date_display", begin + "-" + end);
+                    } else {
+                        // a single date, or a range with no known end
+                        doc.addField("date_display", begin);
+                    }
+                }
+                if (year >= 0) {
+                    if (!sortDateSet) {
+                        doc.addField("date_multisort_i", String.valueOf(year));
+                        sortDateSet = true;
+                    }
+                    final int yearsAgo = currentYear - year;
+                    if (yearsAgo > 50) {
+                        doc.addField("published_date_facet", "More than 50 years ago");
+                    }
+                    if (yearsAgo <= 50) {
+                        doc.addField("published_date_facet", "Last 50 years");
+                    }
+                    if (yearsAgo <= 10) {
+                        doc.addField("published_date_facet", "Last 10 years");
+                    }
+                    if (yearsAgo <= 3) {
+                        doc.addField("published_date_facet", "Last 3 years");
+                    }
+                    if (yearsAgo <= 1) {
+                        doc.addField("published_date_facet", "Last 12 months");
+                    }
+                }
             }
+        }
+    }
 
-            final String rsUri = iiifManifest.getString("license");
-            addRightsFields(rsUri, xmlOut, shortManifestId, dbHost, dbUser, dbPassword);
+    private static void addDigitalImages(final String manifestUrl, final SolrDoc doc, boolean thumbnail, final String dbHost, final String dbUser, final String dbPassword, final DependencyTracker tracker) throws IOException, SQLException {
+        final IiifManifestCache.Manifest iiifManifest = IiifManifestCache.getDefault().getManifest(manifestUrl);
+        if (tracker != null) {
+            tracker.addManifest(manifestUrl, iiifManifest.getDigest());
+        }
+        final String manifestId = iiifManifest.getId();
+        String shortManifestId = manifestId.substring(manifestId.lastIndexOf('/') + 1);
+        if (shortManifestId.equals("iiif-manifest.json")) {
+            // hack for Shepherd until it's in the tracking system
+            shortManifestId = "MSS16152";
+        }
 
-            addField(xmlOut, "alternate_id_facet", shortManifestId);
-            addField(xmlOut, "individual_call_number_display", iiifManifest.getString("label"));
-            if (thumbnail) {
-                String thumbnailUrl = iiifManifest.getJsonArray("sequences").getJsonObject(0).getJsonArray("canvases").getJsonObject(0).getString("thumbnail");
-                Matcher resizeMatcher = Pattern.compile("(https://.*/full/)[^/]*(/.*)").matcher(thumbnailUrl);
-                if (resizeMatcher.matches()) {
-                    thumbnailUrl = resizeMatcher.group(1) + "!115,125" + resizeMatcher.group(2);
-                    addField(xmlOut, "thumbnail_url_display", thumbnailUrl);
+        final String rsUri = iiifManifest.getLicense();
+        addRightsFields(rsUri, doc, shortManifestId, dbHost, dbUser, dbPassword);
 
-                    // TODO: maybe use this as the thumbnail, maybe don't...
-                } else {
-                    throw new RuntimeException("Unexpected thumbnail URL! (" + thumbnailUrl + ")");
-                }
+        doc.addField("alternate_id_facet", shortManifestId);
+        doc.addField("individual_call_number_display", iiifManifest.getLabel());
+        if (thumbnail) {
+            String thumbnailUrl = iiifManifest.getThumbnail();
+            Matcher resizeMatcher = thumbnailUrl == null ? null : THUMBNAIL_PATTERN.matcher(thumbnailUrl);
+            if (resizeMatcher != null && resizeMatcher.matches()) {
+                thumbnailUrl = resizeMatcher.group(1) + "!115,125" + resizeMatcher.group(2);
+                doc.addField("thumbnail_url_display", thumbnailUrl);
 
-                // TODO: you can pull out the rights statement and apply it to the record
+                // TODO: maybe use this as the thumbnail, maybe don't...
+            } else {
+                throw new RuntimeException("Unexpected thumbnail URL! (" + thumbnailUrl + ")");
             }
 
-            addField(xmlOut, "iiif_presentation_metadata_display", iiifManifest.toString());
-        } catch (JsonParsingException e) {
-            throw new RuntimeException("Unable to parse IIIF manifest at " + manifestUrl);
+            // TODO: you can pull out the rights statement and apply it to the record
         }
+
+        doc.addField("iiif_presentation_metadata_display", iiifManifest.getMetadata());
     }
 
     private String getLibrary(JsonObject c) throws IOException {
@@ -556,53 +714,28 @@ public abstract class ASpaceObject {
         return normalizeLocation(name);
     }
 
-    private static void addRightsFields(final String uri, XMLStreamWriter w, final String pid, final String tracksysDbHost, final String tracksysDbUsername, final String tracksysDbPassword) throws SQLException, XMLStreamException {
-        DriverManager.registerDriver(new com.mysql.jdbc.Driver());
-        String connectionUrl = "jdbc:mysql://" + tracksysDbHost + "/tracksys_production?user=" + tracksysDbUsername + "&password=" + tracksysDbPassword;
-        Connection conn = DriverManager.getConnection(connectionUrl);
-        try {
-            final String query = "SELECT name, uri, statement, commercial_use, educational_use, modifications from use_rights where uri=?";
-            final PreparedStatement s = conn.prepareStatement(query);
-            s.setString(1, uri);
-            final ResultSet rs = s.executeQuery();
-            try {
-                if (rs.next()) {
-                    addField(w, "feature_facet", "rights_wrapper");
-                    addField(w, "rights_wrapper_url_display", RIGHTS_WRAPPER_URL + "?pid=" + pid + "&pagePid=");
-                    addField(w, "rs_uri_display", uri);
-                    // TODO: add citation below... preferably generated from ASPACE using a DOI
-                    addField(w, "rights_wrapper_display", rs.getString("statement"));
-                    if (rs.getInt("commercial_use") == 1) {
-                        addField(w, "use_facet", "Commercial Use Permitted");
-                    }
-                    if (rs.getInt("educational_use") == 1) {
-                        addField(w, "use_facet", "Educational Use Permitted");
-                    }
-                    if (rs.getInt("modifications") == 1) {
-                        addField(w, "use_facet", "Modifications Permitted");
-                    }
-                } else {
-                    throw new RuntimeException("Unable to find rights statement " + uri + " in tracksys db.");
-                }
-            } finally {
-                rs.close();
-            }
-        } finally {
-            conn.close();
+    private static void addRightsFields(final String uri, final SolrDoc doc, final String pid, final String tracksysDbHost, final String tracksysDbUsername, final String tracksysDbPassword) throws SQLException {
+        final RightsStatementProvider.RightsStatement rs = RightsStatementProvider.getInstance(tracksysDbHost, tracksysDbUsername, tracksysDbPassword).getStatement(uri);
+        if (rs == null) {
+            throw new RuntimeException("Unable to find rights statement " + uri + " in tracksys db.");
+        }
+        doc.addField("feature_facet", "rights_wrapper");
+        doc.addField("rights_wrapper_url_display", RIGHTS_WRAPPER_URL + "?pid=" + pid + "&pagePid=");
+        doc.addField("rs_uri_display", uri);
+        // TODO: add citation below... preferably generated from ASPACE using a DOI
+        doc.addField("rights_wrapper_display", rs.getStatement());
+        if (rs.isCommercialUsePermitted()) {
+            doc.addField("use_facet", "Commercial Use Permitted");
+        }
+        if (rs.isEducationalUsePermitted()) {
+            doc.addField("use_facet", "Educational Use Permitted");
+        }
+        if (rs.areModificationsPermitted()) {
+            doc.addField("use_facet", "Modifications Permitted");
         }
     }
 
 
-    static void addField(XMLStreamWriter w, final String name, final String value) throws XMLStreamException {
-        w.writeCharacters("    ");
-        w.writeStartElement("field");
-        w.writeAttribute("name", name);
-        w.writeCharacters(value);
-        w.writeEndElement();
-        w.writeCharacters("\n");
-
-    }
-
     public void printOutRawData() {
         JsonHelper.writeOutJson(getRecord());
     }
@@ -647,6 +780,20 @@ public abstract class ASpaceObject {
      * Writes the object's corresponding MARC record to the given streams.
      */
     public void writeCirculationRecord(final MarcXmlWriter xmlWriter, final MarcStreamWriter marcWriter) throws IOException {
+        final Record r = buildCirculationRecord();
+        if (marcWriter != null) {
+            marcWriter.write(r);
+        }
+        if (xmlWriter != null) {
+            xmlWriter.write(r);
+        }
+    }
+
+    /**
+     * Builds the object's corresponding MARC record, so that it may be written later (or by
+     * another thread) without holding onto the object.
+     */
+    public Record buildCirculationRecord() throws IOException {
         //make MARC record with 245 and 590 fields
         MarcFactory factory = MarcFactory.newInstance();
         Record r = factory.newRecord();
@@ -682,13 +829,7 @@ public abstract class ASpaceObject {
             df.addSubfield(factory.newSubfield('i', topContainer.getBarcode()));
             r.addVariableField(df);
         }
-
-        if (marcWriter != null) {
-            marcWriter.write(r);
-        }
-        if (xmlWriter != null) {
-            xmlWriter.write(r);
-        }
+        return r;
     }
 
 }
@@ -1,13 +1,14 @@
 package edu.virginia.lib.indexing;
 
-import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonValue;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A class representing a top_container in ArchivesSpace.  This class includes helper functions to pull
@@ -23,6 +24,10 @@ public class ASpaceTopContainer extends ASpaceObject {
         super(client, refId);
     }
 
+    public ASpaceTopContainer(ArchivesSpaceClient client, String refId, JsonObject record) throws IOException {
+        super(client, refId, record);
+    }
+
     /**
      * @return an empty list because ASpaceTopContainer objects cannot have children.
      */
@@ -31,8 +36,8 @@ public class ASpaceTopContainer extends ASpaceObject {
     }
 
     @Override
-    protected Pattern getRefIdPattern() {
-        return Pattern.compile("/?repositories/\\d+/top_containers/\\d+");
+    protected RefId.Type getRefIdType() {
+        return RefId.Type.TOP_CONTAINER;
     }
 
     @Override
@@ -59,12 +64,9 @@ public class ASpaceTopContainer extends ASpaceObject {
      */
     public String getCurrentLocation() throws IOException {
         if (location == null) {
-            JsonArray loc = getRecord().getJsonArray("container_locations");
-            for (JsonValue v : loc) {
-                JsonObject l = (JsonObject) v;
-                if (l.getString("status").equals("current")) {
-                    location = c.resolveReference(l.getString("ref")).getString("title");
-                }
+            final String ref = getCurrentLocationRef();
+            if (ref != null) {
+                location = c.resolveReference(ref).getString("title");
             }
             if (location == null) {
                 return "";
@@ -73,6 +75,42 @@ public class ASpaceTopContainer extends ASpaceObject {
         return location;
     }
 
+    /**
+     * Resolves the current locations of all the given containers in batches rather than
+     * one request per container.
+     */
+    static void preloadCurrentLocations(final ArchivesSpaceClient c, final Collection<ASpaceTopContainer> containers) {
+        final Set<String> refs = new HashSet<>();
+        for (ASpaceTopContainer container : containers) {
+            if (container.location == null) {
+                final String ref = container.getCurrentLocationRef();
+                if (ref != null) {
+                    refs.add(ref);
+                }
+            }
+        }
+        final Map<String, JsonObject> locations = c.bulkResolveReferences(refs);
+        for (ASpaceTopContainer container : containers) {
+            if (container.location == null) {
+                final JsonObject l = locations.get(container.getCurrentLocationRef());
+                if (l != null) {
+                    container.location = l.getString("title");
+                }
+            }
+        }
+    }
+
+    private String getCurrentLocationRef() {
+        String ref = null;
+        for (JsonValue v : getRecord().getJsonArray("container_locations")) {
+            JsonObject l = (JsonObject) v;
+            if (l.getString("status").equals("current")) {
+                ref = l.getString("ref");
+            }
+        }
+        return ref;
+    }
+
     /**
      * Gets a barcode if one exists, otherwise returns a compatible identifier
      * derived from the top container reference id.
@@ -82,9 +120,9 @@ public class ASpaceTopContainer extends ASpaceObject {
         if (barcode != null) {
             return getRecord().getString("barcode");
         } else {
-            Matcher m = Pattern.compile("/repositories/(\\d+)/top_containers/(\\d+)").matcher(getRecord().getString("uri"));
-            if (m.matches()) {
-                return "AS:" + m.group(1) + "C" + m.group(2);
+            final RefId ref = RefId.tryParse(getRecord().getString("uri"));
+            if (ref != null && ref.getType() == RefId.Type.TOP_CONTAINER) {
+                return ref.toContainerBarcode();
             } else {
                 return "UNKNOWN";
             }
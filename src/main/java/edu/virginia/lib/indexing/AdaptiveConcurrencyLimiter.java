@@ -0,0 +1,106 @@
+package edu.virginia.lib.indexing;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the number of requests in flight, adjusting that limit with an additive-increase,
+ * multiplicative-decrease (AIMD) rule: each request that succeeds promptly raises the limit by
+ * 1/limit (so by about one per round of requests), while an error or a sustained rise in latency
+ * halves it.  Latency is judged by comparing a fast-moving average of response times against a
+ * slow-moving one, so that the limit backs off when the server starts to queue requests, before
+ * it starts to fail them.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double latencyFactor;
+
+    private final long decreaseCooldownMs;
+
+    private double limit;
+
+    private int inFlight;
+
+    private double fastLatency = -1;
+
+    private double slowLatency = -1;
+
+    private long lastDecrease;
+
+    private final AtomicLong decreases = new AtomicLong();
+
+    /**
+     * @param minLimit the lowest the limit may fall to
+     * @param maxLimit the highest the limit may rise to
+     * @param latencyFactor how many times the long-term average latency the short-term average
+     *                      must reach to be treated as congestion
+     * @param decreaseCooldownMs the minimum time between decreases, so that one burst of errors
+     *                           doesn't collapse the limit
+     */
+    public AdaptiveConcurrencyLimiter(final int minLimit, final int maxLimit, final double latencyFactor, final long decreaseCooldownMs) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits: " + minLimit + " to " + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyFactor = latencyFactor;
+        this.decreaseCooldownMs = decreaseCooldownMs;
+        this.limit = Math.max(minLimit, maxLimit / 2);
+    }
+
+    /**
+     * Blocks until another request may be sent.
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight ++;
+    }
+
+    /**
+     * Records the outcome of a request started after a call to {@link #acquire()}.
+     *
+     * @param latencyMs how long the request took
+     * @param success false if the request failed in a way that suggests the server is overloaded
+     */
+    public synchronized void release(final long latencyMs, final boolean success) {
+        inFlight --;
+        if (!success) {
+            decrease();
+        } else {
+            if (fastLatency < 0) {
+                fastLatency = slowLatency = latencyMs;
+            } else {
+                fastLatency += 0.2 * (latencyMs - fastLatency);
+                slowLatency += 0.02 * (latencyMs - slowLatency);
+            }
+            if (fastLatency > latencyFactor * slowLatency) {
+                decrease();
+            } else {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    private void decrease() {
+        final long now = System.currentTimeMillis();
+        if (now - lastDecrease >= decreaseCooldownMs) {
+            limit = Math.max(minLimit, limit / 2);
+            lastDecrease = now;
+            decreases.incrementAndGet();
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public String getStatistics() {
+        return "concurrency limit: " + getLimit() + " (between " + minLimit + " and " + maxLimit + "), decreased " + decreases.get() + " times";
+    }
+}
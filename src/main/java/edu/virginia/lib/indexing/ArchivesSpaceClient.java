@@ -1,12 +1,19 @@
 package edu.virginia.lib.indexing;
 
 
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,11 +22,37 @@ import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonStructure;
 import javax.json.JsonValue;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URLEncoder;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
-public class ArchivesSpaceClient {
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getInt;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getLong;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getString;
+
+public class ArchivesSpaceClient implements Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ArchivesSpaceClient.class);
 
@@ -27,22 +60,203 @@ public class ArchivesSpaceClient {
 
     private CloseableHttpClient httpClient;
 
-    private String sessionToken;
+    private ExecutorService executor;
+
+    // replaced (under the client's lock) when a session expires, and read by every thread
+    private volatile String sessionToken;
+
+    private ReferenceCache cache;
+
+    private PersistentJsonCache diskCache;
+
+    private int batchSize;
+
+    private boolean pagedTree;
+
+    private ArchivesSpaceSolr containerDiscoverySolr;
+
+    private static final long MAX_BACKOFF_MS = 30000;
+
+    /**
+     * The largest page that ArchivesSpace returns from a listing (by default).
+     */
+    private static final int MAX_PAGE_SIZE = 250;
+
+    private static final int PAGES_AHEAD = 4;
+
+    private AdaptiveConcurrencyLimiter limiter;
+
+    private int maxRetries;
+
+    private long retryBaseMs;
+
+    private final AtomicLong retries = new AtomicLong();
+
+    private final AtomicLong relogins = new AtomicLong();
+
+    private FixtureBundle recording;
+
+    private ForkJoinPool traversalPool;
+
+    private final ThreadLocal<DependencyTracker> dependencyTracker = new ThreadLocal<>();
+
+    private String username;
+
+    private String password;
 
     public ArchivesSpaceClient(final String baseUrl, final String username, final String password) throws IOException {
+        this(baseUrl, username, password, new Properties());
+    }
+
+    /**
+     * Creates a client whose transport is tuned by the following (optional) properties:
+     * <ul>
+     *     <li>archivesSpaceConcurrency: the most requests that may be in flight at once (default 4)</li>
+     *     <li>archivesSpaceMinConcurrency: the fewest requests the adaptive limit may allow in flight (default 1)</li>
+     *     <li>archivesSpaceLatencyFactor: how far recent latency may rise above the long-term average before
+     *     the concurrency limit is reduced (default 3)</li>
+     *     <li>archivesSpaceMaxRetries: how many times a failed request is retried (default 3)</li>
+     *     <li>archivesSpaceRetryBaseMs: the base of the exponential backoff between retries (default 500)</li>
+     *     <li>archivesSpaceConnectTimeoutMs: the connect timeout (default 10000)</li>
+     *     <li>archivesSpaceSocketTimeoutMs: the socket read timeout (default 60000)</li>
+     *     <li>archivesSpaceBatchSize: the number of ids requested at once by {@link #bulkResolveReferences} (default 25)</li>
+     *     <li>treeMode: "legacy" to fetch each resource's tree in one request, or "paged" to walk it
+     *     incrementally through the tree/root and tree/waypoint endpoints (default "legacy")</li>
+     *     <li>containerDiscovery: "walk" to find the containers and digital objects for a resource by
+     *     walking its tree, or "solr" to find them with a few queries against the ArchivesSpace solr
+     *     index at archivesSpaceSolrUrl (default "walk")</li>
+     *     <li>traversalParallelism: how many branches of a resource's hierarchy may be fetched and
+     *     examined in parallel when collecting its instances (default 1, a sequential walk)</li>
+     *     <li>diskCacheDir: a directory (empty, or used only by an earlier cache) in which to persist responses
+     *     between runs (default none)</li>
+     *     <li>diskCacheMaxAgeHours: the age after which persisted responses are discarded (default 168)</li>
+     *     <li>recordDir: a directory in which to record every response as a {@link FixtureBundle}, for
+     *     later replay by {@link edu.virginia.lib.indexing.tools.ReplayServer} (default none)</li>
+     * </ul>
+     * Connections are pooled and kept alive between requests, and gzip/deflate responses are
+     * negotiated and transparently decoded.  Shared records are cached for the life of the
+     * client as configured for the {@link ReferenceCache}.
+     */
+    public ArchivesSpaceClient(final String baseUrl, final String username, final String password, final Properties config) throws IOException {
         this.baseUrl = baseUrl;
-        httpClient = HttpClients.createDefault();
+        this.username = username;
+        this.password = password;
+        this.cache = new ReferenceCache(config);
+        this.batchSize = getInt(config, "archivesSpaceBatchSize", 25);
+        this.pagedTree = "paged".equals(getString(config, "treeMode", "legacy"));
+        if ("solr".equals(getString(config, "containerDiscovery", "walk"))) {
+            final String solrUrl = getString(config, "archivesSpaceSolrUrl", null);
+            if (solrUrl == null) {
+                throw new IllegalArgumentException("containerDiscovery:solr requires archivesSpaceSolrUrl");
+            }
+            this.containerDiscoverySolr = new ArchivesSpaceSolr(solrUrl);
+        }
+        final String diskCacheDir = getString(config, "diskCacheDir", null);
+        if (diskCacheDir != null) {
+            this.diskCache = new PersistentJsonCache(new File(diskCacheDir), getLong(config, "diskCacheMaxAgeHours", 168) * 60 * 60 * 1000);
+        }
+        final int parallelism = getInt(config, "traversalParallelism", 1);
+        if (parallelism > 1) {
+            this.traversalPool = new ForkJoinPool(parallelism);
+        }
+        final String recordDir = getString(config, "recordDir", null);
+        if (recordDir != null) {
+            this.recording = new FixtureBundle(new File(recordDir));
+        }
+        final int concurrency = getInt(config, "archivesSpaceConcurrency", 4);
+        this.limiter = new AdaptiveConcurrencyLimiter(Math.min(concurrency, getInt(config, "archivesSpaceMinConcurrency", 1)),
+                concurrency, Double.parseDouble(getString(config, "archivesSpaceLatencyFactor", "3")), 1000);
+        this.maxRetries = getInt(config, "archivesSpaceMaxRetries", 3);
+        this.retryBaseMs = getLong(config, "archivesSpaceRetryBaseMs", 500);
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(60, TimeUnit.SECONDS);
+        connectionManager.setMaxTotal(concurrency + 1);
+        connectionManager.setDefaultMaxPerRoute(concurrency + 1);
+        connectionManager.setValidateAfterInactivity(5000);
+        final int connectTimeout = getInt(config, "archivesSpaceConnectTimeoutMs", 10000);
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(getInt(config, "archivesSpaceSocketTimeoutMs", 60000))
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .evictIdleConnections(30, TimeUnit.SECONDS)
+                .build();
+        executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "aspace-client-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
         authenticate(username, password);
     }
 
     public List<String> listRepositoryIds() throws IOException {
         final List<String> ids = new ArrayList<String>();
-        for (JsonValue v : (JsonArray) makeGetRequest(baseUrl + "repositories")) {
-            ids.add(((JsonObject) v).getString("uri"));
+        for (JsonObject repository : listRepositories()) {
+            ids.add(repository.getString("uri"));
         }
         return ids;
     }
 
+    /**
+     * @return the record for every repository.
+     */
+    public List<JsonObject> listRepositories() throws IOException {
+        final List<JsonObject> repositories = new ArrayList<>();
+        for (JsonValue v : (JsonArray) makeGetRequest(baseUrl + "repositories")) {
+            repositories.add((JsonObject) v);
+        }
+        return repositories;
+    }
+
+    /**
+     * Passes every record in the given listing (such as "/repositories/2/resources" or
+     * "/agents/people") whose user_mtime is after the given time to the consumer, in order,
+     * paging through the listing with the "modified_since" parameter.  A few pages are
+     * requested ahead of the one being consumed.
+     */
+    public void forEachModifiedSince(final String listingUri, final long sinceEpochSeconds, final Consumer<JsonObject> consumer) throws IOException {
+        final String listing = baseUrl + listingUri + "?modified_since=" + sinceEpochSeconds + "&page_size=" + MAX_PAGE_SIZE + "&page=";
+        final JsonObject first = (JsonObject) makeGetRequest(listing + 1);
+        final int lastPage = first.getInt("last_page", 1);
+        final Deque<CompletableFuture<JsonStructure>> ahead = new ArrayDeque<>();
+        int requested = 1;
+        JsonObject page = first;
+        while (true) {
+            while (requested < lastPage && ahead.size() < PAGES_AHEAD) {
+                final String url = listing + (++ requested);
+                ahead.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return makeGetRequest(url);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+            for (JsonValue v : page.getJsonArray("results")) {
+                consumer.accept((JsonObject) v);
+            }
+            if (ahead.isEmpty()) {
+                return;
+            }
+            try {
+                page = (JsonObject) ahead.remove().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
     public List<String> listAccessionIds(final String repoId) throws IOException {
         final List<String> ids = new ArrayList<String>();
         for (JsonValue v : (JsonArray) makeGetRequest(baseUrl + repoId + "/accessions?all_ids=1")) {
@@ -60,21 +274,444 @@ public class ArchivesSpaceClient {
     }
 
     public JsonObject resolveReference(final String refId) throws IOException {
-        LOGGER.debug("FETCHING " + refId);
-        return (JsonObject) makeGetRequest(baseUrl + refId);
+        JsonObject record = cache.get(refId);
+        if (record == null) {
+            record = (JsonObject) makeCachedGetRequest(refId);
+            cache.put(refId, record);
+        }
+        final DependencyTracker tracker = dependencyTracker.get();
+        if (tracker != null) {
+            tracker.addRecord(refId, record);
+        }
+        return record;
+    }
+
+    /**
+     * Installs the tracker to which every record resolved by the current thread (directly or
+     * through the client's worker pool) is reported, replacing and returning the previous one.
+     * Passing null stops tracking.
+     */
+    public DependencyTracker setDependencyTracker(final DependencyTracker tracker) {
+        final DependencyTracker previous = dependencyTracker.get();
+        if (tracker == null) {
+            dependencyTracker.remove();
+        } else {
+            dependencyTracker.set(tracker);
+        }
+        return previous;
+    }
+
+    /**
+     * @return the tracker installed for the current thread, or null if none is.
+     */
+    public DependencyTracker getDependencyTracker() {
+        return dependencyTracker.get();
+    }
+
+    /**
+     * Resolves many references with as few requests as possible by grouping them by their
+     * listing endpoint (for example "/repositories/2/top_containers" or "/agents/people") and
+     * requesting them in batches using the "id_set[]" parameter.  Batches are requested
+     * concurrently and the results are added to the caches.  References that can't be
+     * resolved this way (because a batch failed or the record wasn't returned) are simply
+     * missing from the returned map, so callers should fall back to
+     * {@link #resolveReference(String)} for those.
+     */
+    public Map<String, JsonObject> bulkResolveReferences(final Collection<String> refIds) {
+        final Map<String, JsonObject> results = new HashMap<>();
+        final Map<String, List<String>> idsByListing = new LinkedHashMap<>();
+        for (String refId : refIds) {
+            if (results.containsKey(refId)) {
+                continue;
+            }
+            final JsonObject cached = getCachedRecord(refId);
+            if (cached != null) {
+                results.put(refId, cached);
+                continue;
+            }
+            final int slash = refId.lastIndexOf('/');
+            final String id = refId.substring(slash + 1);
+            if (slash <= 0 || id.isEmpty() || !id.chars().allMatch(Character::isDigit)) {
+                continue;
+            }
+            List<String> ids = idsByListing.get(refId.substring(0, slash));
+            if (ids == null) {
+                ids = new ArrayList<>();
+                idsByListing.put(refId.substring(0, slash), ids);
+            }
+            if (!ids.contains(id)) {
+                ids.add(id);
+            }
+        }
+
+        final List<CompletableFuture<JsonArray>> batches = new ArrayList<>();
+        for (Map.Entry<String, List<String>> e : idsByListing.entrySet()) {
+            final List<String> ids = e.getValue();
+            for (int i = 0; i < ids.size(); i += batchSize) {
+                final StringBuilder url = new StringBuilder(baseUrl + e.getKey() + "?");
+                for (String id : ids.subList(i, Math.min(ids.size(), i + batchSize))) {
+                    url.append(url.charAt(url.length() - 1) == '?' ? "" : "&").append("id_set%5B%5D=").append(id);
+                }
+                batches.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        LOGGER.debug("FETCHING " + url);
+                        return (JsonArray) makeGetRequest(url.toString());
+                    } catch (Exception ex) {
+                        LOGGER.warn("Unable to fetch batch " + url + ", records will be fetched individually.", ex);
+                        return null;
+                    }
+                }, executor));
+            }
+        }
+        final DependencyTracker tracker = dependencyTracker.get();
+        for (CompletableFuture<JsonArray> batch : batches) {
+            final JsonArray records = batch.join();
+            if (records != null) {
+                for (JsonValue v : records) {
+                    final JsonObject record = (JsonObject) v;
+                    final String uri = record.getString("uri", null);
+                    if (uri != null) {
+                        // the miss is only counted for the records fetched here, since callers
+                        // fall back to resolveReference (which counts its own) for the rest
+                        cache.recordMiss(uri);
+                        cache.put(uri, record);
+                        if (diskCache != null) {
+                            try {
+                                diskCache.put(uri, record, null, null);
+                            } catch (IOException ex) {
+                                LOGGER.warn("Unable to cache " + uri, ex);
+                            }
+                        }
+                        results.put(uri, record);
+                    }
+                }
+            }
+        }
+        if (tracker != null) {
+            for (Map.Entry<String, JsonObject> e : results.entrySet()) {
+                tracker.addRecord(e.getKey(), e.getValue());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return true if trees should be walked a level at a time using {@link #getTreeChildren}
+     * rather than fetched whole.
+     */
+    public boolean isPagedTreeMode() {
+        return pagedTree;
+    }
+
+    /**
+     * @return the pool in which to walk resource hierarchies in parallel, or null if they
+     * should be walked sequentially.
+     */
+    public ForkJoinPool getTraversalPool() {
+        return traversalPool;
+    }
+
+    /**
+     * @return the ArchivesSpace solr index to use to find the containers and digital objects
+     * for a resource, or null if they should be found by walking its tree.
+     */
+    public ArchivesSpaceSolr getContainerDiscoverySolr() {
+        return containerDiscoverySolr;
+    }
+
+    /**
+     * Gets the nodes for the direct children of a node in a resource's tree, using the paged tree
+     * endpoints.  When nodeUri is null, the children of the resource itself are returned and the
+     * number of waypoints is read from the tree root (whose response includes the first waypoint).
+     * Otherwise the number of waypoints must be passed (it's part of every node returned by this
+     * method).  Waypoints are fetched concurrently and the children are returned in order.
+     */
+    public List<JsonObject> getTreeChildren(final String resourceUri, final String nodeUri, final int waypoints) throws IOException {
+        final List<JsonObject> children = new ArrayList<>();
+        int count = waypoints;
+        int first = 0;
+        if (nodeUri == null) {
+            final JsonObject root = (JsonObject) makeCachedGetRequest(resourceUri + "/tree/root");
+            count = root.getInt("waypoints", 0);
+            final JsonObject precomputed = root.getJsonObject("precomputed_waypoints");
+            if (precomputed != null && precomputed.getJsonObject("") != null && precomputed.getJsonObject("").get("0") != null) {
+                addNodes(children, precomputed.getJsonObject("").getJsonArray("0"));
+                first = 1;
+            }
+        }
+        final String parentNode = URLEncoder.encode(nodeUri == null ? "" : nodeUri, "UTF-8");
+        final List<CompletableFuture<JsonStructure>> pages = new ArrayList<>();
+        for (int i = first; i < count; i ++) {
+            final String path = resourceUri + "/tree/waypoint?offset=" + i + "&parent_node=" + parentNode;
+            pages.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return makeCachedGetRequest(path);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        try {
+            for (CompletableFuture<JsonStructure> page : pages) {
+                addNodes(children, (JsonArray) page.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+        return children;
+    }
+
+    private static void addNodes(final List<JsonObject> nodes, final JsonArray waypoint) {
+        for (JsonValue v : waypoint) {
+            nodes.add((JsonObject) v);
+        }
+    }
+
+    /**
+     * Gets a record from the in-memory or (validated) persistent cache without making a request,
+     * or counting a miss in the in-memory cache.
+     */
+    private JsonObject getCachedRecord(final String refId) {
+        final JsonObject record = cache.peek(refId);
+        if (record != null) {
+            return record;
+        }
+        if (diskCache != null && diskCache.isTrusted()) {
+            final PersistentJsonCache.Entry entry = diskCache.get(refId);
+            if (entry != null && entry.getBody() instanceof JsonObject) {
+                diskCache.recordHit();
+                cache.put(refId, (JsonObject) entry.getBody());
+                return (JsonObject) entry.getBody();
+            }
+        }
+        return null;
+    }
+
+    public ReferenceCache getReferenceCache() {
+        return cache;
+    }
+
+    /**
+     * Gets the persistent cache, or null if none is configured.
+     */
+    public PersistentJsonCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Resolves the given reference on the client's worker pool.  The returned future
+     * completes exceptionally (with the IOException as the cause) if the request fails.
+     */
+    public CompletableFuture<JsonObject> resolveReferenceAsync(final String refId) {
+        final DependencyTracker tracker = dependencyTracker.get();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                final JsonObject record = resolveReference(refId);
+                if (tracker != null) {
+                    tracker.addRecord(refId, record);
+                }
+                return record;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Starts resolving every one of the given references concurrently (bounded by the
+     * configured concurrency) and returns the futures keyed by reference, in iteration
+     * order of the passed collection.
+     */
+    public Map<String, CompletableFuture<JsonObject>> resolveReferences(final Collection<String> refIds) {
+        final Map<String, CompletableFuture<JsonObject>> results = new LinkedHashMap<>();
+        for (String refId : refIds) {
+            if (!results.containsKey(refId)) {
+                results.put(refId, resolveReferenceAsync(refId));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Gets the JSON at the given path, using (and updating) the persistent cache if one
+     * is configured.  Entries are used as-is when the cache has been validated for this
+     * run, and otherwise are revalidated with a conditional request when possible.
+     */
+    private JsonStructure makeCachedGetRequest(final String path) throws IOException {
+        final PersistentJsonCache.Entry entry = diskCache == null ? null : diskCache.get(path);
+        if (entry != null && diskCache.isTrusted()) {
+            diskCache.recordHit();
+            return record(baseUrl + path, entry.getBody());
+        }
+        LOGGER.debug("FETCHING " + path);
+        return executeGet(baseUrl + path, httpGet -> {
+            if (entry != null && entry.getEtag() != null) {
+                httpGet.addHeader("If-None-Match", entry.getEtag());
+            }
+            if (entry != null && entry.getLastModified() != null) {
+                httpGet.addHeader("If-Modified-Since", entry.getLastModified());
+            }
+        }, response -> {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status == 304 && entry != null) {
+                EntityUtils.consume(response.getEntity());
+                diskCache.touch(path);
+                diskCache.recordRevalidated();
+                return record(baseUrl + path, entry.getBody());
+            }
+            if (status != 200) {
+                throw new RuntimeException("Unable to get " + baseUrl + path + " " + response.getStatusLine().toString());
+            }
+            final JsonStructure result = Json.createReader(response.getEntity().getContent()).read();
+            EntityUtils.consume(response.getEntity());
+            if (diskCache != null) {
+                diskCache.put(path, result, getHeader(response, "ETag"), getHeader(response, "Last-Modified"));
+                diskCache.recordFetched(entry != null && entry.getLockVersion() != -1
+                        && result instanceof JsonObject && ((JsonObject) result).get("lock_version") != null
+                        && entry.getLockVersion() == ((JsonObject) result).getInt("lock_version"));
+            }
+            return record(baseUrl + path, result);
+        });
+    }
+
+    private static String getHeader(final HttpResponse response, final String name) {
+        final Header h = response.getFirstHeader(name);
+        return h == null ? null : h.getValue();
     }
 
     private JsonStructure makeGetRequest(final String url) throws IOException {
-        HttpGet httpGet = new HttpGet(url);
-        httpGet.addHeader("X-ArchivesSpace-Session", sessionToken);
-        try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+        return executeGet(url, null, response -> {
             if (response.getStatusLine().getStatusCode() != 200) {
                 throw new RuntimeException("Unable to get " + url + " " + response.getStatusLine().toString());
             }
-            return Json.createReader(response.getEntity().getContent()).read();
+            final JsonStructure result = Json.createReader(response.getEntity().getContent()).read();
+            // fully consume the entity so the connection is returned to the pool rather than closed
+            EntityUtils.consume(response.getEntity());
+            return record(url, result);
+        });
+    }
+
+    /**
+     * Adds the response for the given url to the recording, if one is being made.
+     */
+    private JsonStructure record(final String url, final JsonStructure response) throws IOException {
+        if (recording != null) {
+            recording.record(url.substring(baseUrl.length()), response);
+        }
+        return response;
+    }
+
+    /**
+     * Executes a GET request, within the limits of the concurrency limiter, and passes the response
+     * to the given reader.  Responses indicating an expired session (412) cause a new session to
+     * be established before the request is retried.  A 403 is usually a genuine permission
+     * failure, so it's retried with a new session only once.  Responses indicating an overloaded or
+     * unavailable server (429 or 5xx) as well as I/O errors such as timeouts are retried after a
+     * jittered exponential backoff, up to the configured number of retries.  The reader is given
+     * the response once its body has been read, and anything it throws isn't retried.
+     */
+    private <T> T executeGet(final String url, final RequestCustomizer customizer, final ResponseReader<T> reader) throws IOException {
+        boolean forbiddenRetried = false;
+        for (int attempt = 0; ; attempt ++) {
+            final String token = sessionToken;
+            final HttpGet httpGet = new HttpGet(url);
+            httpGet.addHeader("X-ArchivesSpace-Session", token);
+            if (customizer != null) {
+                customizer.customize(httpGet);
+            }
+            try {
+                limiter.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to request " + url);
+            }
+            final long start = System.currentTimeMillis();
+            boolean overloaded = false;
+            boolean sessionExpired = false;
+            IOException error = null;
+            CloseableHttpResponse received = null;
+            try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+                final int status = response.getStatusLine().getStatusCode();
+                if (status == 412 || (status == 403 && !forbiddenRetried)) {
+                    sessionExpired = true;
+                    forbiddenRetried |= status == 403;
+                } else if (status == 429 || status >= 500) {
+                    overloaded = true;
+                }
+                if (attempt >= maxRetries || (!sessionExpired && !overloaded)) {
+                    // the body is read here, where an I/O error means the request may be retried,
+                    // so that a failure of the reader itself (such as writing to the disk cache)
+                    // isn't mistaken for an overloaded server
+                    if (response.getEntity() != null) {
+                        response.setEntity(new BufferedHttpEntity(response.getEntity()));
+                    }
+                    received = response;
+                } else {
+                    EntityUtils.consume(response.getEntity());
+                    LOGGER.info("Retrying " + url + " after " + response.getStatusLine());
+                }
+            } catch (IOException e) {
+                overloaded = true;
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                error = e;
+                LOGGER.info("Retrying " + url + " after " + e);
+            } finally {
+                limiter.release(System.currentTimeMillis() - start, !overloaded);
+            }
+            if (received != null) {
+                return reader.read(received);
+            }
+            retries.incrementAndGet();
+            if (sessionExpired) {
+                reauthenticate(token);
+            } else {
+                backoff(attempt, error);
+            }
         }
     }
 
+    private void backoff(final int attempt, final IOException cause) throws IOException {
+        final long max = Math.min(MAX_BACKOFF_MS, retryBaseMs << Math.min(attempt, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(max + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause != null ? cause : new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Establishes a new session, unless another thread has already replaced the given
+     * (expired) session token.
+     */
+    private synchronized void reauthenticate(final String expiredToken) throws IOException {
+        if (expiredToken == null ? sessionToken == null : expiredToken.equals(sessionToken)) {
+            LOGGER.info("Reestablishing ArchivesSpace session.");
+            authenticate(username, password);
+            relogins.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets a human-readable summary of the retries and concurrency limiting for this client.
+     */
+    public String getTransportStatistics() {
+        return limiter.getStatistics() + ", " + retries.get() + " retries, " + relogins.get() + " new sessions";
+    }
+
+    private interface RequestCustomizer {
+        void customize(HttpGet request);
+    }
+
+    private interface ResponseReader<T> {
+        T read(CloseableHttpResponse response) throws IOException;
+    }
+
     private void authenticate(final String username, final String password) throws IOException {
         HttpPost httpPost = new HttpPost(baseUrl + "users/" + username + "/login");
         httpPost.setEntity(MultipartEntityBuilder.create().addTextBody("password", password).build());
@@ -86,4 +723,16 @@ public class ArchivesSpaceClient {
         }
     }
 
+    @Override
+    public void close() throws IOException {
+        if (recording != null) {
+            recording.close();
+        }
+        executor.shutdownNow();
+        if (traversalPool != null) {
+            traversalPool.shutdownNow();
+        }
+        httpClient.close();
+    }
+
 }
@@ -0,0 +1,109 @@
+package edu.virginia.lib.indexing;
+
+import edu.virginia.lib.indexing.helpers.SolrHelper;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Queries against the solr index maintained by ArchivesSpace, which can answer some questions
+ * in a single request that would otherwise take many requests to the REST API.
+ */
+public class ArchivesSpaceSolr {
+
+    private static final String TYPES = "types";
+
+    private String solrUrl;
+
+    public ArchivesSpaceSolr(final String solrUrl) {
+        this.solrUrl = solrUrl;
+    }
+
+    /**
+     * Adds the top container and digital object refs for the instances of the given resource
+     * and every published archival object beneath it (without an unpublished ancestor) to the
+     * passed sets.  This is equivalent to walking the resource tree but is done with a handful
+     * of paged queries.
+     */
+    public void collectInstanceRefs(final String resourceUri, final Set<String> containerRefs, final Set<String> doRefs) throws SolrServerException {
+        final String uri = "\"" + resourceUri + "\"";
+        collectInstanceRefs(SolrHelper.getRecordsForQuery(solrUrl,
+                "id:" + uri + " OR (resource:" + uri + " AND types:archival_object AND publish:true AND -has_unpublished_ancestor:true)",
+                "id,linked_instance_uris", 1000), containerRefs, doRefs);
+    }
+
+    /**
+     * Finds the changes to ArchivesSpace among the records matching the given query (typically a
+     * range of user_mtime) with a single cursor scan that fetches only the fields needed:
+     * <ul>
+     *     <li>changed repositories</li>
+     *     <li>changed resources, along with their related accessions (which might have to be
+     *     hidden or something)</li>
+     *     <li>the resources that are ancestors of changed archival objects</li>
+     *     <li>the records that may have an updated or added top container (which may include
+     *     accessions)</li>
+     *     <li>changed top containers, digital objects, subjects, locations and agents, as
+     *     dependencies</li>
+     * </ul>
+     */
+    public ChangeSet findChanges(final String query) {
+        final ChangeSet changes = new ChangeSet();
+        final Iterator<SolrDocument> updated = SolrHelper.scanRecordsForQuery(solrUrl, query,
+                TYPES + ":(repository OR resource OR archival_object OR top_container OR digital_object OR subject OR location"
+                        + " OR agent_person OR agent_corporate_entity OR agent_family OR agent_software)",
+                "id,types,ancestors,related_accession_uris,collection_uri_u_sstr", 1000);
+        while (updated.hasNext()) {
+            final SolrDocument d = updated.next();
+            final Collection<Object> types = d.getFieldValues(TYPES);
+            if (types == null) {
+                continue;
+            }
+            if (types.contains("repository")) {
+                changes.addRepository((String) d.getFirstValue("id"));
+            } else if (types.contains("resource")) {
+                changes.addRecord((String) d.getFirstValue("id"));
+                addAll(changes, d.getFieldValues("related_accession_uris"), false);
+            } else if (types.contains("archival_object")) {
+                addAll(changes, d.getFieldValues("ancestors"), true);
+            } else if (types.contains("top_container")) {
+                addAll(changes, d.getFieldValues("collection_uri_u_sstr"), false);
+                changes.addDependency((String) d.getFirstValue("id"));
+            } else {
+                // an agent, subject, location or digital object
+                changes.addDependency((String) d.getFirstValue("id"));
+            }
+        }
+        return changes;
+    }
+
+    private static void addAll(final ChangeSet changes, final Collection<Object> refs, final boolean resourcesOnly) {
+        if (refs != null) {
+            for (Object ref : refs) {
+                if (!resourcesOnly || ASpaceCollection.isCorrectIdFormat((String) ref)) {
+                    changes.addRecord((String) ref);
+                }
+            }
+        }
+    }
+
+    static void collectInstanceRefs(final Iterator<SolrDocument> docs, final Set<String> containerRefs, final Set<String> doRefs) {
+        while (docs.hasNext()) {
+            final Collection<Object> refs = docs.next().getFieldValues("linked_instance_uris");
+            if (refs != null) {
+                for (Object o : refs) {
+                    final String ref = (String) o;
+                    final RefId parsed = RefId.tryParse(ref);
+                    if (parsed != null && parsed.getType() == RefId.Type.TOP_CONTAINER) {
+                        containerRefs.add(ref);
+                    } else if (parsed != null && parsed.getType() == RefId.Type.DIGITAL_OBJECT) {
+                        doRefs.add(ref);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package edu.virginia.lib.indexing;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plans which accessions and resources to regenerate from the changes found by a
+ * {@link ChangeSource}: every accession and resource in a changed repository, plus every
+ * record that changed individually.  With {@link RepositoryDigests}, a change to a repository
+ * record is ignored unless it changes a field that appears in the generated records.
+ *
+ * With a {@link ReverseDependencyIndex}, only the records in a changed repository that used it
+ * (or that aren't in the index yet) are regenerated, along with the records that used any changed
+ * agent, subject, location, top container or digital object, and optionally the records that used
+ * a IIIF manifest that has changed.
+ */
+public class ChangePlanner {
+
+    private final ChangeSource source;
+
+    private final ArchivesSpaceClient client;
+
+    private final ReverseDependencyIndex index;
+
+    private final IiifManifestCache manifests;
+
+    private final RepositoryDigests repositoryDigests;
+
+    public ChangePlanner(final ChangeSource source, final ArchivesSpaceClient client) {
+        this(source, client, null, null, null);
+    }
+
+    /**
+     * @param index the index from which the records using changed dependencies are found, or
+     *              null to regenerate every record in a changed repository and ignore changes to
+     *              other dependencies
+     * @param manifests the cache through which every manifest in the index is revalidated, or
+     *                  null to not revalidate manifests
+     * @param repositoryDigests the digests against which changed repositories are compared (and
+     *                          which are updated, to be committed once the plan's records are
+     *                          journaled), or null to treat every change to a repository as one
+     *                          that affects its records
+     */
+    public ChangePlanner(final ChangeSource source, final ArchivesSpaceClient client, final ReverseDependencyIndex index,
+                         final IiifManifestCache manifests, final RepositoryDigests repositoryDigests) {
+        this.source = source;
+        this.client = client;
+        this.index = index;
+        this.manifests = manifests;
+        this.repositoryDigests = repositoryDigests;
+    }
+
+    /**
+     * Plans the records to regenerate for the changes made since the given time (or every
+     * record if since is null), describing the plan in the given report.
+     */
+    public Plan plan(final Instant since, final PrintWriter report) throws IOException {
+        return plan(source.findChanges(since), since == null, report);
+    }
+
+    /**
+     * Plans the records to regenerate for changes that have already been found.
+     *
+     * @param everything true if the changes include every record, in which case every record in
+     *                   a changed repository is regenerated regardless of its digest
+     */
+    public Plan plan(final ChangeSet changes, final boolean everything, final PrintWriter report) throws IOException {
+        final Set<String> refs = new LinkedHashSet<>();
+        final Set<String> repositories = new LinkedHashSet<>();
+        for (String repoRef : changes.getRepositories()) {
+            if (repositoryDigests != null && !repositoryDigests.update(repoRef, client.resolveReference(repoRef))) {
+                if (!everything) {
+                    report.println("repository update to " + repoRef + " ignored because none of its indexed fields changed.");
+                    continue;
+                }
+            } else {
+                repositories.add(repoRef);
+            }
+            if (index == null) {
+                refs.addAll(client.listAccessionIds(repoRef));
+                refs.addAll(client.listResourceIds(repoRef));
+                report.println(refs.size() + " contained accessions and resources will be updated because repository " + repoRef + " was updated.");
+            } else {
+                final Set<String> contained = new LinkedHashSet<>(client.listAccessionIds(repoRef));
+                contained.addAll(client.listResourceIds(repoRef));
+                final Set<String> dependents = index.getDependents(repoRef);
+                int affected = 0;
+                for (String ref : contained) {
+                    if (dependents.contains(ref) || !index.contains(ref)) {
+                        refs.add(ref);
+                        affected ++;
+                    }
+                }
+                report.println(affected + " of the " + contained.size() + " contained accessions and resources will be updated because repository " + repoRef + " was updated.");
+            }
+        }
+        final Set<String> repositoryRefs = new LinkedHashSet<>(refs);
+        report.println(changes.getRecords().size() + " accessions and resources had individual updates");
+        final Set<String> updatedRefs = new LinkedHashSet<>(changes.getRecords());
+        if (index != null) {
+            final Set<String> dependentRefs = new LinkedHashSet<>();
+            for (String uri : changes.getDependencies()) {
+                dependentRefs.addAll(index.getDependents(uri));
+            }
+            report.println(dependentRefs.size() + " accessions and resources use one of the " + changes.getDependencies().size()
+                    + " updated agents, subjects, locations, top containers and digital objects");
+            updatedRefs.addAll(dependentRefs);
+            if (manifests != null) {
+                updatedRefs.addAll(findManifestDependents(report));
+            }
+        }
+        refs.addAll(updatedRefs);
+        repositoryRefs.removeAll(updatedRefs);
+        report.println(refs.size() + " records to regenerate.");
+        report.flush();
+        return new Plan(refs, repositoryRefs, repositories);
+    }
+
+    /**
+     * Revalidates every manifest in the index (which, through the cache, is a conditional
+     * request for each) and finds the records that used those whose values have changed.
+     */
+    private Set<String> findManifestDependents(final PrintWriter report) {
+        final Set<String> dependentRefs = new LinkedHashSet<>();
+        int changed = 0;
+        for (Map.Entry<String, String> e : index.getManifestDigests().entrySet()) {
+            try {
+                if (!e.getValue().equals(manifests.getManifest(e.getKey()).getDigest())) {
+                    dependentRefs.addAll(index.getDependents(e.getKey()));
+                    changed ++;
+                }
+            } catch (IOException | RuntimeException ex) {
+                report.println("Unable to revalidate manifest " + e.getKey() + ": " + ex);
+            }
+        }
+        report.println(dependentRefs.size() + " accessions and resources use one of the " + changed + " updated IIIF manifests");
+        return dependentRefs;
+    }
+
+    public static class Plan {
+
+        private final Set<String> refs;
+
+        private final Set<String> repositoryRefs;
+
+        private final Set<String> repositories;
+
+        private Plan(final Set<String> refs, final Set<String> repositoryRefs, final Set<String> repositories) {
+            this.refs = Collections.unmodifiableSet(refs);
+            this.repositoryRefs = Collections.unmodifiableSet(repositoryRefs);
+            this.repositories = Collections.unmodifiableSet(repositories);
+        }
+
+        /**
+         * @return the refs of every record to regenerate.
+         */
+        public Set<String> getRefs() {
+            return refs;
+        }
+
+        /**
+         * @return the refs that are to be regenerated only because their repository changed.
+         */
+        public Set<String> getRepositoryRefs() {
+            return repositoryRefs;
+        }
+
+        /**
+         * @return the changed repositories whose contained records are planned, and whose new
+         * digests are to be {@link RepositoryDigests#commit committed} once the refs are journaled.
+         */
+        public Set<String> getRepositories() {
+            return repositories;
+        }
+    }
+}
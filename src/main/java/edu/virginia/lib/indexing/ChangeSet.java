@@ -0,0 +1,60 @@
+package edu.virginia.lib.indexing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The changes found in ArchivesSpace for a period: the repositories whose records changed (every
+ * accession and resource in which may need to be regenerated), the accessions and resources
+ * that need to be regenerated because they, or records that appear in them, changed, and the
+ * changed records that may be used by any number of accessions and resources (agents, subjects,
+ * locations, top containers and digital objects), which can be traced to the records that use
+ * them with a {@link ReverseDependencyIndex}.
+ */
+public class ChangeSet {
+
+    private final List<String> repositories = new ArrayList<>();
+
+    private final Set<String> records = new LinkedHashSet<>();
+
+    private final Set<String> dependencies = new LinkedHashSet<>();
+
+    public void addRepository(final String repositoryUri) {
+        if (!repositories.contains(repositoryUri)) {
+            repositories.add(repositoryUri);
+        }
+    }
+
+    public void addRecord(final String refId) {
+        records.add(refId);
+    }
+
+    public void addDependency(final String uri) {
+        dependencies.add(uri);
+    }
+
+    /**
+     * @return the URIs of the changed repositories.
+     */
+    public List<String> getRepositories() {
+        return Collections.unmodifiableList(repositories);
+    }
+
+    /**
+     * @return the refs of the accessions and resources to regenerate.
+     */
+    public Set<String> getRecords() {
+        return Collections.unmodifiableSet(records);
+    }
+
+    /**
+     * @return the URIs of the changed agents, subjects, locations, top containers and digital
+     * objects.
+     */
+    public Set<String> getDependencies() {
+        return Collections.unmodifiableSet(dependencies);
+    }
+}
@@ -0,0 +1,17 @@
+package edu.virginia.lib.indexing;
+
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * A source of the changes made to ArchivesSpace over a recent period, from which the records
+ * that need to be regenerated are planned.
+ */
+public interface ChangeSource {
+
+    /**
+     * Finds the changes made since the given time, or every record if since is null.
+     */
+    ChangeSet findChanges(Instant since) throws IOException;
+
+}
@@ -0,0 +1,51 @@
+package edu.virginia.lib.indexing;
+
+import javax.json.JsonObject;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the versions of everything resolved while an index record is generated: the
+ * lock_version of each ArchivesSpace record (the root record, its tree, containers, locations,
+ * agents, subjects and so on) and a digest of each IIIF manifest.  A tracker is installed for the
+ * current thread with {@link ArchivesSpaceClient#setDependencyTracker}, and may be shared with the
+ * threads that do work on its behalf.
+ */
+public class DependencyTracker {
+
+    private final Map<String, Integer> records = new ConcurrentHashMap<>();
+
+    private final Map<String, String> manifests = new ConcurrentHashMap<>();
+
+    /**
+     * Records the version of a resolved ArchivesSpace record.  Records without a lock_version
+     * are ignored.
+     */
+    public void addRecord(final String uri, final JsonObject record) {
+        if (uri != null && record != null && record.get("lock_version") != null) {
+            records.put(uri, record.getInt("lock_version"));
+        }
+    }
+
+    /**
+     * Records the digest of the values taken from a IIIF manifest.
+     */
+    public void addManifest(final String url, final String digest) {
+        manifests.put(url, digest);
+    }
+
+    /**
+     * @return the lock_version of every record resolved, keyed by URI.
+     */
+    public Map<String, Integer> getRecordVersions() {
+        return Collections.unmodifiableMap(records);
+    }
+
+    /**
+     * @return the digest of every manifest used, keyed by URL.
+     */
+    public Map<String, String> getManifestDigests() {
+        return Collections.unmodifiableMap(manifests);
+    }
+}
@@ -0,0 +1,129 @@
+package edu.virginia.lib.indexing;
+
+import org.apache.commons.io.FileUtils;
+
+import javax.json.Json;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import javax.json.JsonWriter;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A directory of recorded ArchivesSpace API responses, keyed by request path (including the
+ * query string, relative to the API's base URL).  Each response body is stored in its own
+ * numbered file and the mapping from request to file is appended to "index.txt" as each
+ * response is recorded, so a bundle from an interrupted run is still usable.
+ */
+public class FixtureBundle {
+
+    private static final String INDEX = "index.txt";
+
+    private final File dir;
+
+    private final Map<String, String> index = new HashMap<>();
+
+    private PrintWriter indexWriter;
+
+    /**
+     * Opens (or creates) the bundle in the given directory.
+     */
+    public FixtureBundle(final File dir) throws IOException {
+        this.dir = dir;
+        dir.mkdirs();
+        final File indexFile = new File(dir, INDEX);
+        if (indexFile.exists()) {
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    final int tab = line.indexOf('\t');
+                    if (tab > 0) {
+                        index.put(line.substring(0, tab), line.substring(tab + 1));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Normalizes a request path so that "//repositories/2" and "/repositories/2" are the same key.
+     */
+    public static String normalize(final String path) {
+        int i = 0;
+        while (i < path.length() && path.charAt(i) == '/') {
+            i ++;
+        }
+        return "/" + path.substring(i);
+    }
+
+    /**
+     * Records the response for the given request path, replacing any earlier recording of it.
+     */
+    public synchronized void record(final String path, final JsonStructure body) throws IOException {
+        final String key = normalize(path);
+        String file = index.get(key);
+        if (file == null) {
+            file = String.format("%08d.json", index.size());
+        }
+        try (JsonWriter w = Json.createWriter(new FileOutputStream(new File(dir, file)))) {
+            w.write(body);
+        }
+        if (!file.equals(index.put(key, file))) {
+            if (indexWriter == null) {
+                indexWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, INDEX), true), StandardCharsets.UTF_8));
+            }
+            indexWriter.println(key + "\t" + file);
+            indexWriter.flush();
+        }
+    }
+
+    /**
+     * Gets the recorded response for the given request path, or null if none was recorded.
+     */
+    public JsonStructure get(final String path) throws IOException {
+        final String body = getRaw(path);
+        if (body == null) {
+            return null;
+        }
+        try (JsonReader r = Json.createReader(new StringReader(body))) {
+            return r.read();
+        }
+    }
+
+    /**
+     * Gets the recorded response body for the given request path as text, or null if none
+     * was recorded.
+     */
+    public String getRaw(final String path) throws IOException {
+        final String file = getFile(path);
+        return file == null ? null : FileUtils.readFileToString(new File(dir, file), StandardCharsets.UTF_8);
+    }
+
+    private synchronized String getFile(final String path) {
+        return index.get(normalize(path));
+    }
+
+    public synchronized Set<String> getPaths() {
+        return Collections.unmodifiableSet(new HashSet<>(index.keySet()));
+    }
+
+    public synchronized void close() {
+        if (indexWriter != null) {
+            indexWriter.close();
+            indexWriter = null;
+        }
+    }
+}
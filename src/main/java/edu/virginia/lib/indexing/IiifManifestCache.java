@@ -0,0 +1,401 @@
+package edu.virginia.lib.indexing;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import javax.json.stream.JsonParsingException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getInt;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getLong;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getString;
+import static edu.virginia.lib.indexing.helpers.DigestHelper.sha1Hex;
+
+/**
+ * Fetches IIIF manifests, keeping only the few values that are indexed from each one.  Manifests
+ * almost never change, so the extracted values are kept in an in-memory LRU cache and (optionally)
+ * in a directory shared between runs, along with the ETag and Last-Modified headers of the
+ * response.  A cached manifest is revalidated with a conditional request when it's first used in
+ * a run (and periodically after that), so an unchanged manifest isn't downloaded or parsed again.
+ *
+ * Every instance shares one pooled HTTP client.  Most callers use the {@link #getDefault()
+ * default instance}, which IndexRecords configures from its properties.
+ */
+public class IiifManifestCache implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IiifManifestCache.class);
+
+    private static IiifManifestCache defaultInstance;
+
+    /**
+     * Gets the instance used when building solr documents, creating one with the default
+     * settings (and no disk cache) if none has been configured.
+     */
+    public static synchronized IiifManifestCache getDefault() {
+        if (defaultInstance == null) {
+            defaultInstance = new IiifManifestCache(new Properties());
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Replaces the instance used when building solr documents.
+     */
+    public static synchronized void setDefault(final IiifManifestCache cache) {
+        defaultInstance = cache;
+    }
+
+    private final CloseableHttpClient httpClient;
+
+    private final File dir;
+
+    private final long revalidateAfterMs;
+
+    private final IiifManifestProjection projection;
+
+    private final Map<String, Manifest> memory;
+
+    private final int maxSize;
+
+    private final long maxChars;
+
+    /**
+     * The total length of the strings held by the manifests in memory, guarded by memory's lock.
+     */
+    private long memoryChars;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong revalidated = new AtomicLong();
+
+    private final AtomicLong fetched = new AtomicLong();
+
+    /**
+     * @param config properties including the following optional values:
+     *   <ul>
+     *     <li>manifestCacheDir: a directory in which to keep manifests between runs (default none)</li>
+     *     <li>manifestCacheSize: the number of manifests to keep in memory (default 500)</li>
+     *     <li>manifestCacheMaxChars: the total length of the values (chiefly the embedded JSON)
+     *     of the manifests kept in memory (default 4000000)</li>
+     *     <li>manifestCacheRevalidateMinutes: how long a manifest may be used before it's
+     *     revalidated again (default 60)</li>
+     *   </ul>
+     *   The JSON embedded for each manifest is configured by the properties described in
+     *   {@link IiifManifestProjection}.
+     */
+    public IiifManifestCache(final Properties config) {
+        final String dirName = getString(config, "manifestCacheDir", null);
+        this.dir = dirName == null ? null : new File(dirName);
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        this.revalidateAfterMs = getInt(config, "manifestCacheRevalidateMinutes", 60) * 60 * 1000L;
+        this.projection = new IiifManifestProjection(config);
+        this.maxSize = getInt(config, "manifestCacheSize", 500);
+        this.maxChars = getLong(config, "manifestCacheMaxChars", 4000000);
+        this.memory = new LinkedHashMap<>(16, 0.75f, true);
+
+        final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(8);
+        connectionManager.setDefaultMaxPerRoute(4);
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(10000).setSocketTimeout(60000).build())
+                .build();
+    }
+
+    /**
+     * Gets the values indexed from the manifest at the given URL.
+     *
+     * @throws IOException if the manifest couldn't be fetched
+     * @throws RuntimeException if the server doesn't return the manifest or it can't be parsed
+     */
+    public Manifest getManifest(final String url) throws IOException {
+        Manifest cached;
+        synchronized (memory) {
+            cached = memory.get(url);
+        }
+        if (cached != null && System.currentTimeMillis() - cached.validatedAt <= revalidateAfterMs) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        if (cached == null) {
+            cached = readFromDisk(url);
+        }
+
+        final HttpGet get = new HttpGet(url);
+        if (cached != null && cached.etag != null) {
+            get.setHeader(HttpHeaders.IF_NONE_MATCH, cached.etag);
+        }
+        if (cached != null && cached.lastModified != null) {
+            get.setHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+        }
+        final Manifest manifest;
+        try (CloseableHttpResponse response = httpClient.execute(get)) {
+            final int status = response.getStatusLine().getStatusCode();
+            if (status == 304 && cached != null) {
+                EntityUtils.consume(response.getEntity());
+                revalidated.incrementAndGet();
+                manifest = cached.revalidated();
+                touch(url);
+            } else if (status == 200) {
+                final JsonObject iiifManifest;
+                try (JsonReader r = Json.createReader(response.getEntity().getContent())) {
+                    iiifManifest = r.readObject();
+                } catch (JsonParsingException e) {
+                    throw new RuntimeException("Unable to parse IIIF manifest at " + url);
+                }
+                fetched.incrementAndGet();
+                manifest = new Manifest(iiifManifest, projection.project(iiifManifest, url),
+                        response.getFirstHeader(HttpHeaders.ETAG) != null ? response.getFirstHeader(HttpHeaders.ETAG).getValue() : null,
+                        response.getFirstHeader(HttpHeaders.LAST_MODIFIED) != null ? response.getFirstHeader(HttpHeaders.LAST_MODIFIED).getValue() : null);
+                writeToDisk(url, manifest);
+            } else {
+                throw new RuntimeException("Unable to get IIIF manifest at " + url + " (" + response.getStatusLine().toString() + ")");
+            }
+        }
+        remember(url, manifest);
+        return manifest;
+    }
+
+    /**
+     * Adds the manifest to the in-memory cache, evicting the least recently used manifests until
+     * both the number of manifests and their total length are within the limits.  In the "full"
+     * embedding mode each manifest holds its whole JSON, so the number alone doesn't bound the
+     * heap used.
+     */
+    private void remember(final String url, final Manifest manifest) {
+        synchronized (memory) {
+            final Manifest previous = memory.put(url, manifest);
+            memoryChars += manifest.getLength() - (previous == null ? 0 : previous.getLength());
+            final Iterator<Manifest> it = memory.values().iterator();
+            while (it.hasNext() && (memory.size() > maxSize || memoryChars > maxChars)) {
+                memoryChars -= it.next().getLength();
+                it.remove();
+            }
+        }
+    }
+
+    private Manifest readFromDisk(final String url) {
+        if (dir == null) {
+            return null;
+        }
+        final File f = getFile(url);
+        if (!f.exists()) {
+            return null;
+        }
+        try (JsonReader r = Json.createReader(new FileInputStream(f))) {
+            final JsonObject cached = r.readObject();
+            if (!projection.getKey().equals(cached.getString("projection", null))) {
+                // embedded under a different configuration
+                return null;
+            }
+            return new Manifest(cached);
+        } catch (Exception ex) {
+            LOGGER.warn("Discarding unreadable manifest cache entry " + f, ex);
+            f.delete();
+            return null;
+        }
+    }
+
+    private void writeToDisk(final String url, final Manifest manifest) throws IOException {
+        if (dir == null) {
+            return;
+        }
+        final File f = getFile(url);
+        final File tmp = new File(dir, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (JsonWriter w = Json.createWriter(new FileOutputStream(tmp))) {
+            w.writeObject(manifest.toJson(url, projection.getKey()));
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void touch(final String url) {
+        if (dir != null) {
+            getFile(url).setLastModified(System.currentTimeMillis());
+        }
+    }
+
+    private File getFile(final String url) {
+        return new File(dir, sha1Hex(url) + ".json");
+    }
+
+    public String getStatistics() {
+        return "manifest cache: " + hits.get() + " hits, " + revalidated.get() + " revalidated, " + fetched.get() + " fetched; "
+                + projection.getStatistics();
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    /**
+     * The values indexed from a IIIF manifest.
+     */
+    public static class Manifest {
+
+        private final String id;
+
+        private final String label;
+
+        private final String license;
+
+        private final String thumbnail;
+
+        private final String metadata;
+
+        private final String etag;
+
+        private final String lastModified;
+
+        private final long validatedAt;
+
+        private Manifest(final JsonObject iiifManifest, final String metadata, final String etag, final String lastModified) {
+            this.id = iiifManifest.getString("@id");
+            this.label = getStringOrNull(iiifManifest, "label");
+            this.license = getStringOrNull(iiifManifest, "license");
+            this.thumbnail = getFirstThumbnail(iiifManifest);
+            this.metadata = metadata;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validatedAt = System.currentTimeMillis();
+        }
+
+        private Manifest(final JsonObject cached) {
+            this(cached.getString("id"), cached.getString("label", null), cached.getString("license", null),
+                    cached.getString("thumbnail", null), cached.getString("metadata"), cached.getString("etag", null),
+                    cached.getString("last_modified", null), 0);
+        }
+
+        private Manifest(final String id, final String label, final String license, final String thumbnail, final String metadata, final String etag, final String lastModified, final long validatedAt) {
+            this.id = id;
+            this.label = label;
+            this.license = license;
+            this.thumbnail = thumbnail;
+            this.metadata = metadata;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validatedAt = validatedAt;
+        }
+
+        /**
+         * @return the approximate number of characters held by this manifest.
+         */
+        private long getLength() {
+            return length(id) + length(label) + length(license) + length(thumbnail) + length(metadata)
+                    + length(etag) + length(lastModified);
+        }
+
+        private static int length(final String value) {
+            return value == null ? 0 : value.length();
+        }
+
+        private Manifest revalidated() {
+            return new Manifest(id, label, license, thumbnail, metadata, etag, lastModified, System.currentTimeMillis());
+        }
+
+        private JsonObject toJson(final String url, final String projectionKey) {
+            final JsonObjectBuilder b = Json.createObjectBuilder();
+            b.add("url", url);
+            b.add("projection", projectionKey);
+            b.add("id", id);
+            addIfPresent(b, "label", label);
+            addIfPresent(b, "license", license);
+            addIfPresent(b, "thumbnail", thumbnail);
+            b.add("metadata", metadata);
+            addIfPresent(b, "etag", etag);
+            addIfPresent(b, "last_modified", lastModified);
+            return b.build();
+        }
+
+        private static void addIfPresent(final JsonObjectBuilder b, final String name, final String value) {
+            if (value != null) {
+                b.add(name, value);
+            }
+        }
+
+        private static String getStringOrNull(final JsonObject o, final String name) {
+            final JsonValue v = o.get(name);
+            return v != null && v.getValueType() == JsonValue.ValueType.STRING ? o.getString(name) : null;
+        }
+
+        private static String getFirstThumbnail(final JsonObject iiifManifest) {
+            final JsonArray sequences = iiifManifest.getJsonArray("sequences");
+            if (sequences == null || sequences.isEmpty()) {
+                return null;
+            }
+            final JsonArray canvases = sequences.getJsonObject(0).getJsonArray("canvases");
+            if (canvases == null || canvases.isEmpty()) {
+                return null;
+            }
+            return getStringOrNull(canvases.getJsonObject(0), "thumbnail");
+        }
+
+        /**
+         * @return the manifest's "@id".
+         */
+        public String getId() {
+            return id;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the URI of the manifest's rights statement.
+         */
+        public String getLicense() {
+            return license;
+        }
+
+        /**
+         * @return the thumbnail of the first canvas of the first sequence, or null if there is none.
+         */
+        public String getThumbnail() {
+            return thumbnail;
+        }
+
+        /**
+         * @return the JSON to be embedded in the index record for display.
+         */
+        public String getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return a digest of every value indexed from the manifest, which changes whenever
+         * any of them does.
+         */
+        public String getDigest() {
+            return sha1Hex(id + '\n' + label + '\n' + license + '\n' + thumbnail + '\n' + metadata);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package edu.virginia.lib.indexing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getInt;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getString;
+
+/**
+ * Determines the JSON embedded in an index record (as "iiif_presentation_metadata_display") for
+ * a IIIF manifest.  In "full" mode that's the whole manifest, as it always has been.  In
+ * "projection" mode it's only the named top-level properties of the manifest (by default the
+ * descriptive ones that Virgo displays, leaving out the sequences and structures that make large
+ * manifests many megabytes), and any property whose JSON is longer than the size budget is left
+ * out and reported.
+ */
+public class IiifManifestProjection {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IiifManifestProjection.class);
+
+    private static final String DEFAULT_FIELDS = "@context,@id,@type,label,description,metadata,attribution,license,logo,thumbnail,related,seeAlso,within";
+
+    private final boolean full;
+
+    private final Set<String> fields;
+
+    private final int maxFieldChars;
+
+    private final AtomicLong omitted = new AtomicLong();
+
+    /**
+     * @param config properties including the following optional values:
+     *   <ul>
+     *     <li>manifestEmbedding: "full" to embed whole manifests or "projection" to embed only
+     *     the configured properties (default "full")</li>
+     *     <li>manifestProjectionFields: a comma-separated list of the top-level manifest
+     *     properties to embed in projection mode (default the descriptive properties)</li>
+     *     <li>manifestFieldMaxChars: the longest that the JSON of an embedded property may be in
+     *     projection mode (default 16384)</li>
+     *   </ul>
+     */
+    public IiifManifestProjection(final Properties config) {
+        final String mode = getString(config, "manifestEmbedding", "full");
+        if (!mode.equals("full") && !mode.equals("projection")) {
+            throw new IllegalArgumentException("Unknown manifestEmbedding: " + mode);
+        }
+        this.full = mode.equals("full");
+        this.fields = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(getString(config, "manifestProjectionFields", DEFAULT_FIELDS).split("\\s*,\\s*"))));
+        this.maxFieldChars = getInt(config, "manifestFieldMaxChars", 16384);
+    }
+
+    /**
+     * Gets the JSON to embed for the given manifest.
+     */
+    public String project(final JsonObject manifest, final String url) {
+        if (full) {
+            return manifest.toString();
+        }
+        final JsonObjectBuilder b = Json.createObjectBuilder();
+        for (String field : fields) {
+            final JsonValue value = manifest.get(field);
+            if (value != null) {
+                final int length = value.toString().length();
+                if (length > maxFieldChars) {
+                    omitted.incrementAndGet();
+                    LOGGER.warn("Omitted \"" + field + "\" (" + length + " characters, more than " + maxFieldChars + ") from the embedded metadata for manifest " + url);
+                } else {
+                    b.add(field, value);
+                }
+            }
+        }
+        return b.build().toString();
+    }
+
+    /**
+     * @return a string that differs between projections that could produce different JSON,
+     * so that JSON cached under one configuration isn't used under another.
+     */
+    public String getKey() {
+        return full ? "full" : "projection:" + String.join(",", fields) + ":" + maxFieldChars;
+    }
+
+    public String getStatistics() {
+        return "manifest embedding: " + (full ? "full" : "projection of " + fields.size() + " properties") + ", "
+                + omitted.get() + " oversized properties omitted";
+    }
+}
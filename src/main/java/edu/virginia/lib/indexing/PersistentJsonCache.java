@@ -0,0 +1,293 @@
+package edu.virginia.lib.indexing;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent cache of ArchivesSpace JSON responses, shared between runs, that is stored
+ * under a directory structure mirroring the request paths (so "/repositories/2/resources/5"
+ * is stored as "repositories/2/resources/5.json").
+ *
+ * Entries are validated in one of two ways:
+ * <ul>
+ *     <li>In bulk, by the caller: after every record whose system_mtime is later than
+ *     {@link #getValidThrough()} has been {@link #invalidate(String) invalidated} the caller
+ *     advances the watermark with {@link #markValidThrough(long)}, and all remaining entries
+ *     are trusted for the rest of the run without any request being made.</li>
+ *     <li>Individually, with a conditional request using the ETag or Last-Modified values
+ *     stored with the entry, where the server supplied them.</li>
+ * </ul>
+ * Entries older than the configured maximum age are never used, which bounds the staleness
+ * introduced by changes that the bulk validation cannot see (such as deletions).
+ *
+ * The cache marks its directory as its own when it first uses it, and refuses to use a directory
+ * that already holds other files, so that clearing the cache can never delete unrelated data.
+ */
+public class PersistentJsonCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PersistentJsonCache.class);
+
+    private static final String WATERMARK_FILE = "validated.properties";
+
+    private static final String MARKER_FILE = "persistent-json-cache";
+
+    private final File dir;
+
+    private final long maxAge;
+
+    private volatile boolean trusted;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong revalidated = new AtomicLong();
+
+    private final AtomicLong fetched = new AtomicLong();
+
+    private final AtomicLong unchanged = new AtomicLong();
+
+    /**
+     * @throws IllegalArgumentException if the directory holds files but wasn't created as a cache
+     */
+    public PersistentJsonCache(final File dir, final long maxAgeMillis) throws IOException {
+        this.dir = dir;
+        this.maxAge = maxAgeMillis;
+        dir.mkdirs();
+        final File marker = new File(dir, MARKER_FILE);
+        if (!marker.exists()) {
+            final String[] existing = dir.list();
+            if (existing == null || existing.length > 0) {
+                throw new IllegalArgumentException(dir + " isn't an empty directory or an existing response cache.");
+            }
+            FileUtils.writeStringToFile(marker, "A cache of ArchivesSpace responses; every other file here may be deleted.\n", "UTF-8");
+        }
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Gets the cached entry for the given URI, or null if there is none or it has exceeded
+     * the maximum age.
+     */
+    public Entry get(final String uri) {
+        final File f = getFile(uri);
+        if (!f.exists()) {
+            return null;
+        }
+        if (System.currentTimeMillis() - f.lastModified() > maxAge) {
+            f.delete();
+            return null;
+        }
+        try (JsonReader r = Json.createReader(new FileInputStream(f))) {
+            return new Entry(r.readObject());
+        } catch (Exception ex) {
+            LOGGER.warn("Discarding unreadable cache entry " + f, ex);
+            f.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given response.  The etag and lastModified values may be null.
+     */
+    public void put(final String uri, final JsonStructure body, final String etag, final String lastModified) throws IOException {
+        final File f = getFile(uri);
+        final JsonObjectBuilder b = Json.createObjectBuilder();
+        b.add("uri", uri);
+        if (etag != null) {
+            b.add("etag", etag);
+        }
+        if (lastModified != null) {
+            b.add("last_modified", lastModified);
+        }
+        b.add("body", body);
+        f.getParentFile().mkdirs();
+        final File tmp = new File(f.getParentFile(), f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (JsonWriter w = Json.createWriter(new FileOutputStream(tmp))) {
+            w.writeObject(b.build());
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Resets the age of the entry for the given URI after it has been revalidated.
+     */
+    public void touch(final String uri) {
+        getFile(uri).setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Removes the entry for the given URI along with any cached tree documents beneath it.
+     */
+    public void invalidate(final String uri) {
+        getFile(uri).delete();
+        invalidateTree(uri);
+    }
+
+    /**
+     * Removes any cached tree documents for the given resource (or node) URI, leaving the
+     * record itself in place.
+     */
+    public void invalidateTree(final String uri) {
+        getFile(uri + "/tree").delete();
+        FileUtils.deleteQuietly(new File(dir, stripLeadingSlash(uri) + "/tree"));
+    }
+
+    /**
+     * Removes every entry (and the validation watermark), for use when changes since the last
+     * validation can't be determined.  Only the entry files written by the cache (and the
+     * directories left empty) are deleted.
+     */
+    public void clear() throws IOException {
+        markUnvalidated();
+        clearEntries(dir);
+    }
+
+    private void clearEntries(final File d) throws IOException {
+        final File[] files = d.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                clearEntries(f);
+                final String[] remaining = f.list();
+                if (remaining != null && remaining.length == 0) {
+                    Files.delete(f.toPath());
+                }
+            } else if (f.getName().endsWith(".json") || f.getName().endsWith(".tmp")) {
+                Files.delete(f.toPath());
+            }
+        }
+    }
+
+    /**
+     * Gets the time (in milliseconds) through which every remaining entry is known to be current,
+     * or -1 if there is no unbroken record of validation.
+     */
+    public long getValidThrough() throws IOException {
+        final File f = new File(dir, WATERMARK_FILE);
+        if (!f.exists()) {
+            return -1;
+        }
+        final Properties p = new Properties();
+        try (FileInputStream fis = new FileInputStream(f)) {
+            p.load(fis);
+        }
+        return Long.parseLong(p.getProperty("validThrough", "-1"));
+    }
+
+    /**
+     * Records that every remaining entry is current as of the given time and trusts them
+     * without revalidation from now on.
+     */
+    public void markValidThrough(final long time) throws IOException {
+        final Properties p = new Properties();
+        p.setProperty("validThrough", String.valueOf(time));
+        try (FileOutputStream fos = new FileOutputStream(new File(dir, WATERMARK_FILE))) {
+            p.store(fos, null);
+        }
+        trusted = true;
+    }
+
+    /**
+     * Forgets the validation watermark, so that the next validation must start from scratch.
+     */
+    public void markUnvalidated() {
+        new File(dir, WATERMARK_FILE).delete();
+        trusted = false;
+    }
+
+    public boolean isTrusted() {
+        return trusted;
+    }
+
+    void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    void recordRevalidated() {
+        revalidated.incrementAndGet();
+    }
+
+    void recordFetched(final boolean wasUnchanged) {
+        fetched.incrementAndGet();
+        if (wasUnchanged) {
+            unchanged.incrementAndGet();
+        }
+    }
+
+    public String getStatistics() {
+        return "disk cache: " + hits.get() + " hits, " + revalidated.get() + " revalidated, " + fetched.get()
+                + " fetched (" + unchanged.get() + " with an unchanged lock_version)";
+    }
+
+    private File getFile(final String uri) {
+        final String path = stripLeadingSlash(uri);
+        final int query = path.indexOf('?');
+        if (query == -1) {
+            return new File(dir, path + ".json");
+        }
+        try {
+            return new File(new File(dir, path.substring(0, query)), URLEncoder.encode(path.substring(query + 1), "UTF-8") + ".json");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String stripLeadingSlash(final String uri) {
+        return uri.startsWith("/") ? uri.substring(1) : uri;
+    }
+
+    public static class Entry {
+
+        private final JsonObject entry;
+
+        private Entry(final JsonObject entry) {
+            this.entry = entry;
+        }
+
+        public JsonStructure getBody() {
+            return (JsonStructure) entry.get("body");
+        }
+
+        public String getEtag() {
+            return entry.getString("etag", null);
+        }
+
+        public String getLastModified() {
+            return entry.getString("last_modified", null);
+        }
+
+        /**
+         * Gets the lock_version of the cached record, or -1 if it isn't a versioned record.
+         */
+        public int getLockVersion() {
+            final JsonValue body = entry.get("body");
+            if (body instanceof JsonObject && ((JsonObject) body).get("lock_version") != null) {
+                return ((JsonObject) body).getInt("lock_version");
+            }
+            return -1;
+        }
+    }
+}
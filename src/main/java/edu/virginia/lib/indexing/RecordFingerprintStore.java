@@ -0,0 +1,196 @@
+package edu.virginia.lib.indexing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A persistent store of the fingerprint of each generated index record: the lock_version of the
+ * record itself along with the versions of every dependency that was resolved while generating it
+ * (as collected by a {@link DependencyTracker}).  When none of those versions have changed, the
+ * record would be generated exactly as before, so a run can skip it after checking the versions,
+ * which takes a handful of batched requests rather than a walk of the whole hierarchy.
+ *
+ * Fingerprints are stored under a directory structure mirroring the record URIs (so
+ * "/repositories/2/resources/5" is stored as "repositories/2/resources/5.json").
+ */
+public class RecordFingerprintStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordFingerprintStore.class);
+
+    private final File dir;
+
+    private final AtomicLong unchanged = new AtomicLong();
+
+    private final AtomicLong changed = new AtomicLong();
+
+    private final AtomicLong missing = new AtomicLong();
+
+    private final AtomicLong stored = new AtomicLong();
+
+    public RecordFingerprintStore(final File dir) {
+        this.dir = dir;
+        dir.mkdirs();
+    }
+
+    /**
+     * Gets the stored fingerprint for the given record, or null if there is none.
+     */
+    public Fingerprint get(final String refId) {
+        final File f = getFile(refId);
+        if (!f.exists()) {
+            return null;
+        }
+        try (JsonReader r = Json.createReader(new FileInputStream(f))) {
+            return new Fingerprint(r.readObject());
+        } catch (Exception ex) {
+            LOGGER.warn("Discarding unreadable fingerprint " + f, ex);
+            f.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Stores the fingerprint of a record that has just been generated.
+     */
+    public void put(final String refId, final int lockVersion, final DependencyTracker dependencies) throws IOException {
+        final JsonObjectBuilder records = Json.createObjectBuilder();
+        for (Map.Entry<String, Integer> e : dependencies.getRecordVersions().entrySet()) {
+            records.add(e.getKey(), e.getValue());
+        }
+        final JsonObjectBuilder manifests = Json.createObjectBuilder();
+        for (Map.Entry<String, String> e : dependencies.getManifestDigests().entrySet()) {
+            manifests.add(e.getKey(), e.getValue());
+        }
+        final JsonObject fingerprint = Json.createObjectBuilder()
+                .add("ref", refId)
+                .add("lock_version", lockVersion)
+                .add("records", records)
+                .add("manifests", manifests).build();
+        final File f = getFile(refId);
+        f.getParentFile().mkdirs();
+        final File tmp = new File(f.getParentFile(), f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (JsonWriter w = Json.createWriter(new FileOutputStream(tmp))) {
+            w.writeObject(fingerprint);
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stored.incrementAndGet();
+    }
+
+    /**
+     * Determines whether the given record and every one of its dependencies are unchanged
+     * since its fingerprint was stored.  The record itself is checked first, then the other
+     * records are resolved in batches and finally the manifests are revalidated.  A record
+     * without a fingerprint, or with a dependency that can no longer be resolved, is considered
+     * changed.
+     */
+    public boolean isUnchanged(final String refId, final ArchivesSpaceClient client, final IiifManifestCache manifests) {
+        final Fingerprint fingerprint = get(refId);
+        if (fingerprint == null) {
+            missing.incrementAndGet();
+            return false;
+        }
+        try {
+            if (fingerprint.getLockVersion() != getLockVersion(client.resolveReference(refId))) {
+                changed.incrementAndGet();
+                return false;
+            }
+            final Map<String, JsonObject> current = client.bulkResolveReferences(fingerprint.getRecordVersions().keySet());
+            for (Map.Entry<String, Integer> e : fingerprint.getRecordVersions().entrySet()) {
+                final JsonObject record = current.containsKey(e.getKey()) ? current.get(e.getKey()) : client.resolveReference(e.getKey());
+                if (e.getValue() != getLockVersion(record)) {
+                    changed.incrementAndGet();
+                    return false;
+                }
+            }
+            for (Map.Entry<String, String> e : fingerprint.getManifestDigests().entrySet()) {
+                if (!e.getValue().equals(manifests.getManifest(e.getKey()).getDigest())) {
+                    changed.incrementAndGet();
+                    return false;
+                }
+            }
+        } catch (Exception ex) {
+            LOGGER.info("Unable to check the dependencies of " + refId + ", it will be regenerated.", ex);
+            changed.incrementAndGet();
+            return false;
+        }
+        unchanged.incrementAndGet();
+        return true;
+    }
+
+    private static int getLockVersion(final JsonObject record) {
+        return record.get("lock_version") != null ? record.getInt("lock_version") : -1;
+    }
+
+    public String getStatistics() {
+        return "fingerprints: " + unchanged.get() + " unchanged, " + changed.get() + " changed, " + missing.get()
+                + " missing, " + stored.get() + " stored";
+    }
+
+    private File getFile(final String refId) {
+        return new File(dir, (refId.startsWith("/") ? refId.substring(1) : refId) + ".json");
+    }
+
+    public static class Fingerprint {
+
+        private final int lockVersion;
+
+        private final Map<String, Integer> records;
+
+        private final Map<String, String> manifests;
+
+        private Fingerprint(final JsonObject fingerprint) {
+            this.lockVersion = fingerprint.getInt("lock_version");
+            final Map<String, Integer> records = new LinkedHashMap<>();
+            for (Map.Entry<String, JsonValue> e : fingerprint.getJsonObject("records").entrySet()) {
+                records.put(e.getKey(), ((JsonNumber) e.getValue()).intValue());
+            }
+            this.records = Collections.unmodifiableMap(records);
+            final Map<String, String> manifests = new LinkedHashMap<>();
+            for (Map.Entry<String, JsonValue> e : fingerprint.getJsonObject("manifests").entrySet()) {
+                manifests.put(e.getKey(), ((JsonString) e.getValue()).getString());
+            }
+            this.manifests = Collections.unmodifiableMap(manifests);
+        }
+
+        /**
+         * @return the lock_version of the record itself.
+         */
+        public int getLockVersion() {
+            return lockVersion;
+        }
+
+        /**
+         * @return the lock_version of every record resolved while generating the record, keyed
+         * by URI.
+         */
+        public Map<String, Integer> getRecordVersions() {
+            return records;
+        }
+
+        /**
+         * @return the digest of every manifest used while generating the record, keyed by URL.
+         */
+        public Map<String, String> getManifestDigests() {
+            return manifests;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package edu.virginia.lib.indexing;
+
+/**
+ * An immutable, parsed form of the reference id of a repository-scoped ArchivesSpace record,
+ * such as "/repositories/3/resources/754".  Parsing is done by scanning the characters of
+ * the string (no regular expressions), and each RefId can be packed into a single long for use
+ * as a compact key in sets and maps.
+ *
+ * Accessions and resources also have an identifier in Virgo's solr index, which is of the form
+ * "as:3a12" or "as:3r754" (repository 3, accession 12 or resource 754).
+ */
+public final class RefId {
+
+    /**
+     * The types of repository-scoped records that are indexed or referenced during indexing.
+     * The order of these values is part of the long encoding and must not be changed (though
+     * new values may be added at the end).
+     */
+    public enum Type {
+        ACCESSION("accessions", 'a'),
+        RESOURCE("resources", 'r'),
+        TOP_CONTAINER("top_containers", 'C'),
+        DIGITAL_OBJECT("digital_objects", 0),
+        ARCHIVAL_OBJECT("archival_objects", 0);
+
+        private final String pathSegment;
+
+        private final char code;
+
+        Type(final String pathSegment, final int code) {
+            this.pathSegment = pathSegment;
+            this.code = (char) code;
+        }
+
+        /**
+         * @return the name of this type as it appears in a reference id, such as "resources".
+         */
+        public String getPathSegment() {
+            return pathSegment;
+        }
+
+        private static Type forPathSegment(final String s, final int start, final int end) {
+            for (Type t : values()) {
+                if (t.pathSegment.length() == end - start && s.regionMatches(start, t.pathSegment, 0, end - start)) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        private static Type forSolrCode(final char code) {
+            return code == 'a' ? ACCESSION : code == 'r' ? RESOURCE : null;
+        }
+    }
+
+    private static final String REPOSITORIES = "repositories/";
+
+    private static final String SOLR_PREFIX = "as:";
+
+    private static final int ID_BITS = 40;
+
+    private static final int TYPE_BITS = 4;
+
+    private static final int REPOSITORY_BITS = 63 - ID_BITS - TYPE_BITS;
+
+    private static final long MAX_ID = (1L << ID_BITS) - 1;
+
+    private static final long MAX_REPOSITORY = (1L << REPOSITORY_BITS) - 1;
+
+    private final int repository;
+
+    private final Type type;
+
+    private final long id;
+
+    public RefId(final int repository, final Type type, final long id) {
+        if (repository < 0 || repository > MAX_REPOSITORY || id < 0 || id > MAX_ID || type == null) {
+            throw new IllegalArgumentException("Invalid reference: repository " + repository + ", " + type + " " + id);
+        }
+        this.repository = repository;
+        this.type = type;
+        this.id = id;
+    }
+
+    /**
+     * Parses a reference id of the form "/repositories/{repo}/{type}/{id}" (the leading slash
+     * is optional).
+     *
+     * @throws IllegalArgumentException if the string isn't a reference id of a known type
+     */
+    public static RefId parse(final String refId) {
+        final RefId parsed = tryParse(refId);
+        if (parsed == null) {
+            throw new IllegalArgumentException("Unrecognized reference id: " + refId);
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a reference id like {@link #parse(String)}, but returns null rather than throwing
+     * an exception when the string isn't a reference id of a known type.
+     */
+    public static RefId tryParse(final String refId) {
+        if (refId == null) {
+            return null;
+        }
+        int i = refId.startsWith("/") ? 1 : 0;
+        if (!refId.startsWith(REPOSITORIES, i)) {
+            return null;
+        }
+        i += REPOSITORIES.length();
+        final int repositoryEnd = skipDigits(refId, i);
+        if (repositoryEnd == i || repositoryEnd >= refId.length() || refId.charAt(repositoryEnd) != '/') {
+            return null;
+        }
+        final long repository = parseDigits(refId, i, repositoryEnd, MAX_REPOSITORY);
+        final int typeEnd = refId.indexOf('/', repositoryEnd + 1);
+        if (typeEnd < 0) {
+            return null;
+        }
+        final Type type = Type.forPathSegment(refId, repositoryEnd + 1, typeEnd);
+        if (type == null) {
+            return null;
+        }
+        final int idEnd = skipDigits(refId, typeEnd + 1);
+        if (idEnd == typeEnd + 1 || idEnd != refId.length()) {
+            return null;
+        }
+        final long id = parseDigits(refId, typeEnd + 1, idEnd, MAX_ID);
+        if (repository < 0 || id < 0) {
+            return null;
+        }
+        return new RefId((int) repository, type, id);
+    }
+
+    /**
+     * Parses an identifier from Virgo's solr index, such as "as:3r754".
+     *
+     * @throws IllegalArgumentException if the string isn't a solr identifier for an accession
+     * or resource
+     */
+    public static RefId fromSolrId(final String solrId) {
+        if (solrId != null && solrId.startsWith(SOLR_PREFIX)) {
+            final int start = SOLR_PREFIX.length();
+            final int repositoryEnd = skipDigits(solrId, start);
+            if (repositoryEnd > start && repositoryEnd < solrId.length()) {
+                final Type type = Type.forSolrCode(solrId.charAt(repositoryEnd));
+                final int idEnd = skipDigits(solrId, repositoryEnd + 1);
+                if (type != null && idEnd > repositoryEnd + 1 && idEnd == solrId.length()) {
+                    final long repository = parseDigits(solrId, start, repositoryEnd, MAX_REPOSITORY);
+                    final long id = parseDigits(solrId, repositoryEnd + 1, idEnd, MAX_ID);
+                    if (repository >= 0 && id >= 0) {
+                        return new RefId((int) repository, type, id);
+                    }
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unrecognized solr id: " + solrId);
+    }
+
+    /**
+     * Unpacks a RefId from the value returned by {@link #toLong()}.
+     */
+    public static RefId fromLong(final long encoded) {
+        final int typeOrdinal = (int) ((encoded >>> ID_BITS) & ((1 << TYPE_BITS) - 1));
+        final Type[] types = Type.values();
+        if (encoded < 0 || typeOrdinal >= types.length) {
+            throw new IllegalArgumentException("Invalid encoded reference: " + encoded);
+        }
+        return new RefId((int) (encoded >>> (ID_BITS + TYPE_BITS)), types[typeOrdinal], encoded & MAX_ID);
+    }
+
+    private static int skipDigits(final String s, int i) {
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i ++;
+        }
+        return i;
+    }
+
+    /**
+     * Parses the digits between start and end, returning -1 if the value exceeds max.
+     */
+    private static long parseDigits(final String s, final int start, final int end, final long max) {
+        long value = 0;
+        for (int i = start; i < end; i ++) {
+            value = value * 10 + (s.charAt(i) - '0');
+            if (value > max) {
+                return -1;
+            }
+        }
+        return value;
+    }
+
+    public int getRepository() {
+        return repository;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the reference id, such as "/repositories/3/resources/754".
+     */
+    public String getUri() {
+        return "/" + REPOSITORIES + repository + "/" + type.pathSegment + "/" + id;
+    }
+
+    /**
+     * @return the identifier for this record in Virgo's solr index, such as "as:3r754".
+     * @throws IllegalStateException if this isn't an accession or resource
+     */
+    public String toSolrId() {
+        if (type != Type.ACCESSION && type != Type.RESOURCE) {
+            throw new IllegalStateException(getUri() + " has no solr identifier");
+        }
+        return SOLR_PREFIX + repository + type.code + id;
+    }
+
+    /**
+     * @return the identifier used in place of a barcode for a top container that has none,
+     * such as "AS:3C1234".
+     * @throws IllegalStateException if this isn't a top container
+     */
+    public String toContainerBarcode() {
+        if (type != Type.TOP_CONTAINER) {
+            throw new IllegalStateException(getUri() + " is not a top container");
+        }
+        return "AS:" + repository + type.code + id;
+    }
+
+    /**
+     * Packs this RefId into a single non-negative long, from which it can be restored with
+     * {@link #fromLong(long)}.  Two RefIds are equal if and only if their encodings are equal.
+     */
+    public long toLong() {
+        return ((long) repository << (ID_BITS + TYPE_BITS)) | ((long) type.ordinal() << ID_BITS) | id;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof RefId && ((RefId) o).toLong() == toLong();
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(toLong());
+    }
+
+    @Override
+    public String toString() {
+        return getUri();
+    }
+}
@@ -0,0 +1,220 @@
+package edu.virginia.lib.indexing;
+
+import javax.json.JsonObject;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getInt;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getLong;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getString;
+
+/**
+ * A bounded, thread-safe, in-memory cache of resolved ArchivesSpace records that sits in front of
+ * {@link ArchivesSpaceClient#resolveReference(String)}.  Only the URI types listed in the
+ * "referenceCacheTypes" property are cached (by default the records shared between many index
+ * documents: agents, subjects, repositories, locations and top containers).  Each type has its
+ * own LRU bound and time-to-live which may be overridden individually, for example:
+ * <pre>
+ * referenceCacheMaxSize:10000
+ * referenceCacheTtlSeconds:3600
+ * referenceCacheMaxSize.repositories:100
+ * </pre>
+ */
+public class ReferenceCache {
+
+    public static final String DEFAULT_TYPES = "agents,subjects,repositories,locations,top_containers";
+
+    private final Map<String, TypeCache> caches = new LinkedHashMap<>();
+
+    public ReferenceCache(final Properties config) {
+        final int defaultMaxSize = getInt(config, "referenceCacheMaxSize", 10000);
+        final long defaultTtl = getLong(config, "referenceCacheTtlSeconds", 3600);
+        for (String type : getString(config, "referenceCacheTypes", DEFAULT_TYPES).split(",")) {
+            type = type.trim();
+            if (!type.isEmpty()) {
+                caches.put(type, new TypeCache(
+                        getInt(config, "referenceCacheMaxSize." + type, defaultMaxSize),
+                        getLong(config, "referenceCacheTtlSeconds." + type, defaultTtl) * 1000));
+            }
+        }
+    }
+
+    /**
+     * Gets the cached record for the given reference, or null if the reference isn't
+     * of a cached type, was never cached, or has expired.
+     */
+    public JsonObject get(final String refId) {
+        final TypeCache cache = caches.get(getCacheType(refId));
+        return cache == null ? null : cache.get(refId, true);
+    }
+
+    /**
+     * Gets the cached record for the given reference like {@link #get(String)}, but without
+     * counting a miss: a lookup that goes on to fetch the record should count its miss with
+     * {@link #recordMiss(String)}, or by falling back to {@link #get(String)}.
+     */
+    JsonObject peek(final String refId) {
+        final TypeCache cache = caches.get(getCacheType(refId));
+        return cache == null ? null : cache.get(refId, false);
+    }
+
+    /**
+     * Counts a miss for a reference that was looked up with {@link #peek(String)} and fetched.
+     */
+    void recordMiss(final String refId) {
+        final TypeCache cache = caches.get(getCacheType(refId));
+        if (cache != null) {
+            cache.misses.incrementAndGet();
+        }
+    }
+
+    /**
+     * Caches the given record if the reference is of a cached type.
+     */
+    public void put(final String refId, final JsonObject record) {
+        final TypeCache cache = caches.get(getCacheType(refId));
+        if (cache != null) {
+            cache.put(refId, record);
+        }
+    }
+
+    /**
+     * Removes the cached record for the given reference (if any), so that a record known to have
+     * changed is fetched again the next time it's resolved.
+     */
+    public void invalidate(final String refId) {
+        final TypeCache cache = caches.get(getCacheType(refId));
+        if (cache != null) {
+            cache.remove(refId);
+        }
+    }
+
+    public boolean isCached(final String refId) {
+        return caches.containsKey(getCacheType(refId));
+    }
+
+    /**
+     * Gets a human-readable summary line of the hit/miss counters for each cached type.
+     */
+    public List<String> getStatistics() {
+        final List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, TypeCache> e : caches.entrySet()) {
+            final TypeCache c = e.getValue();
+            lines.add("reference cache " + e.getKey() + ": " + c.hits.get() + " hits, " + c.misses.get() + " misses, "
+                    + c.evictions.get() + " evictions, " + c.size() + " entries");
+        }
+        return lines;
+    }
+
+    /**
+     * Gets the type of record referenced by the given URI as it appears in the path, for
+     * example "agents" for "/agents/people/12", "repositories" for "/repositories/3" and
+     * "top_containers" for "/repositories/3/top_containers/1234".
+     */
+    static String getCacheType(final String refId) {
+        final String[] parts = refId.split("/");
+        // parts[0] is empty because refIds begin with "/"
+        if (parts.length < 2) {
+            return null;
+        }
+        if (parts[1].equals("repositories")) {
+            return parts.length == 3 ? "repositories" : parts.length > 3 ? parts[3] : null;
+        }
+        return parts[1];
+    }
+
+    private static class TypeCache {
+
+        private final int maxSize;
+
+        private final long ttl;
+
+        private final LinkedHashMap<String, Entry> entries;
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        private final AtomicLong evictions = new AtomicLong();
+
+        private TypeCache(final int maxSize, final long ttl) {
+            this.maxSize = maxSize;
+            this.ttl = ttl;
+            this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > TypeCache.this.maxSize) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private synchronized JsonObject get(final String refId, final boolean countMiss) {
+            final Entry e = entries.get(refId);
+            if (e == null) {
+                if (countMiss) {
+                    misses.incrementAndGet();
+                }
+                return null;
+            }
+            if (System.currentTimeMillis() - e.created > ttl) {
+                entries.remove(refId);
+                evictions.incrementAndGet();
+                if (countMiss) {
+                    misses.incrementAndGet();
+                }
+                return null;
+            }
+            hits.incrementAndGet();
+            return e.record;
+        }
+
+        private synchronized void put(final String refId, final JsonObject record) {
+            entries.put(refId, new Entry(record));
+            purgeExpired();
+        }
+
+        private synchronized void remove(final String refId) {
+            entries.remove(refId);
+        }
+
+        private synchronized int size() {
+            return entries.size();
+        }
+
+        /**
+         * Removes expired entries from the least-recently-used end until a live entry is found.
+         */
+        private void purgeExpired() {
+            final long now = System.currentTimeMillis();
+            final Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().created > ttl) {
+                    it.remove();
+                    evictions.incrementAndGet();
+                } else {
+                    break;
+                }
+            }
+        }
+    }
+
+    private static class Entry {
+
+        private final JsonObject record;
+
+        private final long created = System.currentTimeMillis();
+
+        private Entry(final JsonObject record) {
+            this.record = record;
+        }
+    }
+}
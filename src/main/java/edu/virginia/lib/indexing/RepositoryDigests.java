@@ -0,0 +1,92 @@
+package edu.virginia.lib.indexing;
+
+import javax.json.JsonObject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static edu.virginia.lib.indexing.helpers.DigestHelper.sha1Hex;
+
+/**
+ * A persistent digest of the fields of each repository record that appear in the generated
+ * records (currently just the "name", from which the library is derived).  Every accession and
+ * resource in a repository has to be regenerated when one of those fields changes, but most
+ * updates to a repository record change nothing that's indexed and can be ignored.
+ *
+ * A changed digest is only {@link #commit committed} (and then persisted by {@link #save}) once
+ * the records that have to be regenerated because of it have been journaled, so that a process
+ * that dies before then sees the change again.
+ */
+public class RepositoryDigests {
+
+    private static final String[] OUTPUT_FIELDS = new String[] { "name" };
+
+    private final File file;
+
+    private final Properties digests = new Properties();
+
+    /**
+     * The latest digest of each repository whose change hasn't been committed.
+     */
+    private final Map<String, String> pending = new HashMap<>();
+
+    public RepositoryDigests(final File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            try (FileInputStream fis = new FileInputStream(file)) {
+                digests.load(fis);
+            }
+        }
+    }
+
+    /**
+     * Compares the digest of the given repository record with the latest one seen, holding the
+     * new digest until it's {@link #commit committed}.
+     *
+     * @return true if any field that appears in the generated records has changed, or if there
+     * was no stored digest for the repository
+     */
+    public synchronized boolean update(final String repositoryUri, final JsonObject repository) {
+        final String digest = digest(repository);
+        final String previous = pending.containsKey(repositoryUri) ? pending.get(repositoryUri) : digests.getProperty(repositoryUri);
+        if (digest.equals(previous)) {
+            return false;
+        }
+        pending.put(repositoryUri, digest);
+        return true;
+    }
+
+    /**
+     * Commits the latest digests of the given repositories, whose changes have been accounted
+     * for, so that they're persisted by the next {@link #save}.
+     */
+    public synchronized void commit(final Collection<String> repositoryUris) {
+        for (String uri : repositoryUris) {
+            final String digest = pending.remove(uri);
+            if (digest != null) {
+                digests.setProperty(uri, digest);
+            }
+        }
+    }
+
+    static String digest(final JsonObject repository) {
+        final StringBuilder values = new StringBuilder();
+        for (String field : OUTPUT_FIELDS) {
+            values.append(field).append('=').append(repository.getString(field, "")).append('\n');
+        }
+        return sha1Hex(values.toString());
+    }
+
+    public synchronized void save() throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            digests.store(out, "digests of the indexed repository fields as of " + new Date() + ".");
+        }
+    }
+}
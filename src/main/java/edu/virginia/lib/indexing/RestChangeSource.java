@@ -0,0 +1,75 @@
+package edu.virginia.lib.indexing;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import java.io.IOException;
+import java.time.Instant;
+
+/**
+ * Finds changes through the ArchivesSpace REST API, by paging through the accessions, resources,
+ * archival objects, top containers and digital objects of each repository, along with the agents,
+ * subjects and locations (which don't belong to a repository), that were modified since the start
+ * of the period ("modified_since").  This reflects the database directly (there's no indexing
+ * lag) but takes a request per page of changed records.
+ *
+ * Directly changed accessions are regenerated, along with everything the solr change source
+ * finds.
+ */
+public class RestChangeSource implements ChangeSource {
+
+    private static final String[] GLOBAL_DEPENDENCIES = new String[] { "/agents/people", "/agents/corporate_entities",
+            "/agents/families", "/agents/software", "/subjects", "/locations" };
+
+    private final ArchivesSpaceClient client;
+
+    public RestChangeSource(final ArchivesSpaceClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public ChangeSet findChanges(final Instant sinceTime) throws IOException {
+        final long since = sinceTime == null ? 0 : sinceTime.getEpochSecond();
+        final ChangeSet changes = new ChangeSet();
+        for (JsonObject repository : client.listRepositories()) {
+            final String repoId = repository.getString("uri");
+            if (isModifiedSince(repository, since)) {
+                changes.addRepository(repoId);
+            }
+            client.forEachModifiedSince(repoId + "/resources", since, resource -> {
+                changes.addRecord(resource.getString("uri"));
+                // related accessions might have to be hidden or something
+                addRefs(changes, resource.get("related_accessions"));
+            });
+            client.forEachModifiedSince(repoId + "/accessions", since, accession -> changes.addRecord(accession.getString("uri")));
+            client.forEachModifiedSince(repoId + "/archival_objects", since, ao -> {
+                final JsonObject resource = ao.getJsonObject("resource");
+                if (resource != null) {
+                    changes.addRecord(resource.getString("ref"));
+                }
+            });
+            client.forEachModifiedSince(repoId + "/top_containers", since, container -> {
+                addRefs(changes, container.get("collection"));
+                changes.addDependency(container.getString("uri"));
+            });
+            client.forEachModifiedSince(repoId + "/digital_objects", since, digitalObject -> changes.addDependency(digitalObject.getString("uri")));
+        }
+        for (String listing : GLOBAL_DEPENDENCIES) {
+            client.forEachModifiedSince(listing, since, record -> changes.addDependency(record.getString("uri")));
+        }
+        return changes;
+    }
+
+    private static boolean isModifiedSince(final JsonObject record, final long since) {
+        final String mtime = record.getString("user_mtime", null);
+        return mtime == null || Instant.parse(mtime).getEpochSecond() >= since;
+    }
+
+    private static void addRefs(final ChangeSet changes, final JsonValue refs) {
+        if (refs != null && refs.getValueType() == JsonValue.ValueType.ARRAY) {
+            for (JsonValue ref : (JsonArray) refs) {
+                changes.addRecord(((JsonObject) ref).getString("ref"));
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package edu.virginia.lib.indexing;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A persistent index from each record that may be used by any number of accessions and
+ * resources (agents, subjects, locations, top containers, digital objects, repositories and IIIF
+ * manifests) to the accessions and resources that used it when they were last generated.  The
+ * index is updated from the {@link DependencyTracker} of each generated record, so it costs
+ * nothing to build, and it lets a change to one of those records be traced to exactly the records
+ * that must be regenerated.
+ *
+ * Archival objects aren't indexed, because a change to one is traced to its resource through its
+ * ancestors.  The index is held in memory and written (in full, replacing the previous file) by
+ * {@link #save}, as tab-separated lines:
+ * <pre>
+ * record      {ref}    {dependency}    {dependency} ...
+ * manifest    {url}    {digest}
+ * </pre>
+ */
+public class ReverseDependencyIndex {
+
+    private static final String RECORD = "record";
+
+    private static final String MANIFEST = "manifest";
+
+    private final File file;
+
+    private final Map<String, Set<String>> dependencies = new HashMap<>();
+
+    private final Map<String, Set<String>> dependents = new HashMap<>();
+
+    private final Map<String, String> manifestDigests = new HashMap<>();
+
+    private int updated;
+
+    public ReverseDependencyIndex(final File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    final String[] entry = line.split("\t");
+                    if (entry[0].equals(RECORD)) {
+                        final Set<String> uris = new LinkedHashSet<>();
+                        for (int i = 2; i < entry.length; i ++) {
+                            uris.add(entry[i]);
+                        }
+                        put(entry[1], uris);
+                    } else if (entry[0].equals(MANIFEST)) {
+                        manifestDigests.put(entry[1], entry[2]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the dependencies of a record with those collected while it was just generated.
+     */
+    public synchronized void update(final String refId, final DependencyTracker tracker) {
+        final Set<String> uris = new LinkedHashSet<>();
+        for (String uri : tracker.getRecordVersions().keySet()) {
+            if (!uri.equals(refId) && !uri.contains("/archival_objects/")) {
+                uris.add(uri);
+            }
+        }
+        uris.addAll(tracker.getManifestDigests().keySet());
+        put(refId, uris);
+        manifestDigests.putAll(tracker.getManifestDigests());
+        updated ++;
+    }
+
+    private void put(final String refId, final Set<String> uris) {
+        final Set<String> previous = dependencies.put(refId, uris);
+        if (previous != null) {
+            for (String uri : previous) {
+                final Set<String> refs = dependents.get(uri);
+                refs.remove(refId);
+                if (refs.isEmpty()) {
+                    dependents.remove(uri);
+                    manifestDigests.remove(uri);
+                }
+            }
+        }
+        for (String uri : uris) {
+            dependents.computeIfAbsent(uri, u -> new LinkedHashSet<>()).add(refId);
+        }
+    }
+
+    /**
+     * @return true if the dependencies of the given record are indexed (which is to say it was
+     * generated since the index was introduced).
+     */
+    public synchronized boolean contains(final String refId) {
+        return dependencies.containsKey(refId);
+    }
+
+    /**
+     * @return the refs of the accessions and resources that used the given record or manifest
+     * when they were last generated.
+     */
+    public synchronized Set<String> getDependents(final String uri) {
+        final Set<String> refs = dependents.get(uri);
+        return refs == null ? new LinkedHashSet<>() : new LinkedHashSet<>(refs);
+    }
+
+    /**
+     * @return the digest of every indexed manifest as of the last time it was used, keyed by URL.
+     */
+    public synchronized Map<String, String> getManifestDigests() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(manifestDigests));
+    }
+
+    /**
+     * Writes the index to its file (by way of a temporary file, so that an interrupted save
+     * leaves the previous index intact).
+     */
+    public synchronized void save() throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        final File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Set<String>> e : dependencies.entrySet()) {
+                w.write(RECORD + "\t" + e.getKey());
+                for (String uri : e.getValue()) {
+                    w.write("\t" + uri);
+                }
+                w.write('\n');
+            }
+            for (Map.Entry<String, String> e : manifestDigests.entrySet()) {
+                w.write(MANIFEST + "\t" + e.getKey() + "\t" + e.getValue() + "\n");
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized String getStatistics() {
+        return "dependency index: " + dependencies.size() + " records using " + dependents.size() + " dependencies, "
+                + updated + " records updated";
+    }
+}
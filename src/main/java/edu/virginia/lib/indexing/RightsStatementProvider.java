@@ -0,0 +1,196 @@
+package edu.virginia.lib.indexing;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getLong;
+
+/**
+ * Provides the rights statements from the tracksys "use_rights" table.  That table has only a
+ * handful of rows, so rather than querying it for every IIIF manifest, the whole table is loaded
+ * into an immutable map when first needed and reloaded once it's older than the refresh interval
+ * (for the shared providers, the "rightsRefreshMinutes" property, by default 60).
+ * A statement that isn't in the map (perhaps because it was added since the table was loaded) is
+ * looked up individually.  A single connection is opened when first needed and reused for every
+ * query, being replaced only if it stops being valid.
+ */
+public class RightsStatementProvider {
+
+    private static final String QUERY = "SELECT name, uri, statement, commercial_use, educational_use, modifications from use_rights";
+
+    private static final Map<String, RightsStatementProvider> INSTANCES = new HashMap<>();
+
+    private static long sharedRefreshIntervalMs = 60 * 60 * 1000;
+
+    /**
+     * Sets the refresh interval of the shared providers from the "rightsRefreshMinutes" property,
+     * which matters for a long-running process that keeps them between runs.  Providers that
+     * already exist keep their interval.
+     */
+    public static synchronized void configure(final Properties config) {
+        sharedRefreshIntervalMs = getLong(config, "rightsRefreshMinutes", 60) * 60 * 1000;
+    }
+
+    /**
+     * Gets the shared provider for the tracksys database with the given host and credentials.
+     */
+    public static synchronized RightsStatementProvider getInstance(final String tracksysDbHost, final String tracksysDbUsername, final String tracksysDbPassword) throws SQLException {
+        final String connectionUrl = "jdbc:mysql://" + tracksysDbHost + "/tracksys_production?user=" + tracksysDbUsername + "&password=" + tracksysDbPassword;
+        RightsStatementProvider provider = INSTANCES.get(connectionUrl);
+        if (provider == null) {
+            if (INSTANCES.isEmpty()) {
+                DriverManager.registerDriver(new com.mysql.jdbc.Driver());
+            }
+            provider = new RightsStatementProvider(connectionUrl, sharedRefreshIntervalMs);
+            INSTANCES.put(connectionUrl, provider);
+        }
+        return provider;
+    }
+
+    /**
+     * Closes the connections of every shared provider.
+     */
+    public static synchronized void closeAll() {
+        for (RightsStatementProvider provider : INSTANCES.values()) {
+            provider.close();
+        }
+        INSTANCES.clear();
+    }
+
+    private final String connectionUrl;
+
+    private final long refreshIntervalMs;
+
+    private Connection connection;
+
+    private volatile Map<String, RightsStatement> statements;
+
+    private volatile long loadedAt;
+
+    public RightsStatementProvider(final String connectionUrl, final long refreshIntervalMs) {
+        this.connectionUrl = connectionUrl;
+        this.refreshIntervalMs = refreshIntervalMs;
+    }
+
+    /**
+     * Gets the rights statement with the given URI, or null if there is none.
+     */
+    public RightsStatement getStatement(final String uri) throws SQLException {
+        Map<String, RightsStatement> current = statements;
+        if (current == null || System.currentTimeMillis() - loadedAt >= refreshIntervalMs) {
+            current = load();
+        }
+        final RightsStatement statement = current.get(uri);
+        return statement != null ? statement : lookUp(uri);
+    }
+
+    private synchronized Map<String, RightsStatement> load() throws SQLException {
+        if (statements != null && System.currentTimeMillis() - loadedAt < refreshIntervalMs) {
+            // another thread just loaded it
+            return statements;
+        }
+        final Map<String, RightsStatement> loaded = new HashMap<>();
+        try (PreparedStatement s = getConnection().prepareStatement(QUERY); ResultSet rs = s.executeQuery()) {
+            while (rs.next()) {
+                final RightsStatement statement = new RightsStatement(rs);
+                loaded.put(statement.getUri(), statement);
+            }
+        }
+        statements = Collections.unmodifiableMap(loaded);
+        loadedAt = System.currentTimeMillis();
+        return statements;
+    }
+
+    private synchronized RightsStatement lookUp(final String uri) throws SQLException {
+        try (PreparedStatement s = getConnection().prepareStatement(QUERY + " where uri=?")) {
+            s.setString(1, uri);
+            try (ResultSet rs = s.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                final RightsStatement statement = new RightsStatement(rs);
+                final Map<String, RightsStatement> updated = new HashMap<>(statements);
+                updated.put(uri, statement);
+                statements = Collections.unmodifiableMap(updated);
+                return statement;
+            }
+        }
+    }
+
+    private Connection getConnection() throws SQLException {
+        if (connection == null || !connection.isValid(5)) {
+            close();
+            connection = DriverManager.getConnection(connectionUrl);
+        }
+        return connection;
+    }
+
+    public synchronized void close() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // the connection is being discarded anyway
+            }
+            connection = null;
+        }
+    }
+
+    /**
+     * A row from the "use_rights" table.
+     */
+    public static class RightsStatement {
+
+        private final String name;
+
+        private final String uri;
+
+        private final String statement;
+
+        private final boolean commercialUse;
+
+        private final boolean educationalUse;
+
+        private final boolean modifications;
+
+        private RightsStatement(final ResultSet rs) throws SQLException {
+            name = rs.getString("name");
+            uri = rs.getString("uri");
+            statement = rs.getString("statement");
+            commercialUse = rs.getInt("commercial_use") == 1;
+            educationalUse = rs.getInt("educational_use") == 1;
+            modifications = rs.getInt("modifications") == 1;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getStatement() {
+            return statement;
+        }
+
+        public boolean isCommercialUsePermitted() {
+            return commercialUse;
+        }
+
+        public boolean isEducationalUsePermitted() {
+            return educationalUse;
+        }
+
+        public boolean areModificationsPermitted() {
+            return modifications;
+        }
+    }
+}
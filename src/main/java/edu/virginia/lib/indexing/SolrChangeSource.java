@@ -0,0 +1,31 @@
+package edu.virginia.lib.indexing;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Finds changes with a scan of the solr index maintained by ArchivesSpace (by user_mtime).  This
+ * takes only a few requests, but the index lags behind the database by however long ArchivesSpace
+ * takes to index a change.
+ */
+public class SolrChangeSource implements ChangeSource {
+
+    private final ArchivesSpaceSolr solr;
+
+    public SolrChangeSource(final String solrUrl) {
+        this.solr = new ArchivesSpaceSolr(solrUrl);
+    }
+
+    @Override
+    public ChangeSet findChanges(final Instant since) {
+        return solr.findChanges(getQuery(since));
+    }
+
+    static String getQuery(final Instant since) {
+        if (since == null) {
+            return "user_mtime:[* TO NOW]";
+        } else {
+            return "user_mtime:[" + since.truncatedTo(ChronoUnit.SECONDS) + " TO NOW]";
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package edu.virginia.lib.indexing;
+
+import org.apache.solr.common.SolrInputDocument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An in-memory solr document: an ordered list of (possibly repeated) fields.  This is what
+ * {@link ASpaceObject#buildSolrDoc} produces, so that the same document can be written as a
+ * v3 add-doc file, as solr JSON or sent directly to solr without being re-parsed.  Fields are
+ * kept in the order in which they were added so that serialized output is stable.
+ */
+public class SolrDoc {
+
+    private final List<Field> fields = new ArrayList<>();
+
+    /**
+     * Adds a value for the named field, after any values already present.
+     */
+    public void addField(final String name, final String value) {
+        if (value == null) {
+            throw new NullPointerException("No value for field " + name);
+        }
+        fields.add(new Field(name, value));
+    }
+
+    /**
+     * @return every field value in the order in which they were added.
+     */
+    public List<Field> getFields() {
+        return Collections.unmodifiableList(fields);
+    }
+
+    /**
+     * @return the names of the fields in the order in which each first appears.
+     */
+    public Set<String> getFieldNames() {
+        final Set<String> names = new LinkedHashSet<>();
+        for (Field f : fields) {
+            names.add(f.getName());
+        }
+        return names;
+    }
+
+    /**
+     * @return the values of the named field in order, or an empty list if it has none.
+     */
+    public List<String> getFieldValues(final String name) {
+        final List<String> values = new ArrayList<>();
+        for (Field f : fields) {
+            if (f.getName().equals(name)) {
+                values.add(f.getValue());
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the first value of the named field, or null if it has none.
+     */
+    public String getFirstValue(final String name) {
+        for (Field f : fields) {
+            if (f.getName().equals(name)) {
+                return f.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Converts this document into one that may be sent to solr with SolrJ.
+     */
+    public SolrInputDocument toSolrInputDocument() {
+        final SolrInputDocument doc = new SolrInputDocument();
+        for (Field f : fields) {
+            doc.addField(f.getName(), f.getValue());
+        }
+        return doc;
+    }
+
+    public static class Field {
+
+        private final String name;
+
+        private final String value;
+
+        private Field(final String name, final String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getValue() {
+            return value;
+        }
+    }
+}
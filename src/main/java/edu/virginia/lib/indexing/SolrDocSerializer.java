@@ -0,0 +1,22 @@
+package edu.virginia.lib.indexing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a {@link SolrDoc} in a form that solr (or a later stage of the indexing pipeline)
+ * can read.
+ */
+public interface SolrDocSerializer {
+
+    /**
+     * Writes the document to the stream, leaving the stream open.
+     */
+    void write(SolrDoc doc, OutputStream out) throws IOException;
+
+    /**
+     * @return the extension conventionally given to files in this format, such as ".xml".
+     */
+    String getFileExtension();
+
+}
@@ -0,0 +1,45 @@
+package edu.virginia.lib.indexing;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes a {@link SolrDoc} in solr's JSON update format, as an array holding the one document,
+ * which can be posted as-is to a solr "/update/json" (or "/update" with a JSON content type)
+ * handler.  Fields with one value are written as strings and repeated fields as arrays.
+ */
+public class SolrJsonSerializer implements SolrDocSerializer {
+
+    @Override
+    public void write(final SolrDoc doc, final OutputStream out) throws IOException {
+        final JsonObjectBuilder b = Json.createObjectBuilder();
+        for (String name : doc.getFieldNames()) {
+            final List<String> values = doc.getFieldValues(name);
+            if (values.size() == 1) {
+                b.add(name, values.get(0));
+            } else {
+                final JsonArrayBuilder a = Json.createArrayBuilder();
+                for (String value : values) {
+                    a.add(value);
+                }
+                b.add(name, a);
+            }
+        }
+        // JsonWriter.close() would otherwise close the caller's stream
+        final JsonWriter w = Json.createWriter(new CloseShieldOutputStream(out));
+        w.writeArray(Json.createArrayBuilder().add(b).build());
+        w.close();
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".json";
+    }
+}
@@ -0,0 +1,232 @@
+package edu.virginia.lib.indexing;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.solr.client.solrj.ResponseParser;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getInt;
+
+/**
+ * Streams generated solr documents to a solr core in batches, which wait in a bounded queue to
+ * be sent by a few background threads that each hold a connection open.  Rather than committing,
+ * each batch is sent with a "commitWithin" so that solr makes the documents visible within that
+ * time, coalescing the commits for the whole run.
+ *
+ * Updates are asynchronous: each document may be added with a key, and the keys of the documents
+ * in each batch that solr accepted are passed to the {@link Listener}, from one of the background
+ * threads.  Failures are counted (and logged) as they happen and reported by
+ * {@link #getStatistics()} once the stream has been closed.
+ */
+public class SolrUpdateStream implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SolrUpdateStream.class);
+
+    /**
+     * Notified of the documents that solr has accepted.
+     */
+    public interface Listener {
+        /**
+         * @param keys the keys with which the accepted documents were added
+         * @throws Exception if the documents can't be recorded as sent, in which case the batch
+         * is counted as failed
+         */
+        void sent(List<Object> keys) throws Exception;
+    }
+
+    private final String solrUrl;
+
+    private final HttpSolrServer solr;
+
+    private final ExecutorService senders;
+
+    /**
+     * Permits for the batches that are waiting to be sent or being sent.
+     */
+    private final Semaphore pending;
+
+    private final Listener listener;
+
+    private final int batchSize;
+
+    private final int commitWithinMs;
+
+    private List<SolrInputDocument> batch = new ArrayList<>();
+
+    private List<Object> keys = new ArrayList<>();
+
+    private final AtomicLong added = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    public SolrUpdateStream(final String solrUrl, final Properties config) {
+        this(solrUrl, config, null);
+    }
+
+    /**
+     * @param solrUrl the URL of the solr core, or of its "/update" handler
+     * @param config properties including the following optional values:
+     *   <ul>
+     *     <li>solrBatchSize: the number of documents sent per update request (default 100)</li>
+     *     <li>solrQueueSize: the number of batches that may wait to be sent before adding another
+     *     blocks (default 10)</li>
+     *     <li>solrThreads: the number of connections over which batches are sent (default 2)</li>
+     *     <li>solrCommitWithinMs: the time within which solr should make added documents
+     *     visible (default 60000)</li>
+     *   </ul>
+     * @param listener notified of the keys of the documents in each batch solr accepts, or null
+     */
+    public SolrUpdateStream(final String solrUrl, final Properties config, final Listener listener) {
+        this.solrUrl = solrUrl.replaceAll("/update/?$", "");
+        this.batchSize = getInt(config, "solrBatchSize", 100);
+        this.commitWithinMs = getInt(config, "solrCommitWithinMs", 60000);
+        this.listener = listener;
+        final int threads = getInt(config, "solrThreads", 2);
+        this.pending = new Semaphore(getInt(config, "solrQueueSize", 10) + threads);
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(threads, r -> {
+            final Thread t = new Thread(r, "solr-update-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.solr = new HttpSolrServer(this.solrUrl);
+        this.solr.setParser(new IgnoredResponseParser());
+    }
+
+    /**
+     * Adds a document, sending the current batch if it's full.  This blocks only when the
+     * queue of batches waiting to be sent is full.
+     */
+    public void add(final SolrDoc doc) throws IOException {
+        add(doc, null);
+    }
+
+    /**
+     * Adds a document with a key to be passed to the listener once solr has accepted it.
+     */
+    public synchronized void add(final SolrDoc doc, final Object key) throws IOException {
+        batch.add(doc.toSolrInputDocument());
+        keys.add(key);
+        added.incrementAndGet();
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<SolrInputDocument> docs = batch;
+        final List<Object> sentKeys = keys;
+        batch = new ArrayList<>();
+        keys = new ArrayList<>();
+        try {
+            pending.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to send documents to " + solrUrl);
+        }
+        batches.incrementAndGet();
+        senders.execute(() -> {
+            try {
+                final UpdateRequest request = new UpdateRequest();
+                request.add(docs);
+                request.setCommitWithin(commitWithinMs);
+                request.process(solr);
+                if (listener != null) {
+                    sentKeys.removeIf(k -> k == null);
+                    listener.sent(sentKeys);
+                }
+            } catch (Exception ex) {
+                errors.incrementAndGet();
+                LOGGER.error("Failed to send documents to " + solrUrl, ex);
+            } finally {
+                pending.release();
+            }
+        });
+    }
+
+    /**
+     * @return the number of update requests that have failed so far.
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    public String getStatistics() {
+        return "solr updates to " + solrUrl + ": " + added.get() + " documents in " + batches.get() + " batches, "
+                + errors.get() + " failed requests";
+    }
+
+    /**
+     * Sends any partial batch and waits for every queued batch to be sent.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            senders.shutdown();
+            try {
+                senders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for documents to be sent to " + solrUrl);
+            } finally {
+                solr.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Discards the body of each update response: only its status matters, and HttpSolrServer
+     * throws an exception for any status but 200.
+     */
+    private static class IgnoredResponseParser extends ResponseParser {
+
+        @Override
+        public String getWriterType() {
+            return "xml";
+        }
+
+        @Override
+        public NamedList<Object> processResponse(final InputStream body, final String encoding) {
+            try {
+                if (body != null) {
+                    IOUtils.copy(body, NullOutputStream.NULL_OUTPUT_STREAM);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return new NamedList<>();
+        }
+
+        @Override
+        public NamedList<Object> processResponse(final Reader reader) {
+            return new NamedList<>();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package edu.virginia.lib.indexing;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a {@link SolrDoc} as a solr (v3) XML "add" document, the format of the files
+ * produced by IndexRecords and consumed by IndexRecordsForV4.
+ */
+public class SolrXmlSerializer implements SolrDocSerializer {
+
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    @Override
+    public void write(final SolrDoc doc, final OutputStream out) throws IOException {
+        try {
+            XMLStreamWriter xmlOut = XML_OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+            xmlOut.writeStartDocument("UTF-8", "1.0");
+            xmlOut.writeCharacters("\n");
+            xmlOut.writeStartElement("add");
+            xmlOut.writeCharacters("  ");
+            xmlOut.writeStartElement("doc");
+            xmlOut.writeCharacters("\n");
+            for (SolrDoc.Field f : doc.getFields()) {
+                addField(xmlOut, f.getName(), f.getValue());
+            }
+            xmlOut.writeCharacters("  ");
+            xmlOut.writeEndElement(); // doc
+            xmlOut.writeCharacters("\n");
+            xmlOut.writeEndElement(); // add
+            xmlOut.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public String getFileExtension() {
+        return ".xml";
+    }
+
+    private static void addField(XMLStreamWriter w, final String name, final String value) throws XMLStreamException {
+        w.writeCharacters("    ");
+        w.writeStartElement("field");
+        w.writeAttribute("name", name);
+        w.writeCharacters(value);
+        w.writeEndElement();
+        w.writeCharacters("\n");
+    }
+}
@@ -0,0 +1,37 @@
+package edu.virginia.lib.indexing.helpers;
+
+import java.util.Properties;
+
+/**
+ * Static methods to read optional, typed values from the configuration properties.
+ * Missing or blank values fall back to the supplied default.
+ */
+public class ConfigHelper {
+
+    public static String getString(final Properties p, final String name, final String defaultValue) {
+        if (p == null) {
+            return defaultValue;
+        }
+        final String value = p.getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return value.trim();
+    }
+
+    public static int getInt(final Properties p, final String name, final int defaultValue) {
+        final String value = getString(p, name, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(final Properties p, final String name, final long defaultValue) {
+        final String value = getString(p, name, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(final Properties p, final String name, final boolean defaultValue) {
+        final String value = getString(p, name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+}
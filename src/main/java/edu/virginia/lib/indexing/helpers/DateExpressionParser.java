@@ -0,0 +1,125 @@
+package edu.virginia.lib.indexing.helpers;
+
+/**
+ * Extracts the range of years covered by a free-text ArchivesSpace date expression in a single
+ * pass over its characters, without regular expressions or substrings.  The common archival
+ * forms are understood:
+ * <ul>
+ *     <li>"1920", "circa 1920", "ca. 1920" and "approximately 1920" (qualifiers are ignored)</li>
+ *     <li>"1920-1930", "1920 - 1930" and "1920 to 1930"</li>
+ *     <li>"1920s" (the decade, 1920 to 1929)</li>
+ *     <li>"1850-1899, bulk 1870" or "1850-1899 (bulk 1870-1880)" (the bulk dates are ignored)</li>
+ *     <li>ISO 8601 dates such as "1920-05-12" (only the year is used)</li>
+ * </ul>
+ * The range runs from the earliest to the latest four-digit year in the expression (before any
+ * "bulk" dates).  Expressions without such a year (such as "undated") have no range.
+ */
+public class DateExpressionParser {
+
+    /**
+     * Gets the range of years in the given expression, or null if it contains no year.
+     */
+    public static YearRange parse(final CharSequence expression) {
+        int begin = Integer.MAX_VALUE;
+        int end = Integer.MIN_VALUE;
+        final int length = expression.length();
+        int i = 0;
+        while (i < length) {
+            final char c = expression.charAt(i);
+            if (c >= '0' && c <= '9') {
+                int value = 0;
+                int start = i;
+                while (i < length && expression.charAt(i) >= '0' && expression.charAt(i) <= '9') {
+                    if (i - start < 5) {
+                        value = value * 10 + (expression.charAt(i) - '0');
+                    }
+                    i ++;
+                }
+                if (i - start == 4) {
+                    int last = value;
+                    if (i < length && (expression.charAt(i) == 's' || expression.charAt(i) == 'S') && value % 10 == 0
+                            && (i + 1 == length || !Character.isLetter(expression.charAt(i + 1)))) {
+                        // a decade, such as "1920s"
+                        last = value + 9;
+                    }
+                    begin = Math.min(begin, value);
+                    end = Math.max(end, last);
+                }
+            } else if ((c == 'b' || c == 'B') && isWordAt(expression, i, "bulk")) {
+                break;
+            } else {
+                i ++;
+            }
+        }
+        return begin == Integer.MAX_VALUE ? null : new YearRange(begin, end);
+    }
+
+    /**
+     * Gets the year of an ISO 8601 date (such as "1920", "1920-05" or "1920-05-12"), or -1 if
+     * the string doesn't start with a four-digit year.
+     */
+    public static int parseIsoYear(final CharSequence date) {
+        if (date == null || date.length() < 4 || (date.length() > 4 && Character.isDigit(date.charAt(4)))) {
+            return -1;
+        }
+        int year = 0;
+        for (int i = 0; i < 4; i ++) {
+            final char c = date.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            year = year * 10 + (c - '0');
+        }
+        return year;
+    }
+
+    private static boolean isWordAt(final CharSequence s, final int index, final String word) {
+        if (index + word.length() > s.length() || (index > 0 && Character.isLetter(s.charAt(index - 1)))) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i ++) {
+            if (Character.toLowerCase(s.charAt(index + i)) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return index + word.length() == s.length() || !Character.isLetter(s.charAt(index + word.length()));
+    }
+
+    /**
+     * An inclusive range of years.
+     */
+    public static class YearRange {
+
+        private final int begin;
+
+        private final int end;
+
+        public YearRange(final int begin, final int end) {
+            this.begin = begin;
+            this.end = end;
+        }
+
+        public int getBegin() {
+            return begin;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof YearRange && ((YearRange) o).begin == begin && ((YearRange) o).end == end;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * begin + end;
+        }
+
+        @Override
+        public String toString() {
+            return begin + "-" + end;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package edu.virginia.lib.indexing.helpers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Static methods to compute digests used as cache keys and change detection fingerprints.
+ */
+public class DigestHelper {
+
+    /**
+     * Gets the SHA-1 digest of the UTF-8 encoding of the given value as lowercase hex.
+     */
+    public static String sha1Hex(final String value) {
+        try {
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new RuntimeException(e);
+        }
+    }
+
+}
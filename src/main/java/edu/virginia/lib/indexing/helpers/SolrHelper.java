@@ -1,5 +1,6 @@
 package edu.virginia.lib.indexing.helpers;
 
+import edu.virginia.lib.indexing.RefId;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ContentType;
@@ -8,6 +9,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BinaryResponseParser;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.apache.solr.client.solrj.impl.XMLResponseParser;
 import org.apache.solr.client.solrj.response.QueryResponse;
@@ -26,23 +28,52 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Static methods to interact with a Solr server's HTTP API.
  */
 public class SolrHelper {
 
+    private static final String CURSOR_START = "*";
+
+    /**
+     * Shared clients (which are thread-safe and pool their connections) for cursor scans.
+     */
+    private static final Map<String, HttpSolrServer> BINARY_SERVERS = new ConcurrentHashMap<>();
+
+    private static final ExecutorService PREFETCH = Executors.newCachedThreadPool(r -> {
+        final Thread t = new Thread(r, "solr-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
     public static Iterator<SolrDocument> getRecordsForQuery(String solrUrl, String query) throws SolrServerException {
+        return getRecordsForQuery(solrUrl, query, null, 100);
+    }
+
+    /**
+     * Gets an iterator over all the documents matching the given query, fetched in pages of
+     * the given size.  If fields is non-null, only those fields are returned.
+     */
+    public static Iterator<SolrDocument> getRecordsForQuery(String solrUrl, String query, String fields, final int rows) throws SolrServerException {
         SolrServer solr = new HttpSolrServer(solrUrl);
         ((HttpSolrServer) solr).setParser(new XMLResponseParser());
         int start = 0;
         final ModifiableSolrParams p = new ModifiableSolrParams();
         p.set("q", new String[] { query });
-        p.set("rows", 100);
+        if (fields != null) {
+            p.set("fl", fields);
+        }
+        p.set("rows", rows);
         p.set("start", start);
         return new Iterator<SolrDocument>() {
 
@@ -52,7 +83,7 @@ public class SolrHelper {
 
             public boolean hasNext() {
                 if (response == null || response.getResults().size() <= index) {
-                    p.set("rows", 100);
+                    p.set("rows", rows);
                     p.set("start", start);
                     try {
                         response = solr.query(p);
@@ -79,6 +110,80 @@ public class SolrHelper {
         };
     }
 
+    /**
+     * Gets an iterator over all the documents matching the given query (and filter query, which
+     * may be null) in a single pass.  Documents are sorted by id and paged with a cursor, which
+     * (unlike paging with start offsets) costs the same for every page however deep the scan gets.
+     * Only the given fields are returned, responses are in solr's binary (javabin) format and each
+     * page is requested in the background while the previous one is being consumed.
+     *
+     * Cursors require solr 4.7 or later on the server.
+     */
+    public static Iterator<SolrDocument> scanRecordsForQuery(final String solrUrl, final String query, final String filterQuery, final String fields, final int rows) {
+        final HttpSolrServer solr = BINARY_SERVERS.computeIfAbsent(solrUrl, url -> {
+            final HttpSolrServer server = new HttpSolrServer(url);
+            server.setParser(new BinaryResponseParser());
+            return server;
+        });
+        return new Iterator<SolrDocument>() {
+
+            String cursorMark = CURSOR_START;
+            CompletableFuture<QueryResponse> nextPage = fetch(CURSOR_START);
+            Iterator<SolrDocument> page = Collections.emptyIterator();
+
+            private CompletableFuture<QueryResponse> fetch(final String mark) {
+                final ModifiableSolrParams p = new ModifiableSolrParams();
+                p.set("q", query);
+                if (filterQuery != null) {
+                    p.set("fq", filterQuery);
+                }
+                p.set("fl", fields);
+                p.set("rows", rows);
+                p.set("sort", "id asc");
+                p.set("cursorMark", mark);
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return solr.query(p);
+                    } catch (SolrServerException e) {
+                        throw new CompletionException(e);
+                    }
+                }, PREFETCH);
+            }
+
+            public boolean hasNext() {
+                while (!page.hasNext() && nextPage != null) {
+                    final QueryResponse response;
+                    try {
+                        response = nextPage.join();
+                    } catch (CompletionException e) {
+                        throw new RuntimeException(e.getCause());
+                    }
+                    final String mark = (String) response.getResponse().get("nextCursorMark");
+                    if (mark == null) {
+                        throw new RuntimeException("The solr index at " + solrUrl + " doesn't support paging with a cursorMark.");
+                    }
+                    // the cursor stops advancing once every document has been returned
+                    nextPage = mark.equals(cursorMark) || response.getResults().isEmpty() ? null : fetch(mark);
+                    cursorMark = mark;
+                    page = response.getResults().iterator();
+                }
+                return page.hasNext();
+            }
+
+            public SolrDocument next() {
+                if (!hasNext()) {
+                    throw new IllegalStateException();
+                }
+                return page.next();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+    }
+
     public static void postFileToSolr(final String solrUrl, final File solrDoc, boolean commit) throws IOException {
         System.out.println("Writing doc to solr " + solrUrl + "...");
         try (CloseableHttpClient client = HttpClients.createDefault()) {
@@ -103,20 +208,23 @@ public class SolrHelper {
      * Gets a solr-ready identifier from the reference id for the resource.
      */
     public static String getIdFromRef(final String refId) {
-        final String id = refId.replace("/repositories/", "as:").replace("/accessions/", "a").replace("/resources/", "r");
-        if (!Pattern.compile("as:\\d+[ar]\\d+").matcher(id).matches()) {
-            throw new RuntimeException("refId " + refId + " maps to improper pid " + id);
+        final RefId ref = RefId.tryParse(refId);
+        if (ref == null || (ref.getType() != RefId.Type.ACCESSION && ref.getType() != RefId.Type.RESOURCE)) {
+            throw new RuntimeException("refId " + refId + " does not map to a proper pid");
         }
-        return id;
+        return ref.toSolrId();
     }
 
     public static String getRefIdForFile(final File solrFile) {
-        Matcher m = Pattern.compile("as:(\\d+)([ar])(\\d+)\\.xml").matcher(solrFile.getName());
-        if (m.matches()) {
-            return "/repositories/" + m.group(1) + (m.group(2).equals("r") ? "/resources/" : "/accessions/") + m.group(3);
-        } else{
-            throw new RuntimeException("Invalid filename: " + solrFile.getName());
+        final String name = solrFile.getName();
+        try {
+            if (name.endsWith(".xml")) {
+                return RefId.fromSolrId(name.substring(0, name.length() - 4)).getUri();
+            }
+        } catch (IllegalArgumentException e) {
+            // fall through
         }
+        throw new RuntimeException("Invalid filename: " + name);
     }
 
     public static boolean isUniqueVirgoId(final String id) {
@@ -5,6 +5,76 @@ import java.util.Comparator;
 public class StringNaturalCompare implements Comparator<String>
 {
 
+    /**
+     * The number of values reserved for the length prefix of a run of digits in a sort key.
+     */
+    private static final int RADIX = 256;
+
+    /**
+     * Marks the end of a run of digits containing a zero in a sort key.  Each zero in a run is
+     * compared by {@link #compareLeft}, in which a run at the very end of the string sorts before
+     * an otherwise equal one followed by anything (even whitespace), so there are two markers.
+     */
+    private static final char ZERO_RUN_END = 2;
+
+    private static final char ZERO_RUN_END_OF_STRING = 1;
+
+    /**
+     * Gets a key for the given string such that comparing the keys of two strings with
+     * {@link String#compareTo} orders them as {@link #compare} would, so that a list can be
+     * sorted by computing each key once rather than rescanning the strings for every comparison.
+     *
+     * In the key, whitespace is dropped (though it still ends a run of digits), other characters
+     * are upper-cased and those above '9' are shifted up past the values used for digit runs.
+     * A run of digits that starts with a zero is compared digit by digit, so it becomes '0' and
+     * the digits.  Any other run of digits is compared by length first, so it becomes a character
+     * encoding its length, followed by the digits.  A run containing a zero then gets a terminator
+     * that sorts below every digit.  (The keys differ from the comparator only for runs of more than 255 digits and for
+     * characters within 256 of the top of the char range.)
+     */
+    public static String getSortKey(final String s)
+    {
+        final StringBuilder key = new StringBuilder(s.length() + 4);
+        int i = 0;
+        while (i < s.length())
+        {
+            final char c = s.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                i ++;
+            }
+            else if (Character.isDigit(c))
+            {
+                int end = i;
+                while (end < s.length() && Character.isDigit(s.charAt(end)))
+                {
+                    end ++;
+                }
+                if (c == '0')
+                {
+                    key.append('0');
+                }
+                else
+                {
+                    key.append((char) ('0' + 1 + Math.min(end - i, RADIX - 1)));
+                }
+                key.append(s, i, end);
+                if (s.lastIndexOf('0', end - 1) >= i)
+                {
+                    key.append(end == s.length() ? ZERO_RUN_END_OF_STRING : ZERO_RUN_END);
+                }
+                i = end;
+            }
+            else
+            {
+                final char upper = Character.toUpperCase(c);
+                key.append(upper > '9' ? (char) Math.min(upper + RADIX, Character.MAX_VALUE) : upper);
+                i ++;
+            }
+        }
+        return key.toString();
+    }
+
     public int compare(String s1, String s2)
     {
         int result = strnatcmp0(s1, s2, true);
@@ -0,0 +1,197 @@
+package edu.virginia.lib.indexing.tools;
+
+import edu.virginia.lib.indexing.ChangePlanner;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getBoolean;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getLong;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getString;
+
+/**
+ * A long-running alternative to running {@link IndexRecords} from cron.  It polls for changes
+ * every "pollIntervalSeconds" through a single {@link IndexRecords}, so the ArchivesSpace session,
+ * the reference, disk and manifest caches and the stores stay warm between polls, as do the
+ * compiled V3-to-V4 transforms when "daemonIndexForV4" is set.  The refs found by each poll are
+ * held by an {@link UpdateDebouncer} until they've gone "debounceSeconds" without being found
+ * again (or have been held for "debounceMaxSeconds"), so a burst of edits to a record
+ * regenerates it once.
+ *
+ * Each poll looks for changes from "pollOverlapSeconds" before the previous poll, to allow for
+ * the lag of the ArchivesSpace solr index.  The time from which every held ref can be found again
+ * is kept in "daemonStateFile", and the released refs are journaled, so a restarted daemon
+ * resumes an interrupted run and then picks up where it left off.
+ *
+ * The records that fail to be regenerated are held again, to be retried once the quiet period
+ * has passed, and are carried over into the journal of the next run, so that they're retried
+ * even if the daemon is restarted first.
+ */
+public class IndexDaemon {
+
+    public static void main(String [] args) throws Exception {
+        Properties p = new Properties();
+        try (FileInputStream fis = new FileInputStream("config.properties")) {
+            p.load(fis);
+        }
+        new IndexDaemon(p).run();
+    }
+
+    private static final String POLLED_FROM = "polledFrom";
+
+    private final Properties p;
+
+    private final IndexRecords indexer;
+
+    private final long quietMillis;
+
+    private final UpdateDebouncer debouncer;
+
+    private final long pollIntervalMillis;
+
+    private final long overlapMillis;
+
+    private final File stateFile;
+
+    private final IndexRecordsForV4 v4;
+
+    public IndexDaemon(final Properties p) throws Exception {
+        this.p = p;
+        indexer = new IndexRecords(p);
+        pollIntervalMillis = getLong(p, "pollIntervalSeconds", 60) * 1000;
+        overlapMillis = getLong(p, "pollOverlapSeconds", 120) * 1000;
+        quietMillis = getLong(p, "debounceSeconds", 300) * 1000;
+        debouncer = new UpdateDebouncer(quietMillis, getLong(p, "debounceMaxSeconds", 3600) * 1000);
+        stateFile = new File(getString(p, "daemonStateFile", new File(p.getProperty("logOutputDir"), "index-daemon.properties").getPath()));
+        v4 = getBoolean(p, "daemonIndexForV4", false) ? new IndexRecordsForV4() : null;
+    }
+
+    /**
+     * Resumes the last run if it didn't finish, then polls until the process is stopped.
+     */
+    public void run() throws Exception {
+        final RunJournal resumed = RunJournal.resume(indexer.getJournalFile());
+        if (resumed != null) {
+            try (RunJournal journal = resumed) {
+                regenerate(journal, "Resuming the run started at " + journal.getStarted() + ", "
+                        + journal.getRemainingRefs().size() + " records remain to be regenerated.\n");
+            }
+        }
+        Instant polledFrom = readPolledFrom();
+        if (polledFrom == null) {
+            // the first poll finds the changes a cron run would
+            final int intervalInHours = Integer.valueOf(p.getProperty("interval"));
+            polledFrom = intervalInHours == -1 ? Instant.EPOCH : Instant.now().minus(intervalInHours, ChronoUnit.HOURS);
+        }
+        while (true) {
+            final long pollStart = System.currentTimeMillis();
+            try {
+                // polling from the epoch finds every record, as a cron run with an interval of -1 would
+                poll(polledFrom.equals(Instant.EPOCH) ? null : polledFrom.minusMillis(overlapMillis), pollStart);
+                polledFrom = Instant.ofEpochMilli(pollStart);
+                final Instant held = debouncer.getEarliestWindowStart();
+                writePolledFrom(held != null ? held.plusMillis(overlapMillis) : polledFrom);
+            } catch (Exception ex) {
+                System.err.println("Polling for changes failed, the changes will be found by the next poll.");
+                ex.printStackTrace();
+            }
+            Thread.sleep(Math.max(0, pollStart + pollIntervalMillis - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Finds the changes made since the given time (or every record if since is null), holds the
+     * refs to regenerate and regenerates those that have settled.
+     */
+    private void poll(final Instant since, final long pollStart) throws Exception {
+        final Instant windowStart = since == null ? Instant.EPOCH : since;
+        final StringWriter plan = new StringWriter();
+        final PrintWriter planWriter = new PrintWriter(plan);
+        indexer.validateCaches(planWriter);
+        final ChangePlanner.Plan planned = indexer.plan(since, planWriter);
+        debouncer.add(planned.getRefs(), planned.getRepositoryRefs(), planned.getRepositories(), windowStart, pollStart);
+        final UpdateDebouncer.Batch batch = debouncer.takeSettled(pollStart);
+        if (batch.getRefs().isEmpty()) {
+            // a repository change may have affected no records
+            indexer.commitRepositories(batch.getRepositories());
+            return;
+        }
+        planWriter.println(batch.getRefs().size() + " records have settled and will be regenerated, " + debouncer.size() + " are still changing.");
+
+        // the refs that the last run didn't complete are carried over
+        final Set<String> refs = new LinkedHashSet<>(batch.getRefs());
+        final Set<String> repositoryRefs = new LinkedHashSet<>(batch.getRepositoryRefs());
+        final int carriedOver = RunJournal.carryOver(indexer.getJournalFile(), refs, repositoryRefs);
+        if (carriedOver > 0) {
+            planWriter.println(carriedOver + " records that weren't regenerated by the last run will be retried.");
+        }
+        planWriter.flush();
+        try (RunJournal journal = indexer.startJournal(new Date(), refs, repositoryRefs, batch.getRepositories())) {
+            final IndexRecords.Result result = regenerate(journal, plan.toString());
+            // hold the records that failed, to be retried once the quiet period has passed (any
+            // failed solr request could have held any of them)
+            if (result.getSolrErrorCount() > 0) {
+                debouncer.add(refs, repositoryRefs, Collections.emptySet(), windowStart, pollStart);
+            } else if (!result.getErrorRefs().isEmpty()) {
+                debouncer.add(new LinkedHashSet<>(result.getErrorRefs()), repositoryRefs, Collections.emptySet(), windowStart, pollStart);
+            }
+        } catch (Exception ex) {
+            // hold the refs again, to be released by the next poll
+            debouncer.add(refs, repositoryRefs, batch.getRepositories(), windowStart, pollStart - quietMillis);
+            throw ex;
+        }
+    }
+
+    private IndexRecords.Result regenerate(final RunJournal journal, final String plan) throws Exception {
+        try (PrintWriter published = indexer.openReport(journal.getStarted())) {
+            final long start = System.currentTimeMillis();
+            published.println("Started at " + new Date());
+            published.print(plan);
+            final IndexRecords.Result result = indexer.regenerate(journal, published);
+            if (!result.getErrorRefs().isEmpty() || result.getSolrErrorCount() > 0) {
+                published.println("The records that weren't regenerated will be retried by a later run.");
+            }
+            indexer.printStatistics(published);
+            if (v4 != null && result.getReindexed() > 0) {
+                v4.index(p, start, published);
+            }
+            published.println("Completed at " + new Date());
+            published.println(((System.currentTimeMillis() - start) / 1000) + " seconds elapsed");
+            System.out.println(new Date() + ": " + result.getReindexed() + " records regenerated, " + result.getUnchanged() + " unchanged, "
+                    + result.getErrorRefs().size() + " errors, " + result.getSolrErrorCount() + " failed solr requests.");
+            return result;
+        }
+    }
+
+    private Instant readPolledFrom() throws IOException {
+        if (!stateFile.exists()) {
+            return null;
+        }
+        final Properties state = new Properties();
+        try (FileInputStream fis = new FileInputStream(stateFile)) {
+            state.load(fis);
+        }
+        final String polledFrom = state.getProperty(POLLED_FROM);
+        return polledFrom == null ? null : Instant.parse(polledFrom);
+    }
+
+    private void writePolledFrom(final Instant polledFrom) throws IOException {
+        final Properties state = new Properties();
+        state.setProperty(POLLED_FROM, polledFrom.toString());
+        stateFile.getAbsoluteFile().getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(stateFile)) {
+            state.store(out, "the time from which the next poll looks for changes");
+        }
+    }
+}
@@ -1,78 +1,109 @@
 package edu.virginia.lib.indexing.tools;
 
-import edu.virginia.lib.indexing.ASpaceCollection;
 import edu.virginia.lib.indexing.ASpaceObject;
 import edu.virginia.lib.indexing.ArchivesSpaceClient;
+import edu.virginia.lib.indexing.ChangePlanner;
+import edu.virginia.lib.indexing.ChangeSet;
+import edu.virginia.lib.indexing.ChangeSource;
+import edu.virginia.lib.indexing.DependencyTracker;
+import edu.virginia.lib.indexing.IiifManifestCache;
+import edu.virginia.lib.indexing.PersistentJsonCache;
+import edu.virginia.lib.indexing.RecordFingerprintStore;
+import edu.virginia.lib.indexing.RepositoryDigests;
+import edu.virginia.lib.indexing.RestChangeSource;
+import edu.virginia.lib.indexing.ReverseDependencyIndex;
+import edu.virginia.lib.indexing.RightsStatementProvider;
+import edu.virginia.lib.indexing.SolrChangeSource;
+import edu.virginia.lib.indexing.SolrDoc;
+import edu.virginia.lib.indexing.SolrUpdateStream;
 import edu.virginia.lib.indexing.helpers.SolrHelper;
-import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocument;
 import org.marc4j.MarcStreamWriter;
 import org.marc4j.MarcXmlWriter;
+import org.marc4j.marc.Record;
 
+import javax.xml.transform.stream.StreamResult;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getBoolean;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getInt;
+import static edu.virginia.lib.indexing.helpers.ConfigHelper.getString;
 
 /**
  * Created by md5wz on 1/12/18.
+ *
+ * Run as a program (typically from cron), regenerates the records that changed in the last
+ * "interval" hours, the refs given on the command line or, with "--resume", the rest of an
+ * interrupted run.  An instance holds the client, caches and stores that are shared by any
+ * number of runs, so that a long-running process (see {@link IndexDaemon}) keeps them warm.
  */
-public class IndexRecords {
+public class IndexRecords implements Closeable {
 
     public static void main(String [] args) throws Exception {
         Properties p = new Properties();
         try (FileInputStream fis = new FileInputStream("config.properties")) {
             p.load(fis);
         }
-        ArchivesSpaceClient c = new ArchivesSpaceClient(
-                p.getProperty("archivesSpaceUrl"),
-                p.getProperty("username"),
-                p.getProperty("password"));
 
-        final String host = p.getProperty("tracksysDbHost");
-        final String user = p.getProperty("tracksysDbUsername");
-        final String pass = p.getProperty("tracksysDbPassword");
+        // "--resume" continues the last run recorded in the journal if it didn't finish
+        final File journalFile = getJournalFile(p);
+        final boolean resume = args.length > 0 && args[0].equals("--resume");
+        final RunJournal resumed = resume ? RunJournal.resume(journalFile) : null;
+        if (resume && resumed == null) {
+            System.err.println("There is no unfinished run to resume in " + journalFile + ".");
+            System.exit(1);
+        }
+        final Date runDate = resumed != null ? resumed.getStarted() : new Date();
 
+        final IndexRecords indexer = new IndexRecords(p);
         final int intervalInHours = Integer.valueOf(p.getProperty("interval"));
 
-        final File output = new File(p.getProperty("indexOutputDir"));
-        final File marcOutput = new File(p.getProperty("marcOutputDir"));
-        final File marcXmlOutput = new File(p.getProperty("marcXmlOutputDir"));
-        final File logs = new File(p.getProperty("logOutputDir"));
-
-        final String solrUrl = p.getProperty("archivesSpaceSolrUrl");
-
-        final File report = new File(logs, new SimpleDateFormat("yyyy-MM-dd-").format(new Date()) + "updated.txt");
-        final PrintWriter published = new PrintWriter(new OutputStreamWriter(new FileOutputStream(report, true)));
+        final PrintWriter published = indexer.openReport(runDate);
 
         final long start = System.currentTimeMillis();
         published.println("Started at " + new Date());
 
-        int reindexed = 0;
-        List<String> errorRefs = new ArrayList<>();
+        indexer.validateCaches(published);
+
         final Set<String> refsToUpdate = new HashSet<>();
-        if (args.length == 0) {
-            List<String> repos = findUpdatedRepositories(solrUrl, intervalInHours);
-            for (String repoRef : repos) {
-                refsToUpdate.addAll(c.listAccessionIds(repoRef));
-                refsToUpdate.addAll(c.listResourceIds(repoRef));
-                published.println(refsToUpdate.size() + " contained accessions and resources will be updated because repository " + repoRef + " was updated.");
-            }
-            final Set<String> updatedRefs = findUpdatedRecordsToReindex(solrUrl, intervalInHours);
-            published.println(updatedRefs.size() + " accessions and resources had individual updates");
-            refsToUpdate.addAll(updatedRefs);
-            published.println(refsToUpdate.size() + " records to regenerate.");
+        final Set<String> repositoryRefs = new HashSet<>();
+        final Set<String> repositories = new HashSet<>();
+        if (resumed != null) {
+            published.println("Resuming the run started at " + runDate + ", " + resumed.getRemainingRefs().size() + " records remain to be regenerated.");
             published.flush();
+        } else if (args.length == 0) {
+            if (intervalInHours == -1) {
+                System.out.println("hours ago = -1  reindexing all items.");
+            }
+            final ChangePlanner.Plan plan = indexer.plan(intervalInHours == -1 ? null : Instant.now().minus(intervalInHours, ChronoUnit.HOURS), published);
+            refsToUpdate.addAll(plan.getRefs());
+            repositoryRefs.addAll(plan.getRepositoryRefs());
+            repositories.addAll(plan.getRepositories());
         } else {
             published.println("Reindexing items provided on the command line.");
             for (String arg : args) {
@@ -80,112 +111,596 @@ public class IndexRecords {
             }
         }
 
-        final File marcRecords = new File(marcOutput, new SimpleDateFormat("yyyy-MM-dd").format(new Date()) + "-updates.mrc");
-        MarcStreamWriter marcStream = new MarcStreamWriter(new FileOutputStream(marcRecords));
-        final File marcXmlRecords = new File(marcXmlOutput, new SimpleDateFormat("yyyy-MM-dd").format(new Date()) + "-updates.xml");
-        MarcXmlWriter xmlWriter = new MarcXmlWriter(new FileOutputStream(marcXmlRecords));
-        for (String ref : refsToUpdate) {
-            try {
-                ASpaceObject o = ASpaceObject.parseObject(c, ref);
-                o.generateSolrAddDoc(output, host, user, pass);
-                if (isSpecialCollections(ref)) {
-                    o.writeCirculationRecord(xmlWriter, marcStream);
-                }
-                published.println(ref + ": " + o.getId());
-                published.flush();
-                reindexed ++;
-            } catch (Throwable t) {
-                t.printStackTrace(published);
-                published.println(ref + ": skipped due to runtime error " + t.toString());
-                errorRefs.add(ref);
+        if (resumed == null) {
+            final int carriedOver = RunJournal.carryOver(journalFile, refsToUpdate, repositoryRefs);
+            if (carriedOver > 0) {
+                published.println(carriedOver + " records that weren't regenerated by the last run will be retried.");
             }
         }
-        marcStream.close();
-        xmlWriter.close();
+
+        final Result result;
+        try (RunJournal journal = resumed != null ? resumed : indexer.startJournal(runDate, refsToUpdate, repositoryRefs, repositories)) {
+            result = indexer.regenerate(journal, published);
+        }
+        if (!result.getErrorRefs().isEmpty() || result.getSolrErrorCount() > 0) {
+            published.println("The records that weren't regenerated can be retried with --resume.");
+        }
+        indexer.printStatistics(published);
+        indexer.close();
         published.println("Completed at " + new Date());
         final long elapsedSeconds = ((System.currentTimeMillis() - start) / 1000);
         published.println((elapsedSeconds / 60) + " minutes elapsed");
         published.close();
 
-        if (errorRefs.isEmpty()) {
-            System.out.println("Updated index and marc records for the " + reindexed + " resources/accessions in ArchivesSpace that changed in the last " + intervalInHours + " hours.");
+        if (result.getSolrErrorCount() > 0) {
+            System.err.println(result.getSolrErrorCount() + " requests to update solr failed.");
+            System.exit(1);
+        } else if (result.getErrorRefs().isEmpty()) {
+            System.out.println("Updated index and marc records for the " + result.getReindexed() + " resources/accessions in ArchivesSpace that changed in the last " + intervalInHours + " hours.");
         } else {
-            System.err.println(errorRefs.size() + " records resulted in errors, " + reindexed + " other index/marc records updated in responses to changes in the last " + intervalInHours + " hours.");
+            System.err.println(result.getErrorRefs().size() + " records resulted in errors, " + result.getReindexed() + " other index/marc records updated in responses to changes in the last " + intervalInHours + " hours.");
             System.exit(1);
         }
     }
 
-    private static boolean isSpecialCollections(String ref) {
-        return ref.startsWith("/repositories/3");
+    private final Properties p;
+
+    private final ArchivesSpaceClient c;
+
+    private final IiifManifestCache manifests;
+
+    private final String host;
+
+    private final String user;
+
+    private final String pass;
+
+    private final File output;
+
+    private final File marcOutput;
+
+    private final File marcXmlOutput;
+
+    private final File logs;
+
+    private final String solrUrl;
+
+    private final String indexOutput;
+
+    private final RecordFingerprintStore fingerprints;
+
+    private final ReverseDependencyIndex dependencyIndex;
+
+    private final RepositoryDigests repositoryDigests;
+
+    private final File journalFile;
+
+    private final ChangeSource changeSource;
+
+    private final ChangePlanner planner;
+
+    public IndexRecords(final Properties p) throws IOException {
+        this.p = p;
+        c = new ArchivesSpaceClient(
+                p.getProperty("archivesSpaceUrl"),
+                p.getProperty("username"),
+                p.getProperty("password"),
+                p);
+
+        manifests = new IiifManifestCache(p);
+        IiifManifestCache.setDefault(manifests);
+
+        RightsStatementProvider.configure(p);
+        host = p.getProperty("tracksysDbHost");
+        user = p.getProperty("tracksysDbUsername");
+        pass = p.getProperty("tracksysDbPassword");
+
+        output = new File(p.getProperty("indexOutputDir"));
+        marcOutput = new File(p.getProperty("marcOutputDir"));
+        marcXmlOutput = new File(p.getProperty("marcXmlOutputDir"));
+        logs = new File(p.getProperty("logOutputDir"));
+
+        solrUrl = p.getProperty("archivesSpaceSolrUrl");
+
+        // "files" (the default) writes an add doc per record to indexOutputDir, "solr" sends
+        // the documents straight to solrUrl and "both" does both.
+        indexOutput = getString(p, "indexOutput", "files");
+        if (!indexOutput.equals("files") && !indexOutput.equals("solr") && !indexOutput.equals("both")) {
+            throw new IllegalArgumentException("Unknown indexOutput: " + indexOutput);
+        }
+
+        // when configured, records queued only because their repository changed are skipped if
+        // neither they nor anything they depend on has changed since they were last generated
+        final String fingerprintDir = getString(p, "fingerprintDir", null);
+        fingerprints = fingerprintDir == null ? null : new RecordFingerprintStore(new File(fingerprintDir));
+
+        // when configured, the records that used each agent, subject, location, container, digital
+        // object, repository and manifest are indexed as they're generated, so that a change to one
+        // regenerates exactly those records
+        final String dependencyIndexFile = getString(p, "dependencyIndexFile", null);
+        dependencyIndex = dependencyIndexFile == null ? null : new ReverseDependencyIndex(new File(dependencyIndexFile));
+
+        // a change to a repository record only regenerates its records if it changes a field
+        // that appears in them
+        repositoryDigests = new RepositoryDigests(new File(getString(p, "repositoryDigestFile",
+                new File(logs, "repository-digests.properties").getPath())));
+
+        journalFile = getJournalFile(p);
+
+        changeSource = createChangeSource(p, c, solrUrl);
+        planner = new ChangePlanner(changeSource, c, dependencyIndex,
+                getBoolean(p, "revalidateManifests", false) ? manifests : null, repositoryDigests);
     }
 
-    final static String TYPES = "types";
+    private static File getJournalFile(final Properties p) {
+        return new File(getString(p, "journalFile", new File(p.getProperty("logOutputDir"), "index-run.journal").getPath()));
+    }
 
-    private static String getQuery(final int hoursAgo) {
-        if (hoursAgo == -1) {
-            System.out.println("hours ago = -1  reindexing all items.");
-            return "user_mtime:[* TO NOW]";
+    /**
+     * @return the file in which each run is journaled.
+     */
+    public File getJournalFile() {
+        return journalFile;
+    }
+
+    /**
+     * Opens the report for the day of the given run, to which lines are appended.
+     */
+    public PrintWriter openReport(final Date runDate) throws IOException {
+        final File report = new File(logs, new SimpleDateFormat("yyyy-MM-dd-").format(runDate) + "updated.txt");
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(report, true)));
+    }
+
+    /**
+     * Invalidates the entries in the persistent cache (if there is one) for records that have
+     * changed since it was last validated.
+     */
+    public void validateCaches(final PrintWriter published) throws IOException {
+        if (c.getDiskCache() != null) {
+            validateDiskCache(solrUrl, c.getDiskCache(), getInt(p, "diskCacheSolrLagSeconds", 600), published);
+        }
+    }
+
+    /**
+     * Plans the records to regenerate for the changes made since the given time (or every
+     * record if since is null).  Any changed record held in the in-memory reference cache is
+     * evicted first, so that the plan and the records generated from it see the changes.
+     */
+    public ChangePlanner.Plan plan(final Instant since, final PrintWriter published) throws IOException {
+        final ChangeSet changes = changeSource.findChanges(since);
+        for (String uri : changes.getRepositories()) {
+            c.getReferenceCache().invalidate(uri);
         }
-        else {
-            return "user_mtime:[NOW-" + hoursAgo + "HOUR TO NOW]";
+        for (String uri : changes.getDependencies()) {
+            c.getReferenceCache().invalidate(uri);
         }
+        return planner.plan(changes, since == null, published);
     }
 
-    // http://archivesspace01.lib.virginia.edu:8090/collection1/select?q=user_mtime:[NOW-100DAY%20TO%20NOW]&wt=xml&indent=true&facet=true&facet.field=types
-    // &fl=id,types,ancestors,linked_instance_uris,related_accession_uris,collection_uri_u_sstr
-    private static Set<String> findUpdatedRecordsToReindex(final String solrUrl, int hoursAgo) throws SolrServerException {
-        final Set<String> refIds = new HashSet<>();
-        Iterator<SolrDocument> updated = SolrHelper.getRecordsForQuery(solrUrl, getQuery(hoursAgo));
-        while (updated.hasNext()) {
-            SolrDocument d = updated.next();
-            if (hasFieldValue(d, TYPES, "resource")) {
-                // all directly updated resource records
-                refIds.add((String) d.getFirstValue("id"));
-                // add all affected related accessions (they might have to be hidden or something)
-                final Collection<Object> values = d.getFieldValues("related_accession_uris");
-                if (values != null) {
-                    for (Object ref : values) {
-                        refIds.add((String) ref);
-                    }
+    /**
+     * Starts the journal of a run that will regenerate the given refs.
+     *
+     * @param repositories the changed repositories for which every affected ref is among the
+     *                     given refs (or has already been journaled)
+     */
+    public RunJournal startJournal(final Date runDate, final Set<String> refs, final Set<String> repositoryRefs,
+                                   final Set<String> repositories) throws IOException {
+        final RunJournal journal = RunJournal.start(journalFile, runDate, refs, repositoryRefs);
+        // once the planned records are journaled, they'll be regenerated even if this run dies,
+        // so the repository changes they account for need not be seen again
+        commitRepositories(repositories);
+        return journal;
+    }
+
+    /**
+     * Records the new digests of the given changed repositories, every affected ref of which has
+     * been journaled, so that the changes aren't acted on again.
+     */
+    public void commitRepositories(final Set<String> repositories) throws IOException {
+        if (!repositories.isEmpty()) {
+            repositoryDigests.commit(repositories);
+            repositoryDigests.save();
+        }
+    }
+
+    /**
+     * Regenerates the refs remaining in the given journal, writing the index records, the
+     * circulation MARC records for the day of the run and the outcome of each ref to the report.
+     * The journal is marked finished if every ref was regenerated.
+     */
+    public Result regenerate(final RunJournal journal, final PrintWriter published) throws Exception {
+        final Date runDate = journal.getStarted();
+        final Set<String> repositoryRefs = journal.getRepositoryRefs();
+        final boolean writeFiles = !indexOutput.equals("solr");
+        // a ref sent to solr is only fingerprinted and journaled as completed once solr has
+        // accepted its batch, so that a failed batch is sent again when the run is resumed (and
+        // isn't mistaken for an unchanged record by a later run).  The MARC records written for
+        // the batch are synced to disk first, so that no journaled ref's record can be lost.
+        final AtomicReference<CirculationOutput> circulation = new AtomicReference<>();
+        final SolrUpdateStream solrUpdates = indexOutput.equals("files") ? null : new SolrUpdateStream(p.getProperty("solrUrl"), p, sent -> {
+            circulation.get().sync();
+            for (Object outcome : sent) {
+                completed((Outcome) outcome, journal);
+            }
+        });
+
+        final AtomicInteger reindexed = new AtomicInteger();
+        final AtomicInteger unchanged = new AtomicInteger();
+        final List<String> errorRefs = new ArrayList<>();
+
+        // MARC records are appended to the day's file (which may hold the records from an earlier
+        // attempt at this run), while MARC XML, which can't be appended to, is written to the
+        // next part file for the day.  The part file is only created once there's a circulation
+        // record to write, so a new part is only started when an earlier attempt wrote records.
+        final String datePrefix = new SimpleDateFormat("yyyy-MM-dd").format(runDate);
+        final File marcRecords = new File(marcOutput, datePrefix + "-updates.mrc");
+        truncateIncompleteMarcRecord(marcRecords);
+        circulation.set(new CirculationOutput(marcRecords, () -> getNextPartFile(marcXmlOutput, datePrefix + "-updates", ".xml")));
+        // refs are processed concurrently by the workers, while the MARC output and the report
+        // are written by the pipeline's single writer thread
+        final int workers = getInt(p, "indexWorkers", 1);
+        final RecordPipeline<String, Outcome> pipeline = new RecordPipeline<>(workers, getInt(p, "indexQueueSize", workers * 2), ref -> {
+            if (fingerprints != null && repositoryRefs.contains(ref) && fingerprints.isUnchanged(ref, c, manifests)) {
+                return Outcome.unchanged(ref);
+            }
+            final DependencyTracker dependencies = fingerprints == null && dependencyIndex == null ? null : new DependencyTracker();
+            final DependencyTracker previousTracker = c.setDependencyTracker(dependencies);
+            try {
+                ASpaceObject o = ASpaceObject.parseObject(c, ref);
+                final SolrDoc doc = o.buildSolrDoc(host, user, pass);
+                if (writeFiles) {
+                    o.writeSolrAddDoc(output, doc);
                 }
-            } else if (hasFieldValue(d, TYPES, "archival_object")) {
-                // plus all resource records that are ancestors of updated archival objects
-                for (Object a : d.getFieldValues("ancestors")) {
-                    String ancestor = (String) a;
-                    if (ASpaceCollection.isCorrectIdFormat(ancestor)) {
-                        refIds.add(ancestor);
-                    }
+                return Outcome.generated(ref, o.getId(), o.getLockVersion(), dependencies, doc,
+                        isSpecialCollections(ref) ? o.buildCirculationRecord() : null);
+            } catch (Throwable t) {
+                return Outcome.failed(ref, t);
+            } finally {
+                c.setDependencyTracker(previousTracker);
+            }
+        }, outcome -> {
+            if (outcome.error != null) {
+                outcome.error.printStackTrace(published);
+                published.println(outcome.ref + ": skipped due to runtime error " + outcome.error.toString());
+                errorRefs.add(outcome.ref);
+            } else if (outcome.id == null) {
+                published.println(outcome.ref + ": unchanged");
+                unchanged.incrementAndGet();
+                journal.completed(outcome.ref);
+            } else {
+                if (outcome.circulationRecord != null) {
+                    circulation.get().write(outcome.circulationRecord);
                 }
-            } else if (hasFieldValue(d, TYPES, "top_container")) {
-                // plus all records that may have an updated or added top_container (this may include accession records)
-                final Collection<Object> values = d.getFieldValues("collection_uri_u_sstr");
-                if (values != null) {
-                    for (Object ref : values) {
-                        refIds.add((String) ref);
-                    }
+                if (dependencyIndex != null) {
+                    dependencyIndex.update(outcome.ref, outcome.dependencies);
+                }
+                published.println(outcome.ref + ": " + outcome.id);
+                published.flush();
+                reindexed.incrementAndGet();
+                if (solrUpdates != null) {
+                    solrUpdates.add(outcome.doc, outcome);
+                } else {
+                    circulation.get().sync();
+                    completed(outcome, journal);
+                }
+            }
+        });
+        try {
+            pipeline.run(journal.getRemainingRefs());
+        } finally {
+            try {
+                if (solrUpdates != null) {
+                    solrUpdates.close();
                 }
+            } finally {
+                circulation.get().close();
             }
         }
-        return refIds;
+        if (fingerprints != null) {
+            published.println(unchanged + " records were skipped because they and their dependencies were unchanged.");
+            published.println(fingerprints.getStatistics());
+        }
+        if (dependencyIndex != null) {
+            dependencyIndex.save();
+            published.println(dependencyIndex.getStatistics());
+        }
+        if (solrUpdates != null) {
+            published.println(solrUpdates.getStatistics());
+        }
+        final long solrErrors = solrUpdates == null ? 0 : solrUpdates.getErrorCount();
+        if (errorRefs.isEmpty() && solrErrors == 0) {
+            journal.finished();
+        }
+        published.flush();
+        return new Result(reindexed.get(), unchanged.get(), errorRefs, solrErrors);
     }
 
-    private static List<String> findUpdatedRepositories(final String solrUrl, int hoursAgo) throws SolrServerException {
-        final List<String> refIds = new ArrayList<>();
-        Iterator<SolrDocument> updated = SolrHelper.getRecordsForQuery(solrUrl, getQuery(hoursAgo) + " AND " + TYPES + ":repository");
-        while (updated.hasNext()) {
-            SolrDocument d = updated.next();
-            refIds.add((String) d.getFirstValue("id"));
+    /**
+     * Records that every output of a generated record has been written: its fingerprint is
+     * stored and it's journaled as completed.
+     */
+    private void completed(final Outcome outcome, final RunJournal journal) throws IOException {
+        if (fingerprints != null) {
+            fingerprints.put(outcome.ref, outcome.lockVersion, outcome.dependencies);
         }
-        return refIds;
+        journal.completed(outcome.ref);
     }
 
-    private static boolean hasFieldValue(SolrDocument d, final String field, final String value) {
-        for (Object val : d.getFieldValues(field)) {
-            if (val instanceof String && val.equals(value)) {
-                return true;
+    /**
+     * Writes the statistics of the caches and connections shared by every run to the report.
+     */
+    public void printStatistics(final PrintWriter published) {
+        for (String line : c.getReferenceCache().getStatistics()) {
+            published.println(line);
+        }
+        if (c.getDiskCache() != null) {
+            published.println(c.getDiskCache().getStatistics());
+        }
+        published.println(c.getTransportStatistics());
+        published.println(manifests.getStatistics());
+    }
+
+    @Override
+    public void close() throws IOException {
+        RightsStatementProvider.closeAll();
+        manifests.close();
+        c.close();
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static class Result {
+
+        private final int reindexed;
+
+        private final int unchanged;
+
+        private final List<String> errorRefs;
+
+        private final long solrErrorCount;
+
+        private Result(final int reindexed, final int unchanged, final List<String> errorRefs, final long solrErrorCount) {
+            this.reindexed = reindexed;
+            this.unchanged = unchanged;
+            this.errorRefs = Collections.unmodifiableList(errorRefs);
+            this.solrErrorCount = solrErrorCount;
+        }
+
+        /**
+         * @return the number of records that were regenerated.
+         */
+        public int getReindexed() {
+            return reindexed;
+        }
+
+        /**
+         * @return the number of records that were skipped because they were unchanged.
+         */
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * @return the refs that couldn't be regenerated.
+         */
+        public List<String> getErrorRefs() {
+            return errorRefs;
+        }
+
+        /**
+         * @return the number of requests to update solr that failed.
+         */
+        public long getSolrErrorCount() {
+            return solrErrorCount;
+        }
+    }
+
+    /**
+     * What became of one ref, as handed from a worker to the writer.
+     */
+    private static class Outcome {
+
+        private final String ref;
+
+        private final String id;
+
+        private final int lockVersion;
+
+        private final DependencyTracker dependencies;
+
+        private final SolrDoc doc;
+
+        private final Record circulationRecord;
+
+        private final Throwable error;
+
+        private Outcome(final String ref, final String id, final int lockVersion, final DependencyTracker dependencies, final SolrDoc doc, final Record circulationRecord, final Throwable error) {
+            this.ref = ref;
+            this.id = id;
+            this.lockVersion = lockVersion;
+            this.dependencies = dependencies;
+            this.doc = doc;
+            this.circulationRecord = circulationRecord;
+            this.error = error;
+        }
+
+        private static Outcome generated(final String ref, final String id, final int lockVersion, final DependencyTracker dependencies, final SolrDoc doc, final Record circulationRecord) {
+            return new Outcome(ref, id, lockVersion, dependencies, doc, circulationRecord, null);
+        }
+
+        private static Outcome unchanged(final String ref) {
+            return new Outcome(ref, null, -1, null, null, null, null);
+        }
+
+        private static Outcome failed(final String ref, final Throwable error) {
+            return new Outcome(ref, null, -1, null, null, null, error);
+        }
+    }
+
+    /**
+     * The circulation MARC records written by a run: appended to a file of MARC records and
+     * written to a MARC XML part file that's only created once there's a record to write.
+     * Records are written by the pipeline's writer thread but synced to disk by whichever
+     * thread is about to journal them as completed.
+     */
+    private static class CirculationOutput implements Closeable {
+
+        private final FileOutputStream marcFile;
+
+        private final MarcStreamWriter marcWriter;
+
+        private final Supplier<File> xmlPartFile;
+
+        private FileOutputStream xmlFile;
+
+        private Writer xmlOut;
+
+        private MarcXmlWriter xmlWriter;
+
+        /**
+         * Whether records have been written since the output was last synced.
+         */
+        private boolean unsynced;
+
+        private CirculationOutput(final File marcRecords, final Supplier<File> xmlPartFile) throws IOException {
+            this.marcFile = new FileOutputStream(marcRecords, true);
+            this.marcWriter = new MarcStreamWriter(marcFile);
+            this.xmlPartFile = xmlPartFile;
+        }
+
+        public synchronized void write(final Record record) throws IOException {
+            marcWriter.write(record);
+            if (xmlWriter == null) {
+                xmlFile = new FileOutputStream(xmlPartFile.get());
+                xmlOut = new BufferedWriter(new OutputStreamWriter(xmlFile, StandardCharsets.UTF_8));
+                // given a Result rather than a stream, the MarcXmlWriter writes through our own
+                // writer, which can be flushed
+                xmlWriter = new MarcXmlWriter(new StreamResult(xmlOut));
+            }
+            xmlWriter.write(record);
+            unsynced = true;
+        }
+
+        /**
+         * Flushes the records written so far and forces them to disk.
+         */
+        public synchronized void sync() throws IOException {
+            if (!unsynced) {
+                return;
+            }
+            marcFile.getFD().sync();
+            if (xmlWriter != null) {
+                xmlOut.flush();
+                xmlFile.getFD().sync();
+            }
+            unsynced = false;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                marcWriter.close();
+            } finally {
+                if (xmlWriter != null) {
+                    xmlWriter.close();
+                    xmlOut.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes a partially written record from the end of a file of MARC records (left there if
+     * a previous run died while writing it), so that more records may be appended.
+     */
+    private static void truncateIncompleteMarcRecord(final File marcFile) throws IOException {
+        if (!marcFile.exists()) {
+            return;
+        }
+        try (RandomAccessFile f = new RandomAccessFile(marcFile, "rw")) {
+            long end = f.length();
+            while (end > 0) {
+                f.seek(end - 1);
+                if (f.read() == RECORD_TERMINATOR) {
+                    break;
+                }
+                end --;
+            }
+            if (end < f.length()) {
+                f.setLength(end);
+            }
+        }
+    }
+
+    /**
+     * Gets the first of "{prefix}{suffix}", "{prefix}-2{suffix}", "{prefix}-3{suffix}"... that
+     * doesn't already exist in the given directory.
+     */
+    private static File getNextPartFile(final File dir, final String prefix, final String suffix) {
+        File f = new File(dir, prefix + suffix);
+        for (int part = 2; f.exists(); part ++) {
+            f = new File(dir, prefix + "-" + part + suffix);
+        }
+        return f;
+    }
+
+    private static boolean isSpecialCollections(String ref) {
+        return ref.startsWith("/repositories/3");
+    }
+
+    private static final int RECORD_TERMINATOR = 0x1D;
+
+    /**
+     * Creates the configured source of changes: "solr" (the default) scans the ArchivesSpace
+     * solr index while "rest" pages through the modified records with the REST API.
+     */
+    private static ChangeSource createChangeSource(final Properties p, final ArchivesSpaceClient c, final String solrUrl) {
+        final String changeSource = getString(p, "changeSource", "solr");
+        if (changeSource.equals("solr")) {
+            return new SolrChangeSource(solrUrl);
+        } else if (changeSource.equals("rest")) {
+            return new RestChangeSource(c);
+        }
+        throw new IllegalArgumentException("Unknown changeSource: " + changeSource);
+    }
+
+    /**
+     * Invalidates every entry in the persistent cache for a record whose system_mtime (according
+     * to the ArchivesSpace solr index) is later than the last time the cache was validated, less
+     * the given allowance for indexing lag, along with the cached trees of all of its ancestors.
+     * The remaining entries are then trusted for this run.  If there's no record of a previous
+     * validation, the cache is cleared.
+     */
+    public static void validateDiskCache(final String solrUrl, final PersistentJsonCache cache, final int lagSeconds, final PrintWriter published) throws IOException {
+        final long scanStart = System.currentTimeMillis();
+        final long validThrough = cache.getValidThrough();
+        if (validThrough == -1) {
+            cache.clear();
+            published.println("Disk cache has no validation record, so it was cleared.");
+        } else {
+            cache.markUnvalidated();
+            final String since = Instant.ofEpochMilli(validThrough - (lagSeconds * 1000L)).toString();
+            int invalidated = 0;
+            Iterator<SolrDocument> updated = SolrHelper.scanRecordsForQuery(solrUrl, "system_mtime:[" + since + " TO *]", null, "id,ancestors", 1000);
+            while (updated.hasNext()) {
+                SolrDocument d = updated.next();
+                String id = (String) d.getFirstValue("id");
+                if (id.contains("#")) {
+                    id = id.substring(0, id.indexOf('#'));
+                }
+                cache.invalidate(id);
+                final Collection<Object> ancestors = d.getFieldValues("ancestors");
+                if (ancestors != null) {
+                    for (Object a : ancestors) {
+                        cache.invalidateTree((String) a);
+                    }
+                }
+                invalidated ++;
             }
+            published.println(invalidated + " disk cache entries invalidated by changes since " + since + ".");
         }
-        return false;
+        cache.markValidThrough(scanStart);
     }
 
 }
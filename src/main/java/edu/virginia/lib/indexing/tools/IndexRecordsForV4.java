@@ -26,13 +26,11 @@ import com.amazonaws.services.s3.transfer.Upload;
 public class IndexRecordsForV4 {
 
     public static void main(String [] args) throws Exception {
-        Date now = new Date();
         Properties p = new Properties();
         try (FileInputStream fis = new FileInputStream(args.length == 0 ? "config.properties" : args[0])) {
             p.load(fis);
         }
        
-        final File output = new File(p.getProperty("indexOutputDir"));
         final File logs = new File(p.getProperty("logOutputDir"));
         logs.mkdirs();
 
@@ -41,6 +39,29 @@ public class IndexRecordsForV4 {
 
         IndexRecordsForV4 indexer = new IndexRecordsForV4();
                 
+        long since = -1;
+        if (p.getProperty("interval") != null) {
+            since = System.currentTimeMillis() - (60*60*1000*Integer.parseInt(p.getProperty("interval")));
+        }
+        
+        try {
+            indexer.index(p, since, pw);
+        } catch (Throwable t) {
+            t.printStackTrace(pw);
+            System.err.println("Error transmitting index updates to S3!");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Transforms the V3 solr add documents in the index output directory that were modified
+     * after the given time (or every document from a source whose transform has changed) into
+     * V4 documents and sends them to S3.  The compiled transforms are reused by every call.
+     */
+    public void index(final Properties p, final long since, final PrintWriter pw) throws Exception {
+        final Date now = new Date();
+        final File output = new File(p.getProperty("indexOutputDir"));
+
         // check to determine if the transform has changed
         Properties transformHashes = new Properties();
         File cachedHashes = new File("cached-transform-hashes-" + p.getProperty("bucketName") + ".properties");
@@ -52,22 +73,17 @@ public class IndexRecordsForV4 {
                 fis.close();
             }
         }
-        boolean reindexAllAvalon = !indexer.getAvalonTransformHash().equals(transformHashes.get("avalon"));
-        transformHashes.put("avalon", indexer.getAvalonTransformHash());
+        boolean reindexAllAvalon = !getAvalonTransformHash().equals(transformHashes.get("avalon"));
+        transformHashes.put("avalon", getAvalonTransformHash());
         if (reindexAllAvalon) {
             System.out.println("Reindexing all avalon records because the transform has changed.");
         }
-        boolean reindexAllASpace = !indexer.getASpaceTransformHash().equals(transformHashes.get("aspace"));
-        transformHashes.put("aspace", indexer.getASpaceTransformHash());
+        boolean reindexAllASpace = !getASpaceTransformHash().equals(transformHashes.get("aspace"));
+        transformHashes.put("aspace", getASpaceTransformHash());
         if (reindexAllASpace) {
             System.out.println("Reindexing all aspace records because the transform has changed.");
         }
         
-        long since = -1;
-        if (p.getProperty("interval") != null) {
-            since = System.currentTimeMillis() - (60*60*1000*Integer.parseInt(p.getProperty("interval")));
-        }
-        
         File aspaceDoc = File.createTempFile("aspace", "index-for-v4-pipeline.xml");
         File avalonDoc = File.createTempFile("avalon", "index-for-v4-pipeline.xml");
         
@@ -81,10 +97,10 @@ public class IndexRecordsForV4 {
             // transform and concatenate them into a single document
             try {
                 if (IndexRecordsForV4.isASpaceRecord(f) && (reindexAllASpace || f.lastModified() > since)) {
-                    aspacePw.print(indexer.getV4DocFromV3Doc(f));
+                    aspacePw.print(getV4DocFromV3Doc(f));
                     aspaceSize ++;
                 } else if (!IndexRecordsForV4.isASpaceRecord(f) && (reindexAllAvalon || f.lastModified() > since)) {
-                    avalonPw.print(indexer.getV4DocFromV3Doc(f));;
+                    avalonPw.print(getV4DocFromV3Doc(f));;
                     avalonSize ++;
                 }
             } catch (Exception ex) {
@@ -98,37 +114,31 @@ public class IndexRecordsForV4 {
         avalonPw.flush();
         avalonPw.close();
         
+        // send it to S3
+        DateFormat YYYY = new SimpleDateFormat("YYYY");
+        DateFormat SECOND = new SimpleDateFormat("yyyy-MM-dd_HHmm");
+        if (aspaceSize > 0) {
+            transferFileToS3(pw, aspaceDoc, p.getProperty("bucketName"), p.getProperty("bucketPath") + YYYY.format(now) + "/aspace/" + SECOND.format(now) + ".xml"); 
+        } else {
+            pw.println("No aspace records modified in previous " + p.getProperty("interval") + " hours.");
+        }
+        if (avalonSize > 0) {
+            transferFileToS3(pw, avalonDoc, p.getProperty("bucketName"), p.getProperty("bucketPath") + YYYY.format(now) + "/avalon/" + SECOND.format(now) + ".xml"); 
+        } else {
+            pw.println("No avalon records modified in previous " + p.getProperty("interval") + " hours.");
+        }
+        
+        // now that the transform is done, write out the hashes of the transform that were applied
+        FileOutputStream out = new FileOutputStream(cachedHashes);
         try {
-            // send it to S3
-            DateFormat YYYY = new SimpleDateFormat("YYYY");
-            DateFormat SECOND = new SimpleDateFormat("yyyy-MM-dd_HHmm");
-            if (aspaceSize > 0) {
-                transferFileToS3(pw, aspaceDoc, p.getProperty("bucketName"), p.getProperty("bucketPath") + YYYY.format(now) + "/aspace/" + SECOND.format(now) + ".xml"); 
-            } else {
-                pw.println("No aspace records modified in previous " + p.getProperty("interval") + " hours.");
-            }
-            if (avalonSize > 0) {
-                transferFileToS3(pw, avalonDoc, p.getProperty("bucketName"), p.getProperty("bucketPath") + YYYY.format(now) + "/avalon/" + SECOND.format(now) + ".xml"); 
-            } else {
-                pw.println("No avalon records modified in previous " + p.getProperty("interval") + " hours.");
-            }
-            
-            // now that the transform is done, write out the hashes of the transform that were applied
-            FileOutputStream out = new FileOutputStream(cachedHashes);
-            try {
-                transformHashes.store(out, "updated after successful transformation on " + new Date() + ".");
-                System.out.println("Saved transform hashes to " + cachedHashes + ".");
-                transformHashes.store(System.out, null);
-            } finally {
-                out.flush();
-                out.close();
-            }
-            
-        } catch (Throwable t) {
-            t.printStackTrace(pw);
-            System.err.println("Error transmitting index updates to S3!");
-            System.exit(1);
+            transformHashes.store(out, "updated after successful transformation on " + new Date() + ".");
+            System.out.println("Saved transform hashes to " + cachedHashes + ".");
+            transformHashes.store(System.out, null);
+        } finally {
+            out.flush();
+            out.close();
         }
+        
         System.out.println(aspaceSize + " aspace records sent to S3, " + avalonSize + " avalon records sent to S3.");
     }
 
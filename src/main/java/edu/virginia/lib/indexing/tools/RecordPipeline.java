@@ -0,0 +1,143 @@
+package edu.virginia.lib.indexing.tools;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A staged pipeline in which the calling thread feeds items into a bounded queue, a fixed number
+ * of worker threads each take an item from the queue and process it, and a single writer thread
+ * takes the results (from a second bounded queue) and writes them.  Work that is dominated by
+ * network latency is done concurrently while output that isn't thread-safe is written by one
+ * thread, and because both queues are bounded, a slow stage holds back the stages that feed it
+ * rather than letting items or results accumulate in memory.
+ *
+ * Workers are expected to handle the failure of an individual item themselves (typically by
+ * returning a result that describes the failure).  A worker may return null when there's
+ * nothing to write for an item.  An exception (or error) thrown by a worker or by the
+ * writer stops the pipeline and is rethrown by {@link #run}.
+ */
+public class RecordPipeline<T, R> {
+
+    public interface Worker<T, R> {
+        R process(T item) throws Exception;
+    }
+
+    public interface Writer<R> {
+        void write(R result) throws Exception;
+    }
+
+    private static final Object END = new Object();
+
+    private final int workers;
+
+    private final int queueSize;
+
+    private final Worker<T, R> worker;
+
+    private final Writer<R> writer;
+
+    /**
+     * @param workers the number of threads that process items
+     * @param queueSize the number of items (and results) that may wait for the next stage
+     * @param worker processes each item, from any of the worker threads
+     * @param writer writes each result, always from the same thread
+     */
+    public RecordPipeline(final int workers, final int queueSize, final Worker<T, R> worker, final Writer<R> writer) {
+        if (workers < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("A pipeline needs at least one worker and a queue of at least one item.");
+        }
+        this.workers = workers;
+        this.queueSize = queueSize;
+        this.worker = worker;
+        this.writer = writer;
+    }
+
+    /**
+     * Processes and writes every item, returning once every result has been written.
+     */
+    public void run(final Iterable<T> items) throws Exception {
+        final BlockingQueue<Object> input = new ArrayBlockingQueue<>(queueSize);
+        final BlockingQueue<Object> output = new ArrayBlockingQueue<>(queueSize);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        final List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < workers; i ++) {
+            final Thread t = new Thread(() -> {
+                try {
+                    for (Object item = input.take(); item != END; item = input.take()) {
+                        // after a failure the remaining items are drained without being processed
+                        if (failure.get() == null) {
+                            try {
+                                @SuppressWarnings("unchecked")
+                                final R result = worker.process((T) item);
+                                if (result != null) {
+                                    output.put(result);
+                                }
+                            } catch (InterruptedException e) {
+                                throw e;
+                            } catch (Throwable e) {
+                                // an error must not end the thread, or the queues would never drain
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "index-worker-" + (i + 1));
+            t.setDaemon(true);
+            workerThreads.add(t);
+        }
+        final Thread writerThread = new Thread(() -> {
+            try {
+                for (Object result = output.take(); result != END; result = output.take()) {
+                    // after a failure the remaining results are drained without being written
+                    if (failure.get() == null) {
+                        try {
+                            @SuppressWarnings("unchecked")
+                            final R r = (R) result;
+                            writer.write(r);
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "index-writer");
+        writerThread.setDaemon(true);
+
+        workerThreads.forEach(Thread::start);
+        writerThread.start();
+        try {
+            final Iterator<T> it = items.iterator();
+            while (it.hasNext() && failure.get() == null) {
+                input.put(it.next());
+            }
+            for (int i = 0; i < workers; i ++) {
+                input.put(END);
+            }
+            for (Thread t : workerThreads) {
+                t.join();
+            }
+            output.put(END);
+            writerThread.join();
+        } finally {
+            workerThreads.forEach(Thread::interrupt);
+            writerThread.interrupt();
+        }
+        final Throwable t = failure.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new RuntimeException(t);
+        }
+    }
+}
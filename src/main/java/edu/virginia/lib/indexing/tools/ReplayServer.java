@@ -0,0 +1,127 @@
+package edu.virginia.lib.indexing.tools;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.virginia.lib.indexing.FixtureBundle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local stand-in for the ArchivesSpace REST API that replays the responses recorded in a
+ * {@link FixtureBundle} (see the "recordDir" property of ArchivesSpaceClient), so that indexing
+ * can be run, benchmarked and regression tested without network access.  A fixed latency (plus
+ * up to the same amount again of random jitter) is added to every response, and a configurable
+ * fraction of responses can be replaced with 503 (server unavailable) or 412 (session expired)
+ * errors to exercise the client's retry handling.  Any login succeeds.
+ *
+ * Usage: ReplayServer bundleDir [port] [latencyMs] [errorRate] [sessionExpiryRate]
+ */
+public class ReplayServer {
+
+    public static void main(String [] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: ReplayServer bundleDir [port] [latencyMs] [errorRate] [sessionExpiryRate]");
+            System.exit(1);
+        }
+        final ReplayServer server = new ReplayServer(new FixtureBundle(new File(args[0])),
+                args.length > 1 ? Integer.parseInt(args[1]) : 8089,
+                args.length > 2 ? Long.parseLong(args[2]) : 0,
+                args.length > 3 ? Double.parseDouble(args[3]) : 0,
+                args.length > 4 ? Double.parseDouble(args[4]) : 0);
+        server.start();
+        System.out.println("Replaying " + args[0] + " at " + server.getUrl() + " (set archivesSpaceUrl to this value)");
+    }
+
+    private final FixtureBundle bundle;
+
+    private final long latencyMs;
+
+    private final double errorRate;
+
+    private final double sessionExpiryRate;
+
+    private final Random random = new Random();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    /**
+     * @param port the port to listen on, or 0 to pick any free port
+     */
+    public ReplayServer(final FixtureBundle bundle, final int port, final long latencyMs, final double errorRate, final double sessionExpiryRate) throws IOException {
+        this.bundle = bundle;
+        this.latencyMs = latencyMs;
+        this.errorRate = errorRate;
+        this.sessionExpiryRate = sessionExpiryRate;
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets the base URL of the API, suitable for the "archivesSpaceUrl" property.
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs + (long) (random.nextDouble() * latencyMs));
+            }
+            final String path = exchange.getRequestURI().getRawPath();
+            final String query = exchange.getRequestURI().getRawQuery();
+            if (exchange.getRequestMethod().equals("POST") && path.endsWith("/login")) {
+                respond(exchange, 200, "{\"session\":\"replay\"}");
+                return;
+            }
+            final double roll = random.nextDouble();
+            if (roll < errorRate) {
+                respond(exchange, 503, "{\"error\":\"injected error\"}");
+                return;
+            } else if (roll < errorRate + sessionExpiryRate) {
+                respond(exchange, 412, "{\"error\":{\"session\":[\"SESSION_GONE\"]}}");
+                return;
+            }
+            final String body = bundle.getRaw(query == null ? path : path + "?" + query);
+            if (body == null) {
+                respond(exchange, 404, "{\"error\":\"not recorded\"}");
+            } else {
+                respond(exchange, 200, body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+}
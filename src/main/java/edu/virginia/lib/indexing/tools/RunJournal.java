@@ -0,0 +1,208 @@
+package edu.virginia.lib.indexing.tools;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A durable, append-only record of an indexing run: when it started, every ref it planned to
+ * regenerate (and whether each was queued only because its repository changed), each ref as it's
+ * completed and finally that the run finished.  If a run dies partway, the journal has everything
+ * needed to continue it with the refs that weren't completed.
+ *
+ * The journal is a text file with one tab-separated entry per line:
+ * <pre>
+ * started    {millis}
+ * planned    {ref}    {repository|updated}
+ * planned-all
+ * completed  {ref}
+ * finished   {millis}
+ * </pre>
+ * Each completed ref is forced to disk as it's written, as is the end of the plan.
+ */
+public class RunJournal implements Closeable {
+
+    private static final String STARTED = "started";
+
+    private static final String PLANNED = "planned";
+
+    private static final String PLANNED_ALL = "planned-all";
+
+    private static final String COMPLETED = "completed";
+
+    private static final String FINISHED = "finished";
+
+    private final Date started;
+
+    private final Set<String> remainingRefs;
+
+    private final Set<String> repositoryRefs;
+
+    private final FileOutputStream out;
+
+    private final Writer writer;
+
+    /**
+     * Starts a new journal (replacing any previous one in the given file) for a run that will
+     * regenerate the given refs.
+     *
+     * @param repositoryRefs the subset of refs that were queued only because their repository
+     *                       changed
+     */
+    public static RunJournal start(final File file, final Date started, final Set<String> refs, final Set<String> repositoryRefs) throws IOException {
+        final RunJournal journal = new RunJournal(file, false, started, refs, repositoryRefs);
+        journal.append(STARTED + "\t" + started.getTime(), false);
+        for (String ref : refs) {
+            journal.append(PLANNED + "\t" + ref + "\t" + (repositoryRefs.contains(ref) ? "repository" : "updated"), false);
+        }
+        journal.append(PLANNED_ALL, true);
+        return journal;
+    }
+
+    /**
+     * Adds the refs that an unfinished run in the given file didn't complete to those of the
+     * next run, which would otherwise lose them when its journal replaces the old one.
+     *
+     * @return the number of refs that were added
+     */
+    public static int carryOver(final File file, final Set<String> refs, final Set<String> repositoryRefs) throws IOException {
+        final RunJournal unfinished = resume(file);
+        if (unfinished == null) {
+            return 0;
+        }
+        int added = 0;
+        try (RunJournal journal = unfinished) {
+            for (String ref : journal.getRemainingRefs()) {
+                if (refs.add(ref)) {
+                    added ++;
+                    if (journal.getRepositoryRefs().contains(ref)) {
+                        repositoryRefs.add(ref);
+                    }
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Reopens the journal of an unfinished run in order to continue it.
+     *
+     * @return the journal, or null if the file doesn't record a run that was planned in full
+     * and not finished
+     */
+    public static RunJournal resume(final File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        Date started = null;
+        boolean plannedAll = false;
+        final Set<String> refs = new LinkedHashSet<>();
+        final Set<String> repositoryRefs = new LinkedHashSet<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                final String[] entry = line.split("\t");
+                switch (entry[0]) {
+                    case STARTED:
+                        started = new Date(Long.parseLong(entry[1]));
+                        break;
+                    case PLANNED:
+                        refs.add(entry[1]);
+                        if (entry.length > 2 && entry[2].equals("repository")) {
+                            repositoryRefs.add(entry[1]);
+                        }
+                        break;
+                    case PLANNED_ALL:
+                        plannedAll = true;
+                        break;
+                    case COMPLETED:
+                        refs.remove(entry[1]);
+                        break;
+                    case FINISHED:
+                        return null;
+                    default:
+                        // a line cut short when the run died
+                }
+            }
+        }
+        if (started == null || !plannedAll) {
+            return null;
+        }
+        repositoryRefs.retainAll(refs);
+        return new RunJournal(file, true, started, refs, repositoryRefs);
+    }
+
+    private RunJournal(final File file, final boolean append, final Date started, final Set<String> remainingRefs, final Set<String> repositoryRefs) throws IOException {
+        this.started = started;
+        this.remainingRefs = Collections.unmodifiableSet(new LinkedHashSet<>(remainingRefs));
+        this.repositoryRefs = Collections.unmodifiableSet(new LinkedHashSet<>(repositoryRefs));
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        this.out = new FileOutputStream(file, append);
+        this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        if (append && file.length() > 0) {
+            // end any line that was cut short
+            append("", true);
+        }
+    }
+
+    /**
+     * @return the time the run started, from which the names of its output files are derived.
+     */
+    public Date getStarted() {
+        return started;
+    }
+
+    /**
+     * @return the planned refs that haven't been completed.
+     */
+    public Set<String> getRemainingRefs() {
+        return remainingRefs;
+    }
+
+    /**
+     * @return the remaining refs that were queued only because their repository changed.
+     */
+    public Set<String> getRepositoryRefs() {
+        return repositoryRefs;
+    }
+
+    /**
+     * Records that a ref has been completed, so that it won't be regenerated if the run is
+     * resumed.  This should be called only after all of the ref's output has been written.
+     */
+    public synchronized void completed(final String ref) throws IOException {
+        append(COMPLETED + "\t" + ref, true);
+    }
+
+    /**
+     * Records that the run finished, so that it won't be resumed.
+     */
+    public synchronized void finished() throws IOException {
+        append(FINISHED + "\t" + System.currentTimeMillis(), true);
+    }
+
+    private void append(final String line, final boolean force) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+        if (force) {
+            writer.flush();
+            out.getChannel().force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
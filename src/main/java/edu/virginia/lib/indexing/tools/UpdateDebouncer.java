@@ -0,0 +1,182 @@
+package edu.virginia.lib.indexing.tools;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the refs found to need regeneration until they've gone a quiet period without being found
+ * again, so that a burst of edits to the same record (or a change found again by an overlapping
+ * poll) regenerates it once, after the edits have stopped.  A ref that keeps being found is
+ * released anyway once it has been held for the maximum delay.
+ *
+ * A changed repository is held until none of the refs in it are, so that its new digest is only
+ * committed once every record regenerated because of the change has been released.
+ */
+public class UpdateDebouncer {
+
+    private final long quietMillis;
+
+    private final long maxDelayMillis;
+
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    /**
+     * The time from which the poll that found each held repository's change looked for changes.
+     */
+    private final Map<String, Instant> repositories = new LinkedHashMap<>();
+
+    /**
+     * @param quietMillis how long a ref must go without being found before it's released
+     * @param maxDelayMillis the longest a ref is held, however often it's found
+     */
+    public UpdateDebouncer(final long quietMillis, final long maxDelayMillis) {
+        this.quietMillis = quietMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * Adds the refs planned from the changes found by a poll.
+     *
+     * @param repositoryRefs the subset of refs that were queued only because their repository
+     *                       changed
+     * @param repositories the changed repositories whose refs are planned
+     * @param windowStart the time from which the poll looked for changes
+     * @param now the time of the poll
+     */
+    public synchronized void add(final Set<String> refs, final Set<String> repositoryRefs, final Set<String> repositories,
+                                 final Instant windowStart, final long now) {
+        for (String repository : repositories) {
+            this.repositories.putIfAbsent(repository, windowStart);
+        }
+        for (String ref : refs) {
+            final Pending p = pending.get(ref);
+            if (p == null) {
+                pending.put(ref, new Pending(windowStart, now, repositoryRefs.contains(ref)));
+            } else {
+                p.lastFound = now;
+                p.repositoryOnly = p.repositoryOnly && repositoryRefs.contains(ref);
+            }
+        }
+    }
+
+    /**
+     * Removes and returns the refs that haven't been found for the quiet period (or have been
+     * held for the maximum delay), along with the repositories in which no refs are still held.
+     */
+    public synchronized Batch takeSettled(final long now) {
+        final Set<String> refs = new LinkedHashSet<>();
+        final Set<String> repositoryRefs = new LinkedHashSet<>();
+        final Iterator<Map.Entry<String, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Pending> e = it.next();
+            final Pending p = e.getValue();
+            if (now - p.lastFound >= quietMillis || now - p.firstFound >= maxDelayMillis) {
+                refs.add(e.getKey());
+                if (p.repositoryOnly) {
+                    repositoryRefs.add(e.getKey());
+                }
+                it.remove();
+            }
+        }
+        final Set<String> released = new LinkedHashSet<>();
+        final Iterator<String> repositoryIt = repositories.keySet().iterator();
+        while (repositoryIt.hasNext()) {
+            final String repository = repositoryIt.next();
+            if (pending.keySet().stream().noneMatch(ref -> ref.startsWith(repository + "/"))) {
+                released.add(repository);
+                repositoryIt.remove();
+            }
+        }
+        return new Batch(refs, repositoryRefs, released);
+    }
+
+    /**
+     * @return the earliest time from which a poll looked for changes and found a ref or
+     * repository that's still held, or null if none are held.  A restarted process can find
+     * every held ref and repository change again by looking for changes since then.
+     */
+    public synchronized Instant getEarliestWindowStart() {
+        Instant earliest = null;
+        for (Pending p : pending.values()) {
+            if (earliest == null || p.windowStart.isBefore(earliest)) {
+                earliest = p.windowStart;
+            }
+        }
+        for (Instant windowStart : repositories.values()) {
+            if (earliest == null || windowStart.isBefore(earliest)) {
+                earliest = windowStart;
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * @return the number of refs that are held.
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    private static class Pending {
+
+        private final Instant windowStart;
+
+        private final long firstFound;
+
+        private long lastFound;
+
+        private boolean repositoryOnly;
+
+        private Pending(final Instant windowStart, final long found, final boolean repositoryOnly) {
+            this.windowStart = windowStart;
+            this.firstFound = found;
+            this.lastFound = found;
+            this.repositoryOnly = repositoryOnly;
+        }
+    }
+
+    /**
+     * The refs and repositories released at once.
+     */
+    public static class Batch {
+
+        private final Set<String> refs;
+
+        private final Set<String> repositoryRefs;
+
+        private final Set<String> repositories;
+
+        private Batch(final Set<String> refs, final Set<String> repositoryRefs, final Set<String> repositories) {
+            this.refs = Collections.unmodifiableSet(refs);
+            this.repositoryRefs = Collections.unmodifiableSet(repositoryRefs);
+            this.repositories = Collections.unmodifiableSet(repositories);
+        }
+
+        /**
+         * @return the refs to regenerate.
+         */
+        public Set<String> getRefs() {
+            return refs;
+        }
+
+        /**
+         * @return the refs that were only ever queued because their repository changed.
+         */
+        public Set<String> getRepositoryRefs() {
+            return repositoryRefs;
+        }
+
+        /**
+         * @return the changed repositories none of whose refs are still held, whose new digests
+         * can be committed once this batch is journaled.
+         */
+        public Set<String> getRepositories() {
+            return repositories;
+        }
+    }
+}
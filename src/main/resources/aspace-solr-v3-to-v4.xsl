@@ -84,6 +84,10 @@
         <field name="url_label_supp_a">GUIDE TO THE COLLECTION AVAILABLE ONLINE</field>
     </xsl:template>
 
+    <!-- Embedded IIIF manifests aren't used in v4 and can be very large, so they're dropped
+         without being copied into a variable by the generic field template. -->
+    <xsl:template match="field[@name = 'iiif_presentation_metadata_display']"/>
+
     <xsl:template match="field[@name = 'library_facet']">
         <field name="library_f_stored">
             <xsl:value-of select="text()"/>
@@ -0,0 +1,169 @@
+package edu.virginia.lib.indexing;
+
+import org.apache.solr.common.SolrDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import javax.json.JsonObject;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static edu.virginia.lib.indexing.helpers.JsonHelper.parseJsonObject;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+/**
+ * Tests for the discovery of the containers and digital objects of
+ * Archives Space resource records.
+ */
+public class ASpaceCollectionTest {
+
+    private static final String REF = "/repositories/0/resources/1";
+
+    @Mock ArchivesSpaceClient client;
+
+    @Before
+    public void init() throws IOException {
+        initMocks(this);
+
+        when(client.resolveReference(REF)).thenReturn(load("resource.json"));
+        when(client.resolveReference(REF + "/tree")).thenReturn(load("tree.json"));
+        for (int i = 1; i <= 4; i ++) {
+            when(client.resolveReference("/repositories/0/archival_objects/" + i)).thenReturn(load("ao" + i + ".json"));
+        }
+    }
+
+    @Test
+    public void testTreeWalk() throws IOException {
+        final Set<String> containers = new HashSet<>();
+        final Set<String> dos = new HashSet<>();
+        new ASpaceCollection(client, REF).collectInstanceRefs(containers, dos);
+
+        assertEquals("Containers of unpublished components (and their children) must be excluded.",
+                new HashSet<>(Arrays.asList("/repositories/0/top_containers/1", "/repositories/0/top_containers/2",
+                        "/repositories/0/top_containers/4")), containers);
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/0/digital_objects/1")), dos);
+    }
+
+    @Test
+    public void testParallelTreeWalkMatchesSequential() throws IOException {
+        final Set<String> sequentialContainers = new HashSet<>();
+        final Set<String> sequentialDos = new HashSet<>();
+        new ASpaceCollection(client, REF).collectInstanceRefs(sequentialContainers, sequentialDos);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        when(client.getTraversalPool()).thenReturn(pool);
+        try {
+            final Set<String> containers = new HashSet<>();
+            final Set<String> dos = new HashSet<>();
+            new ASpaceCollection(client, REF).collectInstanceRefs(containers, dos);
+            assertEquals(sequentialContainers, containers);
+            assertEquals(sequentialDos, dos);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The stub solr index holds a document for the resource and each of its archival objects
+     * (and one from another resource), with the fields the container discovery query filters
+     * on.  The stub answers only the expected query, applying its filters to those fields.
+     */
+    @Test
+    public void testSolrMatchesTreeWalk() throws IOException {
+        final Set<String> walkContainers = new HashSet<>();
+        final Set<String> walkDos = new HashSet<>();
+        new ASpaceCollection(client, REF).collectInstanceRefs(walkContainers, walkDos);
+
+        final List<SolrDocument> index = new ArrayList<>();
+        index.add(doc(REF, "resource", null, true, false, "/repositories/0/top_containers/1"));
+        index.add(doc("/repositories/0/archival_objects/1", "archival_object", REF, true, false,
+                "/repositories/0/top_containers/2", "/repositories/0/digital_objects/1"));
+        // unpublished, as is the parent of the last archival object
+        index.add(doc("/repositories/0/archival_objects/2", "archival_object", REF, false, false, "/repositories/0/top_containers/3"));
+        index.add(doc("/repositories/0/archival_objects/3", "archival_object", REF, true, false,
+                "/repositories/0/top_containers/1", "/repositories/0/top_containers/4"));
+        index.add(doc("/repositories/0/archival_objects/4", "archival_object", REF, true, true, "/repositories/0/top_containers/5"));
+        index.add(doc("/repositories/0/archival_objects/9", "archival_object", "/repositories/0/resources/2", true, false,
+                "/repositories/0/top_containers/9"));
+        final String uri = "\"" + REF + "\"";
+        final String expectedQuery = "id:" + uri + " OR (resource:" + uri
+                + " AND types:archival_object AND publish:true AND -has_unpublished_ancestor:true)";
+        final StubSolrServer solr = new StubSolrServer(params -> {
+            if (!expectedQuery.equals(params.get("q"))) {
+                return Collections.emptyList();
+            }
+            final List<SolrDocument> matches = new ArrayList<>();
+            for (SolrDocument d : index) {
+                if (REF.equals(d.getFirstValue("id"))
+                        || (REF.equals(d.getFirstValue("resource")) && d.getFieldValues("types").contains("archival_object")
+                        && Boolean.TRUE.equals(d.getFirstValue("publish"))
+                        && !Boolean.TRUE.equals(d.getFirstValue("has_unpublished_ancestor")))) {
+                    matches.add(d);
+                }
+            }
+            return matches;
+        });
+        try {
+            when(client.getContainerDiscoverySolr()).thenReturn(new ArchivesSpaceSolr(solr.getUrl()));
+            final Set<String> solrContainers = new HashSet<>();
+            final Set<String> solrDos = new HashSet<>();
+            new ASpaceCollection(client, REF).collectInstanceRefs(solrContainers, solrDos);
+
+            // the last request finds that there are no more pages
+            for (Map<String, String> request : solr.getRequests()) {
+                assertEquals(expectedQuery, request.get("q"));
+                assertEquals("id,linked_instance_uris", request.get("fl"));
+            }
+            assertEquals(walkContainers, solrContainers);
+            assertEquals(walkDos, solrDos);
+        } finally {
+            solr.stop();
+        }
+    }
+
+    @Test
+    public void testFallbackToTreeWalk() throws IOException {
+        final Set<String> walkContainers = new HashSet<>();
+        final Set<String> walkDos = new HashSet<>();
+        new ASpaceCollection(client, REF).collectInstanceRefs(walkContainers, walkDos);
+
+        // a solr index that can't be reached
+        final StubSolrServer solr = new StubSolrServer(params -> Collections.emptyList());
+        solr.stop();
+        when(client.getContainerDiscoverySolr()).thenReturn(new ArchivesSpaceSolr(solr.getUrl()));
+        final Set<String> containers = new HashSet<>();
+        final Set<String> dos = new HashSet<>();
+        new ASpaceCollection(client, REF).collectInstanceRefs(containers, dos);
+        assertEquals(walkContainers, containers);
+        assertEquals(walkDos, dos);
+    }
+
+    private SolrDocument doc(final String id, final String type, final String resource, final boolean publish,
+                             final boolean hasUnpublishedAncestor, final String ... instanceUris) {
+        final SolrDocument d = new SolrDocument();
+        d.setField("id", id);
+        d.setField("types", Arrays.asList(type, "pui"));
+        if (resource != null) {
+            d.setField("resource", resource);
+        }
+        d.setField("publish", publish);
+        d.setField("has_unpublished_ancestor", hasUnpublishedAncestor);
+        d.setField("linked_instance_uris", Arrays.asList(instanceUris));
+        return d;
+    }
+
+    private JsonObject load(final String name) throws IOException {
+        return parseJsonObject(getClass().getClassLoader().getResourceAsStream("resource0/" + name));
+    }
+
+}
@@ -0,0 +1,54 @@
+package edu.virginia.lib.indexing;
+
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the index fields derived from the dates of an ArchivesSpace record.
+ */
+public class ASpaceObjectTest {
+
+    @Test
+    public void testBeginAndEndDates() {
+        final SolrDoc doc = new SolrDoc();
+        ASpaceObject.addDateFields(dates(Json.createObjectBuilder().add("begin", "1907").add("end", "1964-05-01").build()), doc);
+        assertEquals(Collections.singletonList("1907-1964-05-01"), doc.getFieldValues("date_display"));
+        assertEquals(Collections.singletonList("1964"), doc.getFieldValues("date_multisort_i"));
+        assertEquals(Collections.singletonList("More than 50 years ago"), doc.getFieldValues("published_date_facet"));
+    }
+
+    @Test
+    public void testBeginOnlyDate() {
+        final SolrDoc doc = new SolrDoc();
+        ASpaceObject.addDateFields(dates(Json.createObjectBuilder().add("begin", "1907-03").build()), doc);
+        assertEquals("A date without an end is displayed as its beginning.", Collections.singletonList("1907-03"), doc.getFieldValues("date_display"));
+        assertEquals(Collections.singletonList("1907"), doc.getFieldValues("date_multisort_i"));
+    }
+
+    @Test
+    public void testExpressionsAndFirstSortDate() {
+        final SolrDoc doc = new SolrDoc();
+        ASpaceObject.addDateFields(dates(
+                Json.createObjectBuilder().add("expression", "undated").build(),
+                Json.createObjectBuilder().add("expression", "circa 1920s-1930").add("begin", "1920").build(),
+                Json.createObjectBuilder().add("begin", "1950").add("end", "1960").build()), doc);
+        assertEquals(Arrays.asList("undated", "circa 1920s-1930", "1950-1960"), doc.getFieldValues("date_display"));
+        assertEquals("The first date with a year is sorted on.", Collections.singletonList("1930"), doc.getFieldValues("date_multisort_i"));
+    }
+
+    private static JsonArray dates(final JsonObject... dates) {
+        final JsonArrayBuilder b = Json.createArrayBuilder();
+        for (JsonObject date : dates) {
+            b.add(date);
+        }
+        return b.build();
+    }
+}
@@ -0,0 +1,133 @@
+package edu.virginia.lib.indexing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests which responses and failures the ArchivesSpaceClient retries, such as those that may
+ * indicate an expired session.
+ */
+public class ArchivesSpaceClientTest {
+
+    private static final String REF = "/repositories/3/resources/1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private final AtomicInteger logins = new AtomicInteger();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private int status;
+
+    /**
+     * Whether the server accepts the sessions established after the first.
+     */
+    private boolean acceptNewSessions = true;
+
+    @Before
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/users/user/login", exchange -> send(exchange, 200, "{\"session\":\"s" + logins.incrementAndGet() + "\"}"));
+        server.createContext(REF, exchange -> {
+            requests.incrementAndGet();
+            if (acceptNewSessions && logins.get() > 1
+                    && ("s" + logins.get()).equals(exchange.getRequestHeaders().getFirst("X-ArchivesSpace-Session"))) {
+                send(exchange, 200, "{\"uri\":\"" + REF + "\"}");
+            } else {
+                send(exchange, status, "{\"error\":\"denied\"}");
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void cleanup() {
+        server.stop(0);
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private ArchivesSpaceClient client() throws IOException {
+        return client(new Properties());
+    }
+
+    private ArchivesSpaceClient client(final Properties config) throws IOException {
+        config.setProperty("archivesSpaceMaxRetries", "5");
+        config.setProperty("archivesSpaceRetryBaseMs", "1");
+        return new ArchivesSpaceClient("http://localhost:" + server.getAddress().getPort() + "/", "user", "password", config);
+    }
+
+    @Test
+    public void testExpiredSession() throws IOException {
+        status = 412;
+        try (ArchivesSpaceClient client = client()) {
+            assertEquals(REF, client.resolveReference(REF).getString("uri"));
+        }
+        assertEquals(2, logins.get());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testForbiddenIsRetriedOnce() throws IOException {
+        status = 403;
+        acceptNewSessions = false;
+        try (ArchivesSpaceClient client = client()) {
+            client.resolveReference(REF);
+            fail("A 403 from a new session should be returned.");
+        } catch (RuntimeException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("403"));
+        }
+        assertEquals("One new session is established.", 2, logins.get());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testReaderFailureIsNotRetried() throws IOException {
+        final String ref = "/repositories/4/resources/1";
+        server.createContext(ref, exchange -> {
+            requests.incrementAndGet();
+            send(exchange, 200, "{\"uri\":\"" + ref + "\"}");
+        });
+        // a file where the cache needs a directory makes storing the response fail
+        final File cacheDir = folder.newFolder("cache");
+        new PersistentJsonCache(cacheDir, 60000);
+        assertTrue(new File(cacheDir, "repositories").createNewFile());
+        final Properties config = new Properties();
+        config.setProperty("diskCacheDir", cacheDir.getPath());
+        try (ArchivesSpaceClient client = client(config)) {
+            try {
+                client.resolveReference(ref);
+                fail("The failure to cache the response should be thrown.");
+            } catch (IOException expected) {
+            }
+            assertEquals("The request succeeded, so it isn't sent again.", 1, requests.get());
+            assertTrue(client.getTransportStatistics(), client.getTransportStatistics().contains(" 0 retries"));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package edu.virginia.lib.indexing;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests that changes are found with a single cursor scan of a (fake) ArchivesSpace solr index
+ * that returns two documents per page.
+ */
+public class ArchivesSpaceSolrTest {
+
+    private HttpServer server;
+
+    private final List<Map<String, String>> requests = new CopyOnWriteArrayList<>();
+
+    private final List<SolrDocument> docs = Arrays.asList(
+            doc("/repositories/3", "repository", null, null),
+            doc("/repositories/3/resources/1", "resource", "related_accession_uris", "/repositories/3/accessions/9"),
+            doc("/repositories/3/archival_objects/5", "archival_object", "ancestors", "/repositories/3/archival_objects/4", "/repositories/3/resources/2"),
+            doc("/repositories/3/top_containers/7", "top_container", "collection_uri_u_sstr", "/repositories/3/accessions/10"),
+            doc("/agents/people/1", "agent_person", null, null));
+
+    private static SolrDocument doc(final String id, final String type, final String field, final String ... values) {
+        final SolrDocument d = new SolrDocument();
+        d.addField("id", id);
+        d.addField("types", type);
+        d.addField("types", "pui");
+        if (field != null) {
+            for (String value : values) {
+                d.addField(field, value);
+            }
+        }
+        return d;
+    }
+
+    @Before
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collection1/select", exchange -> {
+            final Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            requests.add(params);
+            final String cursorMark = params.get("cursorMark");
+            final int start = cursorMark.equals("*") ? 0 : Integer.parseInt(cursorMark);
+            final SolrDocumentList page = new SolrDocumentList();
+            page.addAll(docs.subList(Math.min(start, docs.size()), Math.min(start + 2, docs.size())));
+            page.setNumFound(docs.size());
+            final NamedList<Object> response = new NamedList<>();
+            response.add("response", page);
+            response.add("nextCursorMark", page.isEmpty() ? cursorMark : String.valueOf(start + page.size()));
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            new JavaBinCodec().marshal(response, body);
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, body.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                body.writeTo(out);
+            }
+        });
+        server.start();
+    }
+
+    private static Map<String, String> parseQuery(final String query) throws UnsupportedEncodingException {
+        final Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            final int equals = pair.indexOf('=');
+            params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    @After
+    public void cleanup() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testFindChanges() {
+        final ChangeSet changes = new ArchivesSpaceSolr("http://localhost:" + server.getAddress().getPort() + "/collection1").findChanges("user_mtime:[NOW-24HOUR TO NOW]");
+        assertEquals(Arrays.asList("/repositories/3"), changes.getRepositories());
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/resources/1", "/repositories/3/accessions/9",
+                "/repositories/3/resources/2", "/repositories/3/accessions/10")), changes.getRecords());
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/top_containers/7", "/agents/people/1")), changes.getDependencies());
+
+        // three pages of documents and one empty page that ends the scan
+        assertEquals(4, requests.size());
+        for (Map<String, String> params : requests) {
+            assertEquals("user_mtime:[NOW-24HOUR TO NOW]", params.get("q"));
+            assertEquals("id,types,ancestors,related_accession_uris,collection_uri_u_sstr", params.get("fl"));
+            assertEquals("id asc", params.get("sort"));
+            assertEquals("javabin", params.get("wt"));
+            assertFalse(params.containsKey("start"));
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package edu.virginia.lib.indexing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that references are resolved in "id_set[]" batches grouped by their listing endpoint,
+ * and that the references a batch doesn't return are left to be resolved individually.
+ */
+public class BulkResolveReferencesTest {
+
+    private HttpServer server;
+
+    /**
+     * Each request made, as its path followed by the sorted ids of an id_set[] request.
+     */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    /**
+     * The records that are left out of any batch that requests them.
+     */
+    private final Set<String> unlisted = new HashSet<>(Collections.singleton("/locations/3"));
+
+    private ArchivesSpaceClient client;
+
+    @Before
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/users/user/login", exchange -> send(exchange, "{\"session\":\"s\"}"));
+        server.createContext("/", this::handle);
+        server.start();
+        final Properties config = new Properties();
+        config.setProperty("archivesSpaceBatchSize", "2");
+        client = new ArchivesSpaceClient("http://localhost:" + server.getAddress().getPort() + "/", "user", "password", config);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        client.close();
+        server.stop(0);
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        final String path = exchange.getRequestURI().getPath();
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            requests.add(path);
+            send(exchange, record(path).toString());
+            return;
+        }
+        final Set<String> ids = new TreeSet<>();
+        for (String param : query.split("&")) {
+            ids.add(param.substring("id_set%5B%5D=".length()));
+        }
+        requests.add(path + " " + ids);
+        final JsonArrayBuilder records = Json.createArrayBuilder();
+        for (String id : ids) {
+            if (!unlisted.contains(path + "/" + id)) {
+                records.add(record(path + "/" + id));
+            }
+        }
+        send(exchange, records.build().toString());
+    }
+
+    private static JsonObject record(final String uri) {
+        return Json.createObjectBuilder().add("uri", uri).add("title", "Title of " + uri).build();
+    }
+
+    private static void send(final HttpExchange exchange, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Test
+    public void testBatchesByListing() throws IOException {
+        final Map<String, JsonObject> resolved = client.bulkResolveReferences(Arrays.asList("/locations/1", "/locations/2",
+                "/locations/3", "/agents/people/5", "/repositories/3/top_containers/7", "/locations/1", "/locations/abc"));
+
+        assertEquals(new HashSet<>(Arrays.asList("/locations [1, 2]", "/locations [3]", "/agents/people [5]",
+                "/repositories/3/top_containers [7]")), new HashSet<>(requests));
+        assertEquals(new HashSet<>(Arrays.asList("/locations/1", "/locations/2", "/agents/people/5",
+                "/repositories/3/top_containers/7")), resolved.keySet());
+        assertEquals("Title of /agents/people/5", resolved.get("/agents/people/5").getString("title"));
+        assertFalse("A record missing from its batch is left to be resolved individually.", resolved.containsKey("/locations/3"));
+        assertFalse("A non-numeric id can't be requested in a batch.", resolved.containsKey("/locations/abc"));
+
+        requests.clear();
+        assertEquals("Title of /locations/3", client.resolveReference("/locations/3").getString("title"));
+        assertEquals(Collections.singletonList("/locations/3"), requests);
+
+        // the resolved records were cached, and each record fetched counts as a single miss
+        requests.clear();
+        assertEquals(Collections.singleton("/locations/1"), client.bulkResolveReferences(Collections.singleton("/locations/1")).keySet());
+        assertTrue(requests.isEmpty());
+        assertTrue(client.getReferenceCache().getStatistics().contains("reference cache locations: 1 hits, 3 misses, 0 evictions, 3 entries"));
+    }
+
+    @Test
+    public void testPreloadCurrentLocations() throws IOException {
+        final List<ASpaceTopContainer> containers = new ArrayList<>();
+        containers.add(container(1, "/locations/1"));
+        containers.add(container(2, "/locations/3"));
+        containers.add(container(3, "/locations/1"));
+        containers.add(container(4, null));
+
+        ASpaceTopContainer.preloadCurrentLocations(client, containers);
+        assertEquals(Collections.singletonList("/locations [1, 3]"), requests);
+        assertEquals("Title of /locations/1", containers.get(0).getCurrentLocation());
+        assertEquals("Title of /locations/1", containers.get(2).getCurrentLocation());
+        assertEquals("", containers.get(3).getCurrentLocation());
+        assertEquals(1, requests.size());
+
+        // the location missing from the batch is resolved when it's needed
+        assertEquals("Title of /locations/3", containers.get(1).getCurrentLocation());
+        assertEquals(Arrays.asList("/locations [1, 3]", "/locations/3"), requests);
+    }
+
+    /**
+     * Creates a top container with a previous location and, optionally, a current one.
+     */
+    private ASpaceTopContainer container(final int id, final String currentLocation) throws IOException {
+        final String uri = "/repositories/3/top_containers/" + id;
+        final JsonArrayBuilder locations = Json.createArrayBuilder();
+        locations.add(Json.createObjectBuilder().add("status", "previous").add("ref", "/locations/9"));
+        if (currentLocation != null) {
+            locations.add(Json.createObjectBuilder().add("status", "current").add("ref", currentLocation));
+        }
+        return new ASpaceTopContainer(client, uri, Json.createObjectBuilder().add("uri", uri)
+                .add("container_locations", locations).build());
+    }
+}
@@ -0,0 +1,142 @@
+package edu.virginia.lib.indexing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests planning the records to regenerate from the changes found by a change source.
+ */
+public class ChangePlannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final Instant DAY_AGO = Instant.now().minus(24, ChronoUnit.HOURS);
+
+    private ArchivesSpaceClient client;
+
+    @Before
+    public void init() throws IOException {
+        client = mock(ArchivesSpaceClient.class);
+        when(client.listAccessionIds("/repositories/3")).thenReturn(Arrays.asList("/repositories/3/accessions/1"));
+        when(client.listResourceIds("/repositories/3")).thenReturn(Arrays.asList("/repositories/3/resources/1", "/repositories/3/resources/2"));
+    }
+
+    /**
+     * A change source that returns the changes it was created with.
+     */
+    private static class FakeChangeSource implements ChangeSource {
+
+        private final ChangeSet changes = new ChangeSet();
+
+        private FakeChangeSource(final List<String> repositories, final List<String> records) {
+            repositories.forEach(changes::addRepository);
+            records.forEach(changes::addRecord);
+        }
+
+        @Override
+        public ChangeSet findChanges(final Instant since) {
+            return changes;
+        }
+    }
+
+    @Test
+    public void testPlan() throws IOException {
+        final ChangeSource source = new FakeChangeSource(Arrays.asList("/repositories/3"), Arrays.asList("/repositories/3/resources/2", "/repositories/4/resources/9"));
+        final StringWriter report = new StringWriter();
+        final ChangePlanner.Plan plan = new ChangePlanner(source, client).plan(DAY_AGO, new PrintWriter(report));
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/accessions/1", "/repositories/3/resources/1",
+                "/repositories/3/resources/2", "/repositories/4/resources/9")), plan.getRefs());
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/accessions/1", "/repositories/3/resources/1")), plan.getRepositoryRefs());
+        assertTrue(report.toString().contains("4 records to regenerate."));
+    }
+
+    @Test
+    public void testRepositoryDigests() throws IOException {
+        final File file = folder.newFile("repository-digests.properties");
+        final RepositoryDigests digests = new RepositoryDigests(file);
+        final ChangeSource source = new FakeChangeSource(Arrays.asList("/repositories/3"), Collections.emptyList());
+        final ChangePlanner planner = new ChangePlanner(source, client, null, null, digests);
+        when(client.resolveReference("/repositories/3")).thenReturn(Json.createObjectBuilder().add("name", "Special Collections").add("lock_version", 1).build());
+        assertEquals("Without a digest, the repository is assumed to have changed.", 3, planner.plan(DAY_AGO, new PrintWriter(new StringWriter())).getRefs().size());
+
+        when(client.resolveReference("/repositories/3")).thenReturn(Json.createObjectBuilder().add("name", "Special Collections").add("lock_version", 2).build());
+        final StringWriter report = new StringWriter();
+        assertEquals(Collections.emptySet(), planner.plan(DAY_AGO, new PrintWriter(report)).getRefs());
+        assertTrue(report.toString().contains("repository update to /repositories/3 ignored"));
+        assertEquals("Everything is regenerated when reindexing all items.", 3, planner.plan(null, new PrintWriter(new StringWriter())).getRefs().size());
+
+        when(client.resolveReference("/repositories/3")).thenReturn(Json.createObjectBuilder().add("name", "Health Sciences").add("lock_version", 3).build());
+        final ChangePlanner.Plan plan = planner.plan(DAY_AGO, new PrintWriter(new StringWriter()));
+        assertEquals(3, plan.getRefs().size());
+        assertEquals(Collections.singleton("/repositories/3"), plan.getRepositories());
+
+        // a digest is only persisted once it's committed
+        digests.save();
+        final ChangePlanner reloaded = new ChangePlanner(source, client, null, null, new RepositoryDigests(file));
+        assertEquals(3, reloaded.plan(DAY_AGO, new PrintWriter(new StringWriter())).getRefs().size());
+        digests.commit(plan.getRepositories());
+        digests.save();
+        final ChangePlanner committed = new ChangePlanner(source, client, null, null, new RepositoryDigests(file));
+        assertEquals(Collections.emptySet(), committed.plan(DAY_AGO, new PrintWriter(new StringWriter())).getRefs());
+    }
+
+    @Test
+    public void testNoChanges() throws IOException {
+        final ChangePlanner.Plan plan = new ChangePlanner(new FakeChangeSource(Collections.emptyList(), Collections.emptyList()), client).plan(DAY_AGO, new PrintWriter(new StringWriter()));
+        assertEquals(Collections.emptySet(), plan.getRefs());
+    }
+
+    @Test
+    public void testRestChangeSource() throws IOException {
+        when(client.listRepositories()).thenReturn(Arrays.asList(
+                Json.createObjectBuilder().add("uri", "/repositories/3").add("user_mtime", "2000-01-01T00:00:00Z").build()));
+        stubModified("/repositories/3/resources", Json.createObjectBuilder().add("uri", "/repositories/3/resources/1")
+                .add("related_accessions", Json.createArrayBuilder().add(Json.createObjectBuilder().add("ref", "/repositories/3/accessions/4"))).build());
+        stubModified("/repositories/3/accessions", Json.createObjectBuilder().add("uri", "/repositories/3/accessions/5").build());
+        stubModified("/repositories/3/archival_objects", Json.createObjectBuilder().add("uri", "/repositories/3/archival_objects/6")
+                .add("resource", Json.createObjectBuilder().add("ref", "/repositories/3/resources/2")).build());
+        stubModified("/repositories/3/top_containers", Json.createObjectBuilder().add("uri", "/repositories/3/top_containers/7")
+                .add("collection", Json.createArrayBuilder().add(Json.createObjectBuilder().add("ref", "/repositories/3/resources/8"))).build());
+        stubModified("/subjects", Json.createObjectBuilder().add("uri", "/subjects/9").build());
+
+        final ChangeSet changes = new RestChangeSource(client).findChanges(DAY_AGO);
+        assertEquals("The repository wasn't modified in the last 24 hours.", Collections.emptyList(), changes.getRepositories());
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/resources/1", "/repositories/3/accessions/4", "/repositories/3/accessions/5",
+                "/repositories/3/resources/2", "/repositories/3/resources/8")), changes.getRecords());
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/top_containers/7", "/subjects/9")), changes.getDependencies());
+        assertEquals(Arrays.asList("/repositories/3"), new RestChangeSource(client).findChanges(null).getRepositories());
+    }
+
+    private void stubModified(final String listing, final JsonObject record) throws IOException {
+        doAnswer(invocation -> {
+            invocation.<Consumer<JsonObject>>getArgument(2).accept(record);
+            return null;
+        }).when(client).forEachModifiedSince(eq(listing), anyLong(), any());
+    }
+}
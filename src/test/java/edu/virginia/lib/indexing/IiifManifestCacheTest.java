@@ -0,0 +1,126 @@
+package edu.virginia.lib.indexing;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that IIIF manifests are cached in memory and on disk and revalidated with their ETag.
+ */
+public class IiifManifestCacheTest {
+
+    private static final File CACHE_DIR = new File("target/test-output/manifest-cache");
+
+    private static final String MANIFEST = "{\"@id\":\"https://iiif.lib.virginia.edu/iiif/uva-lib:123/manifest\","
+            + "\"label\":\"Box 1, Folder 2\",\"license\":\"http://rightsstatements.org/vocab/InC-EDU/1.0/\","
+            + "\"sequences\":[{\"canvases\":[{\"thumbnail\":\"https://iiif.lib.virginia.edu/iiif/uva-lib:124/full/!200,200/0/default.jpg\"},"
+            + "{\"thumbnail\":\"https://iiif.lib.virginia.edu/iiif/uva-lib:125/full/!200,200/0/default.jpg\"}]}]}";
+
+    private HttpServer server;
+
+    /**
+     * The status of each response sent.
+     */
+    private final List<Integer> responses = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void init() throws IOException {
+        FileUtils.deleteQuietly(CACHE_DIR);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/manifest", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                responses.add(304);
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                responses.add(200);
+                final byte[] body = MANIFEST.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void cleanup() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testProjection() {
+        final JsonObject manifest = Json.createReader(new StringReader(MANIFEST)).readObject();
+        assertEquals(MANIFEST, new IiifManifestProjection(new Properties()).project(manifest, "test"));
+
+        final Properties config = new Properties();
+        config.setProperty("manifestEmbedding", "projection");
+        config.setProperty("manifestFieldMaxChars", "50");
+        final IiifManifestProjection projection = new IiifManifestProjection(config);
+        // sequences aren't projected, and the @id is longer than the budget
+        assertEquals("{\"label\":\"Box 1, Folder 2\",\"license\":\"http://rightsstatements.org/vocab/InC-EDU/1.0/\"}",
+                projection.project(manifest, "test"));
+        assertTrue(projection.getStatistics().contains("1 oversized"));
+    }
+
+    @Test
+    public void testCachingAndRevalidation() throws IOException {
+        final String url = "http://localhost:" + server.getAddress().getPort() + "/manifest";
+        final Properties config = new Properties();
+        config.setProperty("manifestCacheDir", CACHE_DIR.getPath());
+
+        try (IiifManifestCache cache = new IiifManifestCache(config)) {
+            final IiifManifestCache.Manifest m = cache.getManifest(url);
+            assertEquals("https://iiif.lib.virginia.edu/iiif/uva-lib:123/manifest", m.getId());
+            assertEquals("Box 1, Folder 2", m.getLabel());
+            assertEquals("http://rightsstatements.org/vocab/InC-EDU/1.0/", m.getLicense());
+            assertEquals("https://iiif.lib.virginia.edu/iiif/uva-lib:124/full/!200,200/0/default.jpg", m.getThumbnail());
+            // a second use in the same run is served from memory
+            cache.getManifest(url);
+        }
+
+        // a later run revalidates its copy on disk rather than downloading it again
+        try (IiifManifestCache cache = new IiifManifestCache(config)) {
+            final IiifManifestCache.Manifest m = cache.getManifest(url);
+            assertEquals("Box 1, Folder 2", m.getLabel());
+            assertEquals("https://iiif.lib.virginia.edu/iiif/uva-lib:124/full/!200,200/0/default.jpg", m.getThumbnail());
+        }
+
+        assertEquals(2, responses.size());
+        assertEquals(200, (int) responses.get(0));
+        assertEquals(304, (int) responses.get(1));
+    }
+
+    @Test
+    public void testMemoryIsBoundedByLength() throws IOException {
+        final String url = "http://localhost:" + server.getAddress().getPort() + "/manifest";
+        final Properties config = new Properties();
+        config.setProperty("manifestCacheMaxChars", String.valueOf(MANIFEST.length()));
+        try (IiifManifestCache cache = new IiifManifestCache(config)) {
+            cache.getManifest(url);
+            cache.getManifest(url);
+        }
+        assertEquals("The embedded manifest is too long to be kept in memory.", 2, responses.size());
+    }
+
+}
@@ -0,0 +1,196 @@
+package edu.virginia.lib.indexing;
+
+import edu.virginia.lib.indexing.tools.ReplayServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static edu.virginia.lib.indexing.helpers.JsonHelper.parseJsonObject;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that walking a resource's hierarchy with the paged tree endpoints (tree/root and
+ * tree/waypoint) finds the same children and instances as walking the whole tree from the
+ * legacy /tree endpoint.  The paged responses are derived from the same legacy tree, with one
+ * child per waypoint so that most children are fetched from concurrently requested waypoints.
+ */
+public class PagedTreeTest {
+
+    private static final String REF = "/repositories/0/resources/1";
+
+    private static final String SERIES_1 = "/repositories/0/archival_objects/1";
+
+    private static final String SERIES_2 = "/repositories/0/archival_objects/2";
+
+    private static final File BUNDLE_DIR = new File("target/test-output/paged-tree-bundle");
+
+    private ReplayServer server;
+
+    @Before
+    public void init() throws IOException {
+        FileUtils.deleteQuietly(BUNDLE_DIR);
+        final FixtureBundle bundle = new FixtureBundle(BUNDLE_DIR);
+        bundle.record(REF, load("resource.json"));
+        final JsonObject tree = load("tree.json");
+        bundle.record(REF + "/tree", tree);
+        for (int i = 1; i <= 4; i ++) {
+            bundle.record("/repositories/0/archival_objects/" + i, load("ao" + i + ".json"));
+        }
+
+        // the root includes the first waypoint of the top level, the rest are fetched
+        final JsonArray topLevel = tree.getJsonArray("children");
+        bundle.record(REF + "/tree/root", Json.createObjectBuilder()
+                .add("uri", REF)
+                .add("jsonmodel_type", "resource")
+                .add("child_count", topLevel.size())
+                .add("waypoints", topLevel.size())
+                .add("waypoint_size", 1)
+                .add("precomputed_waypoints", Json.createObjectBuilder().add("", Json.createObjectBuilder()
+                        .add("0", Json.createArrayBuilder().add(toPagedNode(topLevel.getJsonObject(0))))))
+                .build());
+        recordWaypoints(bundle, "", topLevel, 1);
+        bundle.close();
+
+        server = new ReplayServer(new FixtureBundle(BUNDLE_DIR), 0, 1, 0, 0);
+        server.start();
+    }
+
+    /**
+     * Records a waypoint (of one node) for each of the given children from the given offset,
+     * and then those of their own children.
+     */
+    private static void recordWaypoints(final FixtureBundle bundle, final String parentUri, final JsonArray children, final int offset) throws IOException {
+        for (int i = offset; i < children.size(); i ++) {
+            bundle.record(REF + "/tree/waypoint?offset=" + i + "&parent_node=" + URLEncoder.encode(parentUri, "UTF-8"),
+                    Json.createArrayBuilder().add(toPagedNode(children.getJsonObject(i))).build());
+        }
+        for (JsonValue v : children) {
+            final JsonObject child = (JsonObject) v;
+            recordWaypoints(bundle, child.getString("record_uri"), child.getJsonArray("children"), 0);
+        }
+    }
+
+    private static JsonObject toPagedNode(final JsonObject legacyNode) {
+        final int childCount = legacyNode.getJsonArray("children").size();
+        return Json.createObjectBuilder()
+                .add("uri", legacyNode.getString("record_uri"))
+                .add("jsonmodel_type", legacyNode.getString("node_type"))
+                .add("title", legacyNode.getString("title"))
+                .add("child_count", childCount)
+                .add("waypoints", childCount)
+                .add("waypoint_size", 1)
+                .build();
+    }
+
+    @After
+    public void cleanup() {
+        server.stop();
+    }
+
+    private ArchivesSpaceClient client(final String treeMode, final int parallelism) throws IOException {
+        return client(treeMode, parallelism, new Properties());
+    }
+
+    private ArchivesSpaceClient client(final String treeMode, final int parallelism, final Properties config) throws IOException {
+        config.setProperty("treeMode", treeMode);
+        config.setProperty("traversalParallelism", String.valueOf(parallelism));
+        return new ArchivesSpaceClient(server.getUrl(), "user", "password", config);
+    }
+
+    @Test
+    public void testGetTreeChildren() throws IOException {
+        try (ArchivesSpaceClient client = client("paged", 1)) {
+            assertEquals(Arrays.asList(SERIES_1, SERIES_2), getUris(client.getTreeChildren(REF, null, 0)));
+            assertEquals(Arrays.asList("/repositories/0/archival_objects/4"), getUris(client.getTreeChildren(REF, SERIES_2, 1)));
+
+            final JsonObject node = client.getTreeChildren(REF, null, 0).get(0);
+            final ASpaceArchivalObject series = new ASpaceArchivalObject(client, node, REF);
+            assertEquals(SERIES_1, series.refId);
+            final List<ASpaceArchivalObject> folders = series.getChildren();
+            assertEquals(1, folders.size());
+            assertEquals("/repositories/0/archival_objects/3", folders.get(0).refId);
+            assertTrue("A node without children has none to fetch.", folders.get(0).getChildren().isEmpty());
+
+            try {
+                new ASpaceArchivalObject(client, Json.createObjectBuilder().add("uri", REF).add("jsonmodel_type", "resource").build(), REF);
+                fail("Only archival object nodes are archival objects.");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testPagedWalkMatchesTreeWalk() throws IOException {
+        final List<String> legacyNodes = new ArrayList<>();
+        final Set<String> legacyContainers = new HashSet<>();
+        final Set<String> legacyDos = new HashSet<>();
+        try (ArchivesSpaceClient client = client("legacy", 1)) {
+            final ASpaceCollection collection = new ASpaceCollection(client, REF);
+            listNodes(collection, legacyNodes);
+            collection.collectInstanceRefs(legacyContainers, legacyDos);
+        }
+        assertEquals(Arrays.asList(SERIES_1, "/repositories/0/archival_objects/3", SERIES_2, "/repositories/0/archival_objects/4"), legacyNodes);
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/0/top_containers/1", "/repositories/0/top_containers/2",
+                "/repositories/0/top_containers/4")), legacyContainers);
+
+        // walked sequentially and as a fork/join computation
+        for (int parallelism : new int[] { 1, 4 }) {
+            final List<String> nodes = new ArrayList<>();
+            final Set<String> containers = new HashSet<>();
+            final Set<String> dos = new HashSet<>();
+            final File recording = new File("target/test-output/paged-tree-recording-" + parallelism);
+            FileUtils.deleteQuietly(recording);
+            final Properties config = new Properties();
+            config.setProperty("recordDir", recording.getPath());
+            try (ArchivesSpaceClient client = client("paged", parallelism, config)) {
+                final ASpaceCollection collection = new ASpaceCollection(client, REF);
+                listNodes(collection, nodes);
+                collection.collectInstanceRefs(containers, dos);
+            }
+            assertEquals(legacyNodes, nodes);
+            assertEquals(legacyContainers, containers);
+            assertEquals(legacyDos, dos);
+            assertFalse("The whole tree is never fetched.", new FixtureBundle(recording).getPaths().contains(REF + "/tree"));
+        }
+    }
+
+    /**
+     * Adds the refs of every node beneath the given one, depth-first in order.
+     */
+    private static void listNodes(final ASpaceObject node, final List<String> refs) throws IOException {
+        for (ASpaceArchivalObject child : node.getChildren()) {
+            refs.add(child.refId);
+            listNodes(child, refs);
+        }
+    }
+
+    private static List<String> getUris(final List<JsonObject> nodes) {
+        final List<String> uris = new ArrayList<>();
+        for (JsonObject node : nodes) {
+            uris.add(node.getString("uri"));
+        }
+        return uris;
+    }
+
+    private JsonObject load(final String name) throws IOException {
+        return parseJsonObject(getClass().getClassLoader().getResourceAsStream("resource0/" + name));
+    }
+}
@@ -0,0 +1,179 @@
+package edu.virginia.lib.indexing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.virginia.lib.indexing.tools.IndexRecords;
+import org.apache.commons.io.FileUtils;
+import org.apache.solr.common.SolrDocument;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the persistent response cache is validated against the ArchivesSpace solr index,
+ * revalidates its entries with conditional requests, and never deletes files it didn't write.
+ */
+public class PersistentJsonCacheTest {
+
+    private static final long MAX_AGE = 24 * 60 * 60 * 1000L;
+
+    private static final String RESOURCE = "/repositories/3/resources/1";
+
+    private static final String AO = "/repositories/3/archival_objects/2";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static JsonObject record(final String uri, final int lockVersion) {
+        return Json.createObjectBuilder().add("uri", uri).add("lock_version", lockVersion).build();
+    }
+
+    @Test
+    public void testRefusesDirectoryWithOtherFiles() throws IOException {
+        final File dir = folder.newFolder("logs");
+        FileUtils.writeStringToFile(new File(dir, "2020-01-01-updated.txt"), "report", "UTF-8");
+        try {
+            new PersistentJsonCache(dir, MAX_AGE);
+            fail("A directory holding other files shouldn't be used as a cache.");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(new File(dir, "2020-01-01-updated.txt").exists());
+        }
+    }
+
+    @Test
+    public void testFirstRunClearsOnlyCacheEntries() throws IOException {
+        final File dir = new File(folder.getRoot(), "cache");
+        final PersistentJsonCache cache = new PersistentJsonCache(dir, MAX_AGE);
+        cache.put(RESOURCE, record(RESOURCE, 1), null, null);
+        cache.put(RESOURCE + "/tree", Json.createObjectBuilder().build(), null, null);
+        final File unrelated = new File(dir, "repositories/notes.txt");
+        FileUtils.writeStringToFile(unrelated, "not a cache entry", "UTF-8");
+
+        final StubSolrServer solr = new StubSolrServer(params -> Collections.emptyList());
+        try {
+            final StringWriter report = new StringWriter();
+            IndexRecords.validateDiskCache(solr.getUrl(), new PersistentJsonCache(dir, MAX_AGE), 600, new PrintWriter(report, true));
+            assertTrue(report.toString().contains("cleared"));
+            assertEquals("Without a watermark, solr isn't consulted.", 0, solr.getRequests().size());
+        } finally {
+            solr.stop();
+        }
+        assertNull(cache.get(RESOURCE));
+        assertNull(cache.get(RESOURCE + "/tree"));
+        assertFalse(new File(dir, "repositories/3").exists());
+        assertTrue(unrelated.exists());
+        assertTrue("The cache is valid from the start of the run.", cache.getValidThrough() > 0);
+        // the directory is still recognized as a cache
+        new PersistentJsonCache(dir, MAX_AGE);
+    }
+
+    @Test
+    public void testWatermarkAndAncestorInvalidation() throws IOException {
+        final File dir = new File(folder.getRoot(), "cache");
+        final PersistentJsonCache cache = new PersistentJsonCache(dir, MAX_AGE);
+        final String otherResource = "/repositories/3/resources/5";
+        cache.put(RESOURCE, record(RESOURCE, 1), null, null);
+        cache.put(RESOURCE + "/tree", Json.createObjectBuilder().build(), null, null);
+        cache.put(RESOURCE + "/tree/node?node_uri=" + AO, Json.createObjectBuilder().build(), null, null);
+        cache.put(AO, record(AO, 1), null, null);
+        cache.put(otherResource, record(otherResource, 1), null, null);
+        final long validThrough = Instant.parse("2020-01-01T12:00:00Z").toEpochMilli();
+        cache.markValidThrough(validThrough);
+
+        // the archival object changed, as did a digital object (whose id includes a fragment)
+        final List<SolrDocument> changed = new ArrayList<>();
+        final SolrDocument ao = new SolrDocument();
+        ao.addField("id", AO);
+        ao.addField("ancestors", Arrays.asList(RESOURCE));
+        changed.add(ao);
+        final SolrDocument digitalObject = new SolrDocument();
+        digitalObject.addField("id", "/repositories/3/digital_objects/7#pui");
+        changed.add(digitalObject);
+        cache.put("/repositories/3/digital_objects/7", record("/repositories/3/digital_objects/7", 1), null, null);
+
+        final StubSolrServer solr = new StubSolrServer(params -> changed);
+        final PersistentJsonCache nextRun = new PersistentJsonCache(dir, MAX_AGE);
+        try {
+            IndexRecords.validateDiskCache(solr.getUrl(), nextRun, 600, new PrintWriter(new StringWriter()));
+            final Map<String, String> query = solr.getRequests().get(0);
+            assertEquals("Changes are found from the watermark, less the indexing lag.", "system_mtime:[2020-01-01T11:50:00Z TO *]", query.get("q"));
+        } finally {
+            solr.stop();
+        }
+        assertNull(nextRun.get(AO));
+        assertNull(nextRun.get("/repositories/3/digital_objects/7"));
+        assertNull("The trees of the changed record's ancestors are invalidated.", nextRun.get(RESOURCE + "/tree"));
+        assertNull(nextRun.get(RESOURCE + "/tree/node?node_uri=" + AO));
+        assertNotNull("The ancestor itself is unchanged.", nextRun.get(RESOURCE));
+        assertNotNull(nextRun.get(otherResource));
+        assertTrue(nextRun.isTrusted());
+        assertTrue(nextRun.getValidThrough() > validThrough);
+    }
+
+    @Test
+    public void testConditionalRevalidation() throws IOException {
+        final List<String> responses = Collections.synchronizedList(new ArrayList<>());
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/users/user/login", exchange -> send(exchange, 200, "{\"session\":\"s\"}"));
+        server.createContext(RESOURCE, exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                responses.add("304");
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+            } else {
+                responses.add("200");
+                exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                send(exchange, 200, record(RESOURCE, 1).toString());
+            }
+        });
+        server.start();
+        try {
+            final Properties config = new Properties();
+            config.setProperty("diskCacheDir", new File(folder.getRoot(), "cache").getPath());
+            final String url = "http://localhost:" + server.getAddress().getPort() + "/";
+            try (ArchivesSpaceClient client = new ArchivesSpaceClient(url, "user", "password", config)) {
+                assertEquals(1, client.resolveReference(RESOURCE).getInt("lock_version"));
+            }
+            // the next run hasn't validated its cache, so the entry is revalidated
+            try (ArchivesSpaceClient client = new ArchivesSpaceClient(url, "user", "password", config)) {
+                assertEquals(1, client.resolveReference(RESOURCE).getInt("lock_version"));
+                assertTrue(client.getDiskCache().getStatistics().contains("1 revalidated"));
+            }
+        } finally {
+            server.stop(0);
+        }
+        assertEquals(Arrays.asList("200", "304"), responses);
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package edu.virginia.lib.indexing;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests that a stored fingerprint is reported unchanged only while the record and every one of
+ * its dependencies keep the versions they had when it was stored.
+ */
+public class RecordFingerprintStoreTest {
+
+    private static final File DIR = new File("target/test-output/fingerprints");
+
+    private static final String RESOURCE = "/repositories/3/resources/754";
+
+    private static final String CONTAINER = "/repositories/3/top_containers/12";
+
+    private static final String AGENT = "/agents/people/5";
+
+    private static final String MANIFEST = "https://iiif.lib.virginia.edu/iiif/uva-lib:123/manifest";
+
+    private final Map<String, JsonObject> records = new HashMap<>();
+
+    private ArchivesSpaceClient client;
+
+    private IiifManifestCache manifests;
+
+    private IiifManifestCache.Manifest manifest;
+
+    private RecordFingerprintStore store;
+
+    @Before
+    public void init() throws IOException {
+        FileUtils.deleteQuietly(DIR);
+        records.put(RESOURCE, record(RESOURCE, 4));
+        records.put(CONTAINER, record(CONTAINER, 1));
+        records.put(AGENT, record(AGENT, 7));
+        client = mock(ArchivesSpaceClient.class);
+        when(client.resolveReference(anyString())).thenAnswer(invocation -> {
+            final JsonObject record = records.get(invocation.<String>getArgument(0));
+            if (record == null) {
+                throw new RuntimeException("Unable to get " + invocation.getArgument(0));
+            }
+            return record;
+        });
+        when(client.bulkResolveReferences(any())).thenAnswer(invocation -> {
+            final Map<String, JsonObject> result = new HashMap<>();
+            for (String ref : invocation.<Collection<String>>getArgument(0)) {
+                if (records.containsKey(ref)) {
+                    result.put(ref, records.get(ref));
+                }
+            }
+            return result;
+        });
+        manifest = mock(IiifManifestCache.Manifest.class);
+        when(manifest.getDigest()).thenReturn("d1");
+        manifests = mock(IiifManifestCache.class);
+        when(manifests.getManifest(MANIFEST)).thenReturn(manifest);
+
+        final DependencyTracker tracker = new DependencyTracker();
+        for (JsonObject record : records.values()) {
+            tracker.addRecord(record.getString("uri"), record);
+        }
+        tracker.addManifest(MANIFEST, "d1");
+        store = new RecordFingerprintStore(DIR);
+        store.put(RESOURCE, 4, tracker);
+    }
+
+    private static JsonObject record(final String uri, final int lockVersion) {
+        return Json.createObjectBuilder().add("uri", uri).add("lock_version", lockVersion).build();
+    }
+
+    @Test
+    public void testUnchanged() {
+        assertEquals(3, store.get(RESOURCE).getRecordVersions().size());
+        assertTrue(store.isUnchanged(RESOURCE, client, manifests));
+        assertFalse("Records without fingerprints must be regenerated.", store.isUnchanged("/repositories/3/resources/1", client, manifests));
+    }
+
+    @Test
+    public void testChangedRecord() {
+        records.put(RESOURCE, record(RESOURCE, 5));
+        assertFalse(store.isUnchanged(RESOURCE, client, manifests));
+    }
+
+    @Test
+    public void testChangedDependency() {
+        records.put(AGENT, record(AGENT, 8));
+        assertFalse(store.isUnchanged(RESOURCE, client, manifests));
+    }
+
+    @Test
+    public void testDeletedDependency() {
+        records.remove(CONTAINER);
+        assertFalse(store.isUnchanged(RESOURCE, client, manifests));
+    }
+
+    @Test
+    public void testChangedManifest() {
+        when(manifest.getDigest()).thenReturn("d2");
+        assertFalse(store.isUnchanged(RESOURCE, client, manifests));
+    }
+}
@@ -0,0 +1,93 @@
+package edu.virginia.lib.indexing;
+
+import edu.virginia.lib.indexing.tools.RecordPipeline;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that the pipeline processes items concurrently, writes every result from a single
+ * thread, and stops when a stage fails.
+ */
+public class RecordPipelineTest {
+
+    @Test
+    public void testEveryResultIsWrittenByOneThread() throws Exception {
+        final List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 200; i ++) {
+            items.add(i);
+        }
+        final AtomicInteger inProgress = new AtomicInteger();
+        final AtomicInteger maxInProgress = new AtomicInteger();
+        final Set<String> writerThreads = new HashSet<>();
+        final Set<Integer> written = new HashSet<>();
+        new RecordPipeline<Integer, Integer>(4, 3, item -> {
+            maxInProgress.accumulateAndGet(inProgress.incrementAndGet(), Math::max);
+            Thread.sleep(2);
+            inProgress.decrementAndGet();
+            return item * 2;
+        }, result -> {
+            writerThreads.add(Thread.currentThread().getName());
+            written.add(result);
+        }).run(items);
+        assertEquals(200, written.size());
+        assertTrue(written.contains(398));
+        assertEquals(1, writerThreads.size());
+        assertTrue("Items should be processed concurrently.", maxInProgress.get() > 1);
+        assertTrue(maxInProgress.get() <= 4);
+    }
+
+    @Test
+    public void testWriterFailureStopsThePipeline() throws Exception {
+        final List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 10000; i ++) {
+            items.add(i);
+        }
+        final AtomicInteger processed = new AtomicInteger();
+        try {
+            new RecordPipeline<Integer, Integer>(2, 2, item -> {
+                processed.incrementAndGet();
+                return item;
+            }, result -> {
+                if (result == 5) {
+                    throw new IllegalStateException("disk full");
+                }
+            }).run(items);
+            fail("The writer's exception should have been rethrown.");
+        } catch (IllegalStateException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        assertTrue(processed.get() < 10000);
+    }
+
+    @Test(timeout = 10000)
+    public void testErrorStopsThePipeline() throws Exception {
+        final List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i ++) {
+            items.add(i);
+        }
+        try {
+            new RecordPipeline<Integer, Integer>(2, 2, item -> {
+                if (item == 3) {
+                    throw new OutOfMemoryError("worker");
+                }
+                return item;
+            }, result -> {
+                if (result == 5) {
+                    throw new AssertionError("writer");
+                }
+            }).run(items);
+            fail("The error should have been rethrown.");
+        } catch (Error e) {
+            assertTrue(e.getMessage().equals("worker") || e.getMessage().equals("writer"));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package edu.virginia.lib.indexing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RefIdTest {
+
+    @Test
+    public void testParse() {
+        final RefId ref = RefId.parse("/repositories/3/resources/754");
+        assertEquals(3, ref.getRepository());
+        assertEquals(RefId.Type.RESOURCE, ref.getType());
+        assertEquals(754, ref.getId());
+        assertEquals("/repositories/3/resources/754", ref.getUri());
+        assertEquals(ref, RefId.parse("repositories/3/resources/754"));
+        assertEquals(RefId.Type.TOP_CONTAINER, RefId.parse("/repositories/2/top_containers/1").getType());
+    }
+
+    @Test
+    public void testInvalidRefIds() {
+        assertNull(RefId.tryParse("/agents/people/12"));
+        assertNull(RefId.tryParse("/repositories/3"));
+        assertNull(RefId.tryParse("/repositories/3/resources/"));
+        assertNull(RefId.tryParse("/repositories/3/resources/754/tree"));
+        assertNull(RefId.tryParse("/repositories/3/widgets/754"));
+        assertNull(RefId.tryParse("/repositories/x/resources/754"));
+        assertNull(RefId.tryParse("/repositories/3/resources/99999999999999999999"));
+    }
+
+    @Test
+    public void testSolrId() {
+        assertEquals("as:3r754", RefId.parse("/repositories/3/resources/754").toSolrId());
+        assertEquals("as:3a12", RefId.parse("/repositories/3/accessions/12").toSolrId());
+        assertEquals(RefId.parse("/repositories/3/accessions/12"), RefId.fromSolrId("as:3a12"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSolrId() {
+        RefId.fromSolrId("as:3x12");
+    }
+
+    @Test
+    public void testLongEncoding() {
+        for (String uri : new String[] { "/repositories/0/accessions/0", "/repositories/3/resources/754",
+                "/repositories/524287/archival_objects/1099511627775" }) {
+            final RefId ref = RefId.parse(uri);
+            assertEquals(ref, RefId.fromLong(ref.toLong()));
+            assertEquals(uri, RefId.fromLong(ref.toLong()).getUri());
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+package edu.virginia.lib.indexing;
+
+import org.junit.Test;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the per-type bounds, expiry and invalidation of the in-memory reference cache.
+ */
+public class ReferenceCacheTest {
+
+    private static JsonObject record(final String uri) {
+        return Json.createObjectBuilder().add("uri", uri).build();
+    }
+
+    @Test
+    public void testCacheTypes() {
+        assertEquals("agents", ReferenceCache.getCacheType("/agents/people/12"));
+        assertEquals("subjects", ReferenceCache.getCacheType("/subjects/4"));
+        assertEquals("repositories", ReferenceCache.getCacheType("/repositories/3"));
+        assertEquals("top_containers", ReferenceCache.getCacheType("/repositories/3/top_containers/1234"));
+        assertEquals("resources", ReferenceCache.getCacheType("/repositories/3/resources/1"));
+    }
+
+    @Test
+    public void testUncachedTypesPassThrough() {
+        final ReferenceCache cache = new ReferenceCache(new Properties());
+        final String resource = "/repositories/3/resources/1";
+        assertFalse(cache.isCached(resource));
+        cache.put(resource, record(resource));
+        assertNull(cache.get(resource));
+        assertTrue(cache.isCached("/agents/people/12"));
+
+        final Properties config = new Properties();
+        config.setProperty("referenceCacheTypes", "resources");
+        final ReferenceCache configured = new ReferenceCache(config);
+        assertTrue(configured.isCached(resource));
+        assertFalse(configured.isCached("/agents/people/12"));
+        configured.put(resource, record(resource));
+        assertEquals(record(resource), configured.get(resource));
+        assertEquals(1, configured.getStatistics().size());
+    }
+
+    @Test
+    public void testPerTypeLimits() {
+        final Properties config = new Properties();
+        config.setProperty("referenceCacheMaxSize", "3");
+        config.setProperty("referenceCacheMaxSize.repositories", "1");
+        final ReferenceCache cache = new ReferenceCache(config);
+        cache.put("/repositories/1", record("/repositories/1"));
+        cache.put("/repositories/2", record("/repositories/2"));
+        assertNull("The repositories limit is overridden.", cache.get("/repositories/1"));
+        assertEquals(record("/repositories/2"), cache.get("/repositories/2"));
+
+        for (int i = 1; i <= 3; i ++) {
+            cache.put("/subjects/" + i, record("/subjects/" + i));
+        }
+        // using the first subject makes the second the least recently used
+        assertEquals(record("/subjects/1"), cache.get("/subjects/1"));
+        cache.put("/subjects/4", record("/subjects/4"));
+        assertNull(cache.get("/subjects/2"));
+        assertEquals(record("/subjects/1"), cache.get("/subjects/1"));
+        assertEquals(record("/subjects/4"), cache.get("/subjects/4"));
+        assertTrue(cache.getStatistics().contains("reference cache subjects: 3 hits, 1 misses, 1 evictions, 3 entries"));
+        assertTrue(cache.getStatistics().contains("reference cache repositories: 1 hits, 1 misses, 1 evictions, 1 entries"));
+    }
+
+    @Test
+    public void testTtlExpiry() throws InterruptedException {
+        final Properties config = new Properties();
+        config.setProperty("referenceCacheTtlSeconds", "0");
+        config.setProperty("referenceCacheTtlSeconds.agents", "3600");
+        final ReferenceCache cache = new ReferenceCache(config);
+        final JsonObject agent = record("/agents/people/1");
+        cache.put("/agents/people/1", agent);
+        cache.put("/subjects/1", record("/subjects/1"));
+        Thread.sleep(5);
+        assertNull("A subject expires immediately.", cache.get("/subjects/1"));
+        assertSame(agent, cache.get("/agents/people/1"));
+        assertTrue(cache.getStatistics().contains("reference cache subjects: 0 hits, 1 misses, 1 evictions, 0 entries"));
+    }
+
+    @Test
+    public void testInvalidate() {
+        final ReferenceCache cache = new ReferenceCache(new Properties());
+        cache.put("/agents/people/1", record("/agents/people/1"));
+        cache.put("/agents/people/2", record("/agents/people/2"));
+        cache.invalidate("/agents/people/1");
+        cache.invalidate("/repositories/3/resources/1");
+        assertNull(cache.get("/agents/people/1"));
+        assertEquals(record("/agents/people/2"), cache.get("/agents/people/2"));
+    }
+}
@@ -0,0 +1,89 @@
+package edu.virginia.lib.indexing;
+
+import edu.virginia.lib.indexing.tools.ReplayServer;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.json.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import static edu.virginia.lib.indexing.helpers.JsonHelper.parseJsonObject;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that responses recorded by an ArchivesSpaceClient can be replayed by the
+ * ReplayServer, even when errors are injected.
+ */
+public class ReplayServerTest {
+
+    private static final String REF = "/repositories/0/resources/1";
+
+    private static final File BUNDLE_DIR = new File("target/test-output/replay-bundle");
+
+    private static final File RECORDING_DIR = new File("target/test-output/replay-recording");
+
+    private FixtureBundle bundle;
+
+    private ReplayServer server;
+
+    @Before
+    public void init() throws IOException {
+        FileUtils.deleteQuietly(BUNDLE_DIR);
+        FileUtils.deleteQuietly(RECORDING_DIR);
+        bundle = new FixtureBundle(BUNDLE_DIR);
+        bundle.record(REF, load("resource.json"));
+        bundle.record(REF + "/tree", load("tree.json"));
+        for (int i = 1; i <= 4; i ++) {
+            bundle.record("/repositories/0/archival_objects/" + i, load("ao" + i + ".json"));
+        }
+        bundle.close();
+    }
+
+    @After
+    public void cleanup() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testRecordAndReplayWithInjectedErrors() throws IOException {
+        server = new ReplayServer(new FixtureBundle(BUNDLE_DIR), 0, 1, 0.3, 0.1);
+        server.start();
+
+        final Properties config = new Properties();
+        config.setProperty("archivesSpaceMaxRetries", "30");
+        config.setProperty("archivesSpaceRetryBaseMs", "1");
+        config.setProperty("recordDir", RECORDING_DIR.getPath());
+        final Set<String> containers = new HashSet<>();
+        final Set<String> dos = new HashSet<>();
+        try (ArchivesSpaceClient client = new ArchivesSpaceClient(server.getUrl(), "user", "password", config)) {
+            new ASpaceCollection(client, REF).collectInstanceRefs(containers, dos);
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/0/top_containers/1", "/repositories/0/top_containers/2",
+                "/repositories/0/top_containers/4")), containers);
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/0/digital_objects/1")), dos);
+
+        final FixtureBundle recording = new FixtureBundle(RECORDING_DIR);
+        // archival object 4 is never fetched because its parent isn't published
+        final Set<String> expected = new HashSet<>(bundle.getPaths());
+        expected.remove("/repositories/0/archival_objects/4");
+        assertEquals(expected, recording.getPaths());
+        for (String path : recording.getPaths()) {
+            assertEquals(bundle.get(path), recording.get(path));
+        }
+    }
+
+    private JsonObject load(final String name) throws IOException {
+        return parseJsonObject(getClass().getClassLoader().getResourceAsStream("resource0/" + name));
+    }
+
+}
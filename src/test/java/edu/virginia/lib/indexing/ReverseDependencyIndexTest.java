@@ -0,0 +1,92 @@
+package edu.virginia.lib.indexing;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests maintaining and persisting the index of the records that use each dependency, and
+ * planning from it.
+ */
+public class ReverseDependencyIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final JsonObject VERSION_1 = Json.createObjectBuilder().add("lock_version", 1).build();
+
+    private static DependencyTracker tracker(final String ... uris) {
+        final DependencyTracker tracker = new DependencyTracker();
+        for (String uri : uris) {
+            if (uri.startsWith("http")) {
+                tracker.addManifest(uri, "digest");
+            } else {
+                tracker.addRecord(uri, VERSION_1);
+            }
+        }
+        return tracker;
+    }
+
+    @Test
+    public void testUpdateAndSave() throws IOException {
+        final File file = new File(folder.getRoot(), "dependencies.txt");
+        final ReverseDependencyIndex index = new ReverseDependencyIndex(file);
+        index.update("/repositories/3/resources/1", tracker("/repositories/3/resources/1", "/repositories/3",
+                "/repositories/3/archival_objects/2", "/agents/people/4", "/subjects/5", "https://iiif.example.com/1"));
+        index.update("/repositories/3/resources/6", tracker("/repositories/3", "/agents/people/4"));
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/resources/1", "/repositories/3/resources/6")), index.getDependents("/agents/people/4"));
+        assertEquals("Archival objects are traced through their ancestors.", Collections.emptySet(), index.getDependents("/repositories/3/archival_objects/2"));
+
+        // the resource no longer uses the subject or the manifest
+        index.update("/repositories/3/resources/1", tracker("/repositories/3", "/agents/people/4"));
+        assertEquals(Collections.emptySet(), index.getDependents("/subjects/5"));
+        assertEquals(Collections.emptyMap(), index.getManifestDigests());
+        index.update("/repositories/3/resources/6", tracker("/repositories/3", "https://iiif.example.com/1"));
+        index.save();
+
+        final ReverseDependencyIndex reloaded = new ReverseDependencyIndex(file);
+        assertTrue(reloaded.contains("/repositories/3/resources/6"));
+        assertFalse(reloaded.contains("/repositories/3/resources/7"));
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/resources/1")), reloaded.getDependents("/agents/people/4"));
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/resources/6")), reloaded.getDependents("https://iiif.example.com/1"));
+        assertEquals(Collections.singletonMap("https://iiif.example.com/1", "digest"), reloaded.getManifestDigests());
+    }
+
+    @Test
+    public void testPlan() throws IOException {
+        final ReverseDependencyIndex index = new ReverseDependencyIndex(new File(folder.getRoot(), "dependencies.txt"));
+        index.update("/repositories/3/resources/1", tracker("/repositories/3", "/agents/people/4"));
+        index.update("/repositories/3/resources/2", tracker("/locations/8"));
+        index.update("/repositories/3/accessions/1", tracker("/subjects/5"));
+
+        final ArchivesSpaceClient client = mock(ArchivesSpaceClient.class);
+        when(client.listAccessionIds("/repositories/3")).thenReturn(Arrays.asList("/repositories/3/accessions/1", "/repositories/3/accessions/2"));
+        when(client.listResourceIds("/repositories/3")).thenReturn(Arrays.asList("/repositories/3/resources/1", "/repositories/3/resources/2"));
+        final ChangeSet changes = new ChangeSet();
+        changes.addRepository("/repositories/3");
+        changes.addDependency("/locations/8");
+        changes.addDependency("/agents/people/9");
+
+        final ChangePlanner.Plan plan = new ChangePlanner(since -> changes, client, index, null, null).plan(Instant.now().minusSeconds(86400), new PrintWriter(new StringWriter()));
+        // accession 2 isn't in the index, so it can't be known not to use the repository
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/resources/1", "/repositories/3/accessions/2", "/repositories/3/resources/2")), plan.getRefs());
+        assertEquals(new HashSet<>(Arrays.asList("/repositories/3/resources/1", "/repositories/3/accessions/2")), plan.getRepositoryRefs());
+    }
+}
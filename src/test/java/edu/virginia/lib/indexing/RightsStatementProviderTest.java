@@ -0,0 +1,78 @@
+package edu.virginia.lib.indexing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the RightsStatementProvider against an in-memory stand-in for the tracksys database.
+ */
+public class RightsStatementProviderTest {
+
+    private static final String URL = "jdbc:h2:mem:tracksys;DB_CLOSE_DELAY=-1";
+
+    private static final String INC_EDU = "http://rightsstatements.org/vocab/InC-EDU/1.0/";
+
+    private static final String NO_KNOWN_COPYRIGHT = "http://rightsstatements.org/vocab/NKC/1.0/";
+
+    private Connection db;
+
+    @Before
+    public void init() throws SQLException {
+        db = DriverManager.getConnection(URL);
+        execute("CREATE TABLE use_rights (id INT PRIMARY KEY, name VARCHAR(255), uri VARCHAR(255), statement TEXT, "
+                + "commercial_use INT, educational_use INT, modifications INT)");
+        execute("INSERT INTO use_rights VALUES (1, 'In Copyright - Educational Use Permitted', '" + INC_EDU + "', 'statement one', 0, 1, 0)");
+    }
+
+    @After
+    public void cleanup() throws SQLException {
+        execute("DROP TABLE use_rights");
+        db.close();
+    }
+
+    @Test
+    public void testPreloadedAndFallbackLookups() throws SQLException {
+        final RightsStatementProvider provider = new RightsStatementProvider(URL, 60 * 60 * 1000);
+        final RightsStatementProvider.RightsStatement statement = provider.getStatement(INC_EDU);
+        assertEquals("statement one", statement.getStatement());
+        assertTrue(statement.isEducationalUsePermitted());
+        assertFalse(statement.isCommercialUsePermitted());
+        assertNull(provider.getStatement(NO_KNOWN_COPYRIGHT));
+
+        // added after the table was loaded, so found by the individual lookup
+        execute("INSERT INTO use_rights VALUES (2, 'No Known Copyright', '" + NO_KNOWN_COPYRIGHT + "', 'statement two', 1, 1, 1)");
+        assertEquals("statement two", provider.getStatement(NO_KNOWN_COPYRIGHT).getStatement());
+
+        // changed after the table was loaded, but not reloaded until the interval elapses
+        execute("UPDATE use_rights SET statement = 'revised' WHERE id = 1");
+        assertEquals("statement one", provider.getStatement(INC_EDU).getStatement());
+        provider.close();
+    }
+
+    @Test
+    public void testRefresh() throws SQLException {
+        final RightsStatementProvider provider = new RightsStatementProvider(URL, 0);
+        assertEquals("statement one", provider.getStatement(INC_EDU).getStatement());
+        execute("UPDATE use_rights SET statement = 'revised' WHERE id = 1");
+        assertEquals("revised", provider.getStatement(INC_EDU).getStatement());
+        provider.close();
+    }
+
+    private void execute(final String sql) throws SQLException {
+        try (Statement s = db.createStatement()) {
+            s.execute(sql);
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package edu.virginia.lib.indexing;
+
+import edu.virginia.lib.indexing.tools.RunJournal;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that an unfinished run can be resumed from its journal with the refs it didn't complete.
+ */
+public class RunJournalTest {
+
+    private static final File JOURNAL = new File("target/test-output/journal/index-run.journal");
+
+    private static final String A = "/repositories/3/resources/1";
+
+    private static final String B = "/repositories/3/resources/2";
+
+    private static final String C = "/repositories/3/accessions/3";
+
+    @Before
+    public void init() {
+        FileUtils.deleteQuietly(JOURNAL.getParentFile());
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        final Date started = new Date(1500000000000L);
+        try (RunJournal journal = RunJournal.start(JOURNAL, started, new LinkedHashSet<>(Arrays.asList(A, B, C)), Collections.singleton(B))) {
+            journal.completed(A);
+        }
+        // a run that dies while writing leaves a partial line
+        try (FileOutputStream out = new FileOutputStream(JOURNAL, true)) {
+            out.write("compl".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (RunJournal resumed = RunJournal.resume(JOURNAL)) {
+            assertEquals(started, resumed.getStarted());
+            assertEquals(new HashSet<>(Arrays.asList(B, C)), resumed.getRemainingRefs());
+            assertEquals(Collections.singleton(B), resumed.getRepositoryRefs());
+            resumed.completed(B);
+        }
+
+        try (RunJournal resumed = RunJournal.resume(JOURNAL)) {
+            assertEquals(Collections.singleton(C), resumed.getRemainingRefs());
+            assertEquals(Collections.emptySet(), resumed.getRepositoryRefs());
+            resumed.completed(C);
+            resumed.finished();
+        }
+        assertNull("A finished run can't be resumed.", RunJournal.resume(JOURNAL));
+    }
+
+    @Test
+    public void testCarryOver() throws IOException {
+        try (RunJournal journal = RunJournal.start(JOURNAL, new Date(), new LinkedHashSet<>(Arrays.asList(A, B, C)), Collections.singleton(B))) {
+            journal.completed(A);
+        }
+        final Set<String> refs = new LinkedHashSet<>(Collections.singleton(C));
+        final Set<String> repositoryRefs = new LinkedHashSet<>();
+        assertEquals("Only the refs not already planned are added.", 1, RunJournal.carryOver(JOURNAL, refs, repositoryRefs));
+        assertEquals(new HashSet<>(Arrays.asList(B, C)), refs);
+        assertEquals(Collections.singleton(B), repositoryRefs);
+
+        RunJournal.start(JOURNAL, new Date(), refs, repositoryRefs).close();
+        try (RunJournal next = RunJournal.resume(JOURNAL)) {
+            assertEquals(refs, next.getRemainingRefs());
+            next.completed(B);
+            next.completed(C);
+            next.finished();
+        }
+        assertEquals("A finished run leaves nothing to carry over.", 0, RunJournal.carryOver(JOURNAL, refs, repositoryRefs));
+    }
+
+    @Test
+    public void testNothingToResume() throws IOException {
+        assertNull(RunJournal.resume(JOURNAL));
+        final Set<String> none = Collections.emptySet();
+        RunJournal.start(JOURNAL, new Date(), none, none).close();
+        try (RunJournal resumed = RunJournal.resume(JOURNAL)) {
+            assertEquals(none, resumed.getRemainingRefs());
+        }
+    }
+}
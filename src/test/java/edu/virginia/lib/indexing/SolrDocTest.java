@@ -0,0 +1,63 @@
+package edu.virginia.lib.indexing;
+
+import edu.virginia.lib.indexing.helpers.SolrHelper;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that each serializer writes every value of a SolrDoc, in order.
+ */
+public class SolrDocTest {
+
+    private SolrDoc createDoc() {
+        final SolrDoc doc = new SolrDoc();
+        doc.addField("id", "as:3r754");
+        doc.addField("feature_facet", "iiif");
+        doc.addField("main_title_display", "Papers <& Correspondence>");
+        doc.addField("feature_facet", "suppress_ris_export");
+        return doc;
+    }
+
+    @Test
+    public void testXml() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SolrXmlSerializer().write(createDoc(), out);
+        final Document xml = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(Arrays.asList("as:3r754"), SolrHelper.getSolrXmlFieldValues("id", xml));
+        assertEquals(Arrays.asList("Papers <& Correspondence>"), SolrHelper.getSolrXmlFieldValues("main_title_display", xml));
+        assertEquals(Arrays.asList("iiif", "suppress_ris_export"), SolrHelper.getSolrXmlFieldValues("feature_facet", xml));
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SolrJsonSerializer().write(createDoc(), out);
+        final JsonArray docs = Json.createReader(new ByteArrayInputStream(out.toByteArray())).readArray();
+        assertEquals(1, docs.size());
+        final JsonObject doc = docs.getJsonObject(0);
+        assertEquals("as:3r754", doc.getString("id"));
+        assertEquals("iiif", doc.getJsonArray("feature_facet").getString(0));
+        assertEquals("suppress_ris_export", doc.getJsonArray("feature_facet").getString(1));
+    }
+
+    @Test
+    public void testSolrInputDocument() {
+        final SolrInputDocument doc = createDoc().toSolrInputDocument();
+        assertEquals("as:3r754", doc.getFieldValue("id"));
+        assertEquals(Arrays.asList("iiif", "suppress_ris_export"), doc.getFieldValues("feature_facet"));
+    }
+
+}
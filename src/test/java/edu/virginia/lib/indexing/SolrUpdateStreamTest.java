@@ -0,0 +1,89 @@
+package edu.virginia.lib.indexing;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that documents added to a SolrUpdateStream reach solr in batches with a commitWithin.
+ */
+public class SolrUpdateStreamTest {
+
+    private HttpServer server;
+
+    private final List<String> updates = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/solr/virgo/update", exchange -> {
+            final String body = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+            updates.add(body);
+            exchange.sendResponseHeaders(body.contains("as:3r-broken") ? 500 : 200, -1);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void cleanup() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        final Properties config = new Properties();
+        config.setProperty("solrBatchSize", "2");
+        config.setProperty("solrThreads", "1");
+        config.setProperty("solrCommitWithinMs", "5000");
+        final SolrUpdateStream stream = new SolrUpdateStream("http://localhost:" + server.getAddress().getPort() + "/solr/virgo/update", config);
+        for (int i = 0; i < 5; i ++) {
+            final SolrDoc doc = new SolrDoc();
+            doc.addField("id", "as:3r" + i);
+            stream.add(doc);
+        }
+        stream.close();
+
+        assertEquals(0, stream.getErrorCount());
+        final String body = String.join("", updates);
+        for (int i = 0; i < 5; i ++) {
+            assertTrue(body.contains("as:3r" + i));
+        }
+        assertEquals(3, body.split("commitWithin=\"5000\"", -1).length - 1);
+        assertFalse(body.contains("commit="));
+    }
+
+    @Test
+    public void testOnlyAcceptedDocumentsAreReported() throws Exception {
+        final Properties config = new Properties();
+        config.setProperty("solrBatchSize", "2");
+        final List<Object> sent = Collections.synchronizedList(new ArrayList<>());
+        final SolrUpdateStream stream = new SolrUpdateStream("http://localhost:" + server.getAddress().getPort() + "/solr/virgo", config, sent::addAll);
+        for (String id : Arrays.asList("as:3r0", "as:3r1", "as:3r2", "as:3r-broken", "as:3r4")) {
+            final SolrDoc doc = new SolrDoc();
+            doc.addField("id", id);
+            stream.add(doc, id);
+        }
+        stream.close();
+
+        assertEquals(1, stream.getErrorCount());
+        assertEquals("The batch that solr rejected isn't reported.", new HashSet<>(Arrays.asList("as:3r0", "as:3r1", "as:3r4")), new HashSet<>(sent));
+    }
+}
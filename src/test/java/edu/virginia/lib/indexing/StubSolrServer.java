@@ -0,0 +1,135 @@
+package edu.virginia.lib.indexing;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * A stand-in for the select handler of a solr core, which answers each query with the documents
+ * chosen by a function of its parameters.  Results are paged with a cursorMark for javabin
+ * requests (as made by SolrHelper.scanRecordsForQuery) and with start offsets for XML requests
+ * (as made by SolrHelper.getRecordsForQuery).
+ */
+public class StubSolrServer {
+
+    private final HttpServer server;
+
+    private final List<Map<String, String>> requests = new CopyOnWriteArrayList<>();
+
+    public StubSolrServer(final Function<Map<String, String>, List<SolrDocument>> handler) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collection1/select", exchange -> {
+            final Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            requests.add(params);
+            final List<SolrDocument> docs = handler.apply(params);
+            final int rows = Integer.parseInt(params.getOrDefault("rows", "10"));
+            final byte[] body;
+            if ("javabin".equals(params.get("wt"))) {
+                final String cursorMark = params.get("cursorMark");
+                final int start = cursorMark == null || cursorMark.equals("*") ? 0 : Integer.parseInt(cursorMark);
+                final SolrDocumentList page = page(docs, start, rows);
+                final NamedList<Object> response = new NamedList<>();
+                response.add("response", page);
+                response.add("nextCursorMark", page.isEmpty() ? cursorMark : String.valueOf(start + page.size()));
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                new JavaBinCodec().marshal(response, out);
+                body = out.toByteArray();
+                exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            } else {
+                final int start = Integer.parseInt(params.getOrDefault("start", "0"));
+                body = toXml(page(docs, start, rows)).getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=UTF-8");
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return the URL of the stub core, to be passed as a solr URL.
+     */
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/collection1";
+    }
+
+    /**
+     * @return the parameters of each request made, in order.
+     */
+    public List<Map<String, String>> getRequests() {
+        return requests;
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static SolrDocumentList page(final List<SolrDocument> docs, final int start, final int rows) {
+        final SolrDocumentList page = new SolrDocumentList();
+        page.addAll(docs.subList(Math.min(start, docs.size()), Math.min(start + rows, docs.size())));
+        page.setNumFound(docs.size());
+        page.setStart(start);
+        return page;
+    }
+
+    private static String toXml(final SolrDocumentList page) {
+        final StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<response>");
+        xml.append("<lst name=\"responseHeader\"><int name=\"status\">0</int><int name=\"QTime\">0</int></lst>");
+        xml.append("<result name=\"response\" numFound=\"").append(page.getNumFound()).append("\" start=\"").append(page.getStart()).append("\">");
+        for (SolrDocument d : page) {
+            xml.append("<doc>");
+            for (String name : d.getFieldNames()) {
+                final Object value = d.getFieldValue(name);
+                if (value instanceof Collection) {
+                    xml.append("<arr name=\"").append(name).append("\">");
+                    for (Object v : (Collection<?>) value) {
+                        appendValue(xml, null, v);
+                    }
+                    xml.append("</arr>");
+                } else {
+                    appendValue(xml, name, value);
+                }
+            }
+            xml.append("</doc>");
+        }
+        return xml.append("</result></response>").toString();
+    }
+
+    private static void appendValue(final StringBuilder xml, final String name, final Object value) {
+        final String type = value instanceof Boolean ? "bool" : value instanceof Integer ? "int" : value instanceof Long ? "long" : "str";
+        xml.append('<').append(type);
+        if (name != null) {
+            xml.append(" name=\"").append(name).append('"');
+        }
+        xml.append('>').append(String.valueOf(value).replace("&", "&amp;").replace("<", "&lt;")).append("</").append(type).append('>');
+    }
+
+    private static Map<String, String> parseQuery(final String query) throws UnsupportedEncodingException {
+        final Map<String, String> params = new HashMap<>();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                final int equals = pair.indexOf('=');
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+}
@@ -0,0 +1,77 @@
+package edu.virginia.lib.indexing;
+
+import edu.virginia.lib.indexing.tools.UpdateDebouncer;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests that refs found repeatedly are held until they've gone the quiet period without being
+ * found again.
+ */
+public class UpdateDebouncerTest {
+
+    private static final String A = "/repositories/3/resources/1";
+
+    private static final String B = "/repositories/3/accessions/2";
+
+    private static final Instant WINDOW = Instant.parse("2020-01-01T00:00:00Z");
+
+    private static Set<String> set(final String ... refs) {
+        return new HashSet<>(Arrays.asList(refs));
+    }
+
+    @Test
+    public void testBurstOfEdits() {
+        final UpdateDebouncer debouncer = new UpdateDebouncer(300, 1000);
+        debouncer.add(set(A, B), set(B), Collections.emptySet(), WINDOW, 0);
+        debouncer.add(set(A), Collections.emptySet(), Collections.emptySet(), WINDOW.plusSeconds(60), 200);
+        assertEquals(Collections.emptySet(), debouncer.takeSettled(299).getRefs());
+
+        final UpdateDebouncer.Batch first = debouncer.takeSettled(300);
+        assertEquals(set(B), first.getRefs());
+        assertEquals("B was only queued because of its repository.", set(B), first.getRepositoryRefs());
+        assertEquals("A was found in the first window and is still held.", WINDOW, debouncer.getEarliestWindowStart());
+
+        // A keeps changing, but is released after the maximum delay
+        debouncer.add(set(A), Collections.emptySet(), Collections.emptySet(), WINDOW.plusSeconds(120), 400);
+        debouncer.add(set(A), Collections.emptySet(), Collections.emptySet(), WINDOW.plusSeconds(180), 800);
+        assertEquals(set(A), debouncer.takeSettled(1000).getRefs());
+        assertEquals(0, debouncer.size());
+        assertNull(debouncer.getEarliestWindowStart());
+    }
+
+    @Test
+    public void testIndividualUpdateOfRepositoryRef() {
+        final UpdateDebouncer debouncer = new UpdateDebouncer(300, 1000);
+        debouncer.add(set(A), set(A), Collections.emptySet(), WINDOW, 0);
+        debouncer.add(set(A), Collections.emptySet(), Collections.emptySet(), WINDOW, 10);
+        final UpdateDebouncer.Batch batch = debouncer.takeSettled(310);
+        assertEquals(set(A), batch.getRefs());
+        assertEquals(Collections.emptySet(), batch.getRepositoryRefs());
+    }
+
+    @Test
+    public void testRepositoryIsHeldWithItsRefs() {
+        final UpdateDebouncer debouncer = new UpdateDebouncer(300, 1000);
+        debouncer.add(set(A, B), set(A, B), set("/repositories/3", "/repositories/4"), WINDOW, 0);
+        debouncer.add(set(A), Collections.emptySet(), Collections.emptySet(), WINDOW.plusSeconds(60), 200);
+
+        final UpdateDebouncer.Batch first = debouncer.takeSettled(300);
+        assertEquals(set(B), first.getRefs());
+        assertEquals("Repository 4 has no refs to wait for.", set("/repositories/4"), first.getRepositories());
+        assertEquals(WINDOW, debouncer.getEarliestWindowStart());
+
+        final UpdateDebouncer.Batch second = debouncer.takeSettled(500);
+        assertEquals(set(A), second.getRefs());
+        assertEquals(set("/repositories/3"), second.getRepositories());
+        assertNull(debouncer.getEarliestWindowStart());
+    }
+}
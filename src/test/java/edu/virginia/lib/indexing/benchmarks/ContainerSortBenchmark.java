@@ -0,0 +1,85 @@
+package edu.virginia.lib.indexing.benchmarks;
+
+import edu.virginia.lib.indexing.helpers.StringNaturalCompare;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sorting container call numbers with a StringNaturalCompare per comparison (as the
+ * containers were once sorted) against sorting by precomputed sort keys.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContainerSortBenchmark {
+
+    @Param({"100", "5000"})
+    public int containers;
+
+    private List<String> callNumbers;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(1);
+        callNumbers = new ArrayList<>();
+        for (int i = 1; i <= containers; i ++) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    callNumbers.add("Box " + i);
+                    break;
+                case 1:
+                    callNumbers.add("Box " + (i / 10) + " Folder " + (i % 10));
+                    break;
+                default:
+                    callNumbers.add("Oversize Box " + String.format("%03d", i) + "a");
+            }
+        }
+        Collections.shuffle(callNumbers, random);
+    }
+
+    @Benchmark
+    public List<String> comparatorPerComparison() {
+        final List<String> sorted = new ArrayList<>(callNumbers);
+        Collections.sort(sorted, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                StringNaturalCompare comp = new StringNaturalCompare();
+                return comp.compare(o1, o2);
+            }
+        });
+        return sorted;
+    }
+
+    @Benchmark
+    public List<String> precomputedKeys() {
+        final List<String> sorted = new ArrayList<>(callNumbers);
+        final Map<String, String> keys = new IdentityHashMap<>();
+        for (String callNumber : sorted) {
+            keys.put(callNumber, StringNaturalCompare.getSortKey(callNumber));
+        }
+        Collections.sort(sorted, Comparator.comparing(keys::get));
+        return sorted;
+    }
+
+}
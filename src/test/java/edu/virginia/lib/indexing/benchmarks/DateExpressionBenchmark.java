@@ -0,0 +1,64 @@
+package edu.virginia.lib.indexing.benchmarks;
+
+import edu.virginia.lib.indexing.helpers.DateExpressionParser;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the regular expressions with which date expressions were once matched against
+ * DateExpressionParser, over the sample expressions in date-expressions.txt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateExpressionBenchmark {
+
+    private List<String> expressions;
+
+    @Setup
+    public void setup() throws IOException {
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream("date-expressions.txt")) {
+            expressions = IOUtils.readLines(in, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public void regularExpressions(final Blackhole blackhole) {
+        for (String dateStr : expressions) {
+            int year = -1;
+            if (dateStr.matches("\\d\\d\\d\\d")) {
+                year = Integer.parseInt(dateStr);
+            } else if (dateStr.matches("\\d\\d\\d\\d-\\d\\d\\d\\d")) {
+                year = Integer.parseInt(dateStr.substring(5));
+            }
+            blackhole.consume(year);
+        }
+    }
+
+    @Benchmark
+    public void parser(final Blackhole blackhole) {
+        for (String dateStr : expressions) {
+            blackhole.consume(DateExpressionParser.parse(dateStr));
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package edu.virginia.lib.indexing.helpers;
+
+import edu.virginia.lib.indexing.helpers.DateExpressionParser.YearRange;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DateExpressionParserTest {
+
+    @Test
+    public void testExpressions() {
+        assertEquals(new YearRange(1920, 1920), DateExpressionParser.parse("1920"));
+        assertEquals(new YearRange(1920, 1930), DateExpressionParser.parse("1920-1930"));
+        assertEquals(new YearRange(1920, 1930), DateExpressionParser.parse("1920 to 1930"));
+        assertEquals(new YearRange(1920, 1920), DateExpressionParser.parse("circa 1920"));
+        assertEquals(new YearRange(1920, 1925), DateExpressionParser.parse("ca. 1920-1925"));
+        assertEquals(new YearRange(1920, 1929), DateExpressionParser.parse("1920s"));
+        assertEquals(new YearRange(1920, 1939), DateExpressionParser.parse("1920s-1930s"));
+        assertEquals(new YearRange(1850, 1899), DateExpressionParser.parse("1850-1899, bulk 1870-1880"));
+        assertEquals(new YearRange(1850, 1899), DateExpressionParser.parse("1850-1899 (Bulk 1900)"));
+        assertEquals(new YearRange(1920, 1920), DateExpressionParser.parse("1920-05-12"));
+        assertEquals(new YearRange(1863, 1865), DateExpressionParser.parse("1863 June 5 - 1865 April 9"));
+        assertEquals(new YearRange(1955, 2003), DateExpressionParser.parse("1955-2003, undated"));
+        assertEquals(new YearRange(1923, 1923), DateExpressionParser.parse("1923sept"));
+    }
+
+    @Test
+    public void testExpressionsWithoutYears() {
+        assertNull(DateExpressionParser.parse("undated"));
+        assertNull(DateExpressionParser.parse("19th century"));
+        assertNull(DateExpressionParser.parse("12345"));
+        assertNull(DateExpressionParser.parse("bulk 1920"));
+        assertNull(DateExpressionParser.parse(""));
+    }
+
+    @Test
+    public void testIsoYears() {
+        assertEquals(1920, DateExpressionParser.parseIsoYear("1920"));
+        assertEquals(1920, DateExpressionParser.parseIsoYear("1920-05-12"));
+        assertEquals(-1, DateExpressionParser.parseIsoYear("19200"));
+        assertEquals(-1, DateExpressionParser.parseIsoYear("192"));
+        assertEquals(-1, DateExpressionParser.parseIsoYear(null));
+    }
+}
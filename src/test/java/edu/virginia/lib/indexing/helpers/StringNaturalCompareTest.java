@@ -0,0 +1,54 @@
+package edu.virginia.lib.indexing.helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class StringNaturalCompareTest {
+
+    @Test
+    public void testContainerOrder() {
+        final List<String> expected = Arrays.asList("Box 1", "box 2", "Box 2 Folder 3", "Box 2 Folder 10", "Box 10", "Box 10a", "Box 011", "Oversize 1");
+        final List<String> byKey = new ArrayList<>(expected);
+        Collections.shuffle(byKey, new Random(1));
+        byKey.sort((a, b) -> StringNaturalCompare.getSortKey(a).compareTo(StringNaturalCompare.getSortKey(b)));
+        final List<String> byComparator = new ArrayList<>(byKey);
+        byComparator.sort(new StringNaturalCompare());
+        assertEquals(byComparator, byKey);
+    }
+
+    /**
+     * Compares the sign of every comparison of many random strings made up of the characters
+     * that matter to the natural ordering (digits, zeros, whitespace, upper and lower case and
+     * punctuation on either side of the digits).
+     */
+    @Test
+    public void testKeysAgreeWithComparator() {
+        final String alphabet = "00129  aBz-.:/";
+        final Random random = new Random(42);
+        final StringNaturalCompare comparator = new StringNaturalCompare();
+        final List<String> strings = new ArrayList<>();
+        for (int i = 0; i < 400; i ++) {
+            final StringBuilder sb = new StringBuilder();
+            final int length = random.nextInt(8);
+            for (int j = 0; j < length; j ++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            strings.add(sb.toString());
+        }
+        for (String a : strings) {
+            for (String b : strings) {
+                assertEquals("Comparing \"" + a + "\" to \"" + b + "\"",
+                        Integer.signum(comparator.compare(a, b)),
+                        Integer.signum(StringNaturalCompare.getSortKey(a).compareTo(StringNaturalCompare.getSortKey(b))));
+            }
+        }
+    }
+
+}